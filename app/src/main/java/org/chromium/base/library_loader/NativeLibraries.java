@@ -5,10 +5,13 @@
 package org.chromium.base.library_loader;
 
 import org.chromium.base.annotations.SuppressFBWarnings;
+import org.chromium.content_shell_apk.BuildConfig;
 
 @SuppressFBWarnings
 public class NativeLibraries {
-    public static boolean sUseLinker = false;
+    // Set by the build flavor, see app/build.gradle.
+    public static boolean sUseLinker = BuildConfig.USE_CHROMIUM_LINKER;
+    // The linker only loads a single library from the APK (crbug.com/388223).
     public static boolean sUseLibraryInZipFile = false;
     public static boolean sEnableLinkerTests = false;
     public static final String[] LIBRARIES =
@@ -0,0 +1,122 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content.browser;
+
+import android.content.Context;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The default {@link BindingManager}, which also tells listeners about the child processes
+ * {@link ChildProcessLauncher} starts and stops.  It lives in this package because the default
+ * implementation is package-private.
+ *
+ * The launcher keeps the bindings of the connected processes in its binding manager, so it is
+ * installed once per process and outlives the activities whose listeners come and go.
+ */
+public class ObservingBindingManager implements BindingManager {
+
+    /**
+     * Notified on the launcher's threads.
+     */
+    public interface Listener {
+        /**
+         * Called once a child process is connected.
+         * @param inSandbox Whether it is a sandboxed process, i.e. a renderer.
+         */
+        void onChildProcessStarted(int pid, boolean inSandbox);
+
+        /**
+         * Called when the launcher stops tracking a child process.
+         */
+        void onChildProcessStopped(int pid);
+    }
+
+    private static boolean sInstalled;
+    // Notified on the launcher's threads while listeners are added and removed on the UI thread.
+    private static final List<Listener> sListeners = new CopyOnWriteArrayList<Listener>();
+
+    private final BindingManager mDelegate;
+
+    /**
+     * Makes the launcher use an observing binding manager.  Must be called before the first child
+     * process is launched; later calls do nothing, so that the launcher never loses track of the
+     * processes it has connected.
+     */
+    public static synchronized void install() {
+        if (sInstalled) return;
+        sInstalled = true;
+        ChildProcessLauncher.setBindingManagerForTesting(
+                new ObservingBindingManager(BindingManagerImpl.createBindingManager()));
+    }
+
+    /**
+     * Notifies a listener of the child processes started and stopped from now on.  Does nothing
+     * if it is already added.
+     */
+    public static void addListener(Listener listener) {
+        if (!sListeners.contains(listener)) sListeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        sListeners.remove(listener);
+    }
+
+    private ObservingBindingManager(BindingManager delegate) {
+        mDelegate = delegate;
+    }
+
+    @Override
+    public void addNewConnection(int pid, ChildProcessConnection connection) {
+        mDelegate.addNewConnection(pid, connection);
+        for (Listener listener : sListeners) {
+            listener.onChildProcessStarted(pid, connection.isInSandbox());
+        }
+    }
+
+    @Override
+    public void setInForeground(int pid, boolean inForeground) {
+        mDelegate.setInForeground(pid, inForeground);
+    }
+
+    @Override
+    public void determinedVisibility(int pid) {
+        mDelegate.determinedVisibility(pid);
+    }
+
+    @Override
+    public void onSentToBackground() {
+        mDelegate.onSentToBackground();
+    }
+
+    @Override
+    public void onBroughtToForeground() {
+        mDelegate.onBroughtToForeground();
+    }
+
+    @Override
+    public boolean isOomProtected(int pid) {
+        return mDelegate.isOomProtected(pid);
+    }
+
+    @Override
+    public void clearConnection(int pid) {
+        mDelegate.clearConnection(pid);
+        for (Listener listener : sListeners) listener.onChildProcessStopped(pid);
+    }
+
+    @Override
+    public void startModerateBindingManagement(Context context, int maxSize,
+            float lowReduceRatio, float highReduceRatio) {
+        mDelegate.startModerateBindingManagement(context, maxSize, lowReduceRatio,
+                highReduceRatio);
+    }
+
+    @Override
+    public void releaseAllModerateBindings() {
+        mDelegate.releaseAllModerateBindings();
+    }
+}
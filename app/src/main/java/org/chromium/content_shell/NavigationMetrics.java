@@ -0,0 +1,78 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+/**
+ * Timings of a single main frame navigation in a {@link Shell}, relative to when it started
+ * loading.  Milestones that were never reached, for instance because the load failed, are -1.
+ */
+public class NavigationMetrics {
+
+    /**
+     * Receives the metrics of every navigation once it stops loading.
+     */
+    public interface Observer {
+        void onNavigationFinished(Shell shell, NavigationMetrics metrics);
+    }
+
+    private final String mUrl;
+    private final long mCommitMs;
+    private final long mFirstPaintMs;
+    private final long mLoadCompleteMs;
+    private final long mTotalBytes;
+
+    public NavigationMetrics(String url, long commitMs, long firstPaintMs, long loadCompleteMs,
+            long totalBytes) {
+        mUrl = url;
+        mCommitMs = commitMs;
+        mFirstPaintMs = firstPaintMs;
+        mLoadCompleteMs = loadCompleteMs;
+        mTotalBytes = totalBytes;
+    }
+
+    /**
+     * @return The URL committed by the navigation, or the URL it started from if none was.
+     */
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * @return The time until the URL was committed.
+     */
+    public long getCommitMs() {
+        return mCommitMs;
+    }
+
+    /**
+     * @return The time until the first visually non-empty paint.
+     */
+    public long getFirstPaintMs() {
+        return mFirstPaintMs;
+    }
+
+    /**
+     * @return The time until the load completed.
+     */
+    public long getLoadCompleteMs() {
+        return mLoadCompleteMs;
+    }
+
+    /**
+     * @return The bytes received by the browser process while the navigation loaded, or -1 if
+     *         the device does not report traffic statistics.  Includes any concurrent traffic of
+     *         other shells.
+     */
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "NavigationMetrics{url=" + mUrl + ", commit=" + mCommitMs + "ms, firstPaint="
+                + mFirstPaintMs + "ms, loadComplete=" + mLoadCompleteMs + "ms, bytes="
+                + mTotalBytes + "}";
+    }
+}
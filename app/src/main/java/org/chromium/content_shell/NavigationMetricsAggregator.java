@@ -0,0 +1,89 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import android.os.SystemClock;
+
+import java.io.File;
+
+/**
+ * Aggregates the {@link NavigationMetrics} of all shells into sliding window histograms and dumps
+ * their percentiles as JSON.
+ */
+public class NavigationMetricsAggregator implements NavigationMetrics.Observer {
+
+    private static final String TAG = "NavigationMetrics";
+
+    public static final long WINDOW_MS = 5 * 60 * 1000;
+    private static final int WINDOW_SLICES = 30;
+    private static final double[] PERCENTILES = {50, 95, 99};
+
+    private final SlidingWindowHistogram mCommitMs =
+            new SlidingWindowHistogram(WINDOW_MS, WINDOW_SLICES);
+    private final SlidingWindowHistogram mFirstPaintMs =
+            new SlidingWindowHistogram(WINDOW_MS, WINDOW_SLICES);
+    private final SlidingWindowHistogram mLoadCompleteMs =
+            new SlidingWindowHistogram(WINDOW_MS, WINDOW_SLICES);
+    private final SlidingWindowHistogram mTotalBytes =
+            new SlidingWindowHistogram(WINDOW_MS, WINDOW_SLICES);
+
+    @Override
+    public void onNavigationFinished(Shell shell, NavigationMetrics metrics) {
+        long nowMs = SystemClock.elapsedRealtime();
+        if (metrics.getCommitMs() >= 0) mCommitMs.record(metrics.getCommitMs(), nowMs);
+        if (metrics.getFirstPaintMs() >= 0) mFirstPaintMs.record(metrics.getFirstPaintMs(), nowMs);
+        if (metrics.getLoadCompleteMs() >= 0) {
+            mLoadCompleteMs.record(metrics.getLoadCompleteMs(), nowMs);
+        }
+        if (metrics.getTotalBytes() >= 0) mTotalBytes.record(metrics.getTotalBytes(), nowMs);
+    }
+
+    public SlidingWindowHistogram getCommitHistogram() {
+        return mCommitMs;
+    }
+
+    public SlidingWindowHistogram getFirstPaintHistogram() {
+        return mFirstPaintMs;
+    }
+
+    public SlidingWindowHistogram getLoadCompleteHistogram() {
+        return mLoadCompleteMs;
+    }
+
+    public SlidingWindowHistogram getTotalBytesHistogram() {
+        return mTotalBytes;
+    }
+
+    /**
+     * @return The count and percentiles of every metric over the window, as JSON.
+     */
+    public String toJson() {
+        long nowMs = SystemClock.elapsedRealtime();
+        StringBuilder builder = new StringBuilder("{\"windowMs\":").append(WINDOW_MS);
+        appendHistogram(builder, "commitMs", mCommitMs, nowMs);
+        appendHistogram(builder, "firstPaintMs", mFirstPaintMs, nowMs);
+        appendHistogram(builder, "loadCompleteMs", mLoadCompleteMs, nowMs);
+        appendHistogram(builder, "totalBytes", mTotalBytes, nowMs);
+        return builder.append('}').toString();
+    }
+
+    /**
+     * Snapshots the percentiles and writes them to a file on a background thread.
+     */
+    public void writeDumpAsync(final File file) {
+        ReportFileWriter.writeAsync(TAG, "navigation metrics", file, toJson());
+    }
+
+    private static void appendHistogram(StringBuilder builder, String name,
+            SlidingWindowHistogram histogram, long nowMs) {
+        builder.append(",\"").append(name).append("\":{\"count\":")
+                .append(histogram.getCount(nowMs));
+        for (double percentile : PERCENTILES) {
+            builder.append(",\"p").append((int) percentile).append("\":")
+                    .append(histogram.getPercentile(percentile, nowMs));
+        }
+        builder.append('}');
+    }
+}
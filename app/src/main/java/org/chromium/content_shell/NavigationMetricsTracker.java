@@ -0,0 +1,90 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import android.net.TrafficStats;
+import android.os.Process;
+import android.os.SystemClock;
+
+import org.chromium.base.ObserverList;
+import org.chromium.content_public.browser.WebContents;
+import org.chromium.content_public.browser.WebContentsObserver;
+
+/**
+ * Times the navigations of one {@link Shell} from its native loading callbacks and the first
+ * paint reported by its {@link WebContents}, and hands the result of each to the shell's
+ * {@link NavigationMetrics.Observer}s.
+ */
+class NavigationMetricsTracker extends WebContentsObserver {
+
+    private final Shell mShell;
+    private final ObserverList<NavigationMetrics.Observer> mObservers;
+
+    // -1 while no navigation is loading.
+    private long mStartTimeMs = -1;
+    private long mStartRxBytes;
+    private String mUrl;
+    private long mCommitMs;
+    private long mFirstPaintMs;
+    private long mLoadCompleteMs;
+
+    NavigationMetricsTracker(Shell shell, WebContents webContents,
+            ObserverList<NavigationMetrics.Observer> observers) {
+        super(webContents);
+        mShell = shell;
+        mObservers = observers;
+    }
+
+    /**
+     * Starts timing a navigation when the shell starts loading, and reports it when it stops.
+     */
+    void onLoadingChanged(boolean loading) {
+        if (loading) {
+            if (mStartTimeMs >= 0) return;
+            mStartTimeMs = SystemClock.elapsedRealtime();
+            mStartRxBytes = TrafficStats.getUidRxBytes(Process.myUid());
+            mUrl = null;
+            mCommitMs = -1;
+            mFirstPaintMs = -1;
+            mLoadCompleteMs = -1;
+        } else if (mStartTimeMs >= 0) {
+            finishNavigation();
+        }
+    }
+
+    void onUrlUpdated(String url) {
+        if (mStartTimeMs < 0 || mCommitMs >= 0) return;
+        mCommitMs = elapsedMs();
+        mUrl = url;
+    }
+
+    void onLoadProgressChanged(double progress) {
+        if (mStartTimeMs < 0 || progress < 1.0 || mLoadCompleteMs >= 0) return;
+        mLoadCompleteMs = elapsedMs();
+    }
+
+    @Override
+    public void didFirstVisuallyNonEmptyPaint() {
+        if (mStartTimeMs < 0 || mFirstPaintMs >= 0) return;
+        mFirstPaintMs = elapsedMs();
+    }
+
+    private void finishNavigation() {
+        if (mLoadCompleteMs < 0 && mCommitMs >= 0) mLoadCompleteMs = elapsedMs();
+        long rxBytes = TrafficStats.getUidRxBytes(Process.myUid());
+        long totalBytes = rxBytes == TrafficStats.UNSUPPORTED
+                || mStartRxBytes == TrafficStats.UNSUPPORTED ? -1 : rxBytes - mStartRxBytes;
+        NavigationMetrics metrics = new NavigationMetrics(mUrl, mCommitMs, mFirstPaintMs,
+                mLoadCompleteMs, totalBytes);
+        mStartTimeMs = -1;
+        for (NavigationMetrics.Observer observer : mObservers) {
+            observer.onNavigationFinished(mShell, metrics);
+        }
+    }
+
+    private long elapsedMs() {
+        return SystemClock.elapsedRealtime() - mStartTimeMs;
+    }
+}
@@ -0,0 +1,204 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import org.chromium.base.MemoryPressureLevel;
+import org.chromium.base.ThreadUtils;
+import org.chromium.content_public.browser.ContentBitmapCallback;
+import org.chromium.content_public.browser.NavigationController;
+import org.chromium.content_public.browser.NavigationEntry;
+import org.chromium.content_public.browser.WebContents;
+import org.chromium.content_public.browser.readback_types.ReadbackResponse;
+
+/**
+ * Downscaled snapshots of the pages of recent history entries, shown by {@link Shell} on back and
+ * forward navigations until the page they navigate to has painted.
+ *
+ * A page is captured as it is navigated away from.  Snapshots are keyed by shell, history index
+ * and URL, and are evicted least recently used first once their total size exceeds the byte
+ * budget.  The bitmap of the readback is kept as is and recycled once evicted and no longer shown.
+ * Must be used on the UI thread.
+ */
+public class NavigationSnapshotCache {
+
+    public static final long DEFAULT_MAX_SIZE_BYTES = 8 * 1024 * 1024;
+    public static final long LOW_END_DEVICE_MAX_SIZE_BYTES = 2 * 1024 * 1024;
+    // Snapshots are shown stretched to the view for a few frames, so half resolution in 16 bits
+    // per pixel is enough and an eighth of the size of a full frame.
+    static final float SNAPSHOT_SCALE = 0.5f;
+    private static final Bitmap.Config SNAPSHOT_CONFIG = Bitmap.Config.RGB_565;
+
+    private final SnapshotLruCache<Key, Bitmap> mSnapshots;
+
+    /**
+     * A cached snapshot.  While a shell shows it, it is acquired so that its bitmap is not
+     * recycled.
+     */
+    public static class Snapshot {
+        private final SnapshotLruCache.Entry<Bitmap> mEntry;
+
+        private Snapshot(SnapshotLruCache.Entry<Bitmap> entry) {
+            mEntry = entry;
+        }
+
+        public Bitmap getBitmap() {
+            return mEntry.getValue();
+        }
+    }
+
+    /**
+     * @param maxSizeBytes The maximum total size of the cached snapshots.
+     */
+    public NavigationSnapshotCache(long maxSizeBytes) {
+        mSnapshots = new SnapshotLruCache<Key, Bitmap>(maxSizeBytes) {
+            @Override
+            protected long sizeOf(Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+
+            @Override
+            protected void free(Bitmap bitmap) {
+                bitmap.recycle();
+            }
+        };
+    }
+
+    /**
+     * Starts capturing the page of the last committed entry of the shell.  The snapshot replaces
+     * any earlier one of the same entry once the readback completes.
+     */
+    void capture(final Shell shell) {
+        ThreadUtils.assertOnUiThread();
+        final WebContents webContents = shell.getWebContents();
+        if (webContents == null || mSnapshots.getMaxSizeBytes() == 0) return;
+        NavigationController controller = webContents.getNavigationController();
+        int index = controller.getLastCommittedEntryIndex();
+        NavigationEntry entry = index >= 0 ? controller.getEntryAtIndex(index) : null;
+        if (entry == null) return;
+        final Key key = new Key(shell, index, entry.getUrl());
+        // An empty source rect reads back the whole view.
+        webContents.getContentBitmapAsync(SNAPSHOT_CONFIG, SNAPSHOT_SCALE, new Rect(),
+                new ContentBitmapCallback() {
+                    @Override
+                    public void onFinishGetBitmap(Bitmap bitmap, int response) {
+                        if (response != ReadbackResponse.SUCCESS || bitmap == null) return;
+                        // The shell may have been destroyed, and even reused, meanwhile.
+                        if (shell.getWebContents() != webContents) {
+                            bitmap.recycle();
+                            return;
+                        }
+                        mSnapshots.put(key, bitmap);
+                    }
+                });
+    }
+
+    /**
+     * Looks up the snapshot of a history entry and acquires it, so it stays valid until
+     * {@link #release(Snapshot)}.
+     * @return The snapshot, or null if there is none.
+     */
+    Snapshot acquire(Shell shell, int index, String url) {
+        ThreadUtils.assertOnUiThread();
+        SnapshotLruCache.Entry<Bitmap> entry = mSnapshots.acquire(new Key(shell, index, url));
+        return entry != null ? new Snapshot(entry) : null;
+    }
+
+    void release(Snapshot snapshot) {
+        ThreadUtils.assertOnUiThread();
+        mSnapshots.release(snapshot.mEntry);
+    }
+
+    /**
+     * Drops the snapshots of a shell that is being destroyed.  Does not count as evictions.
+     */
+    void removeShell(Shell shell) {
+        for (Key key : mSnapshots.getKeys()) {
+            if (key.mShell == shell) mSnapshots.remove(key);
+        }
+    }
+
+    /**
+     * Releases snapshots in response to memory pressure.  Moderate pressure trims the cache to
+     * half of its budget, critical pressure empties it.
+     * @param level A {@link MemoryPressureLevel} value.
+     */
+    public void onMemoryPressure(int level) {
+        if (level == MemoryPressureLevel.CRITICAL) {
+            mSnapshots.trimToSize(0);
+        } else if (level == MemoryPressureLevel.MODERATE) {
+            mSnapshots.trimToSize(mSnapshots.getMaxSizeBytes() / 2);
+        }
+    }
+
+    /**
+     * Changes the byte budget, evicting snapshots if the cache is now over it.
+     */
+    public void setMaxSizeBytes(long maxSizeBytes) {
+        mSnapshots.setMaxSizeBytes(maxSizeBytes);
+    }
+
+    public long getSizeBytes() {
+        return mSnapshots.getSizeBytes();
+    }
+
+    public int getEntryCount() {
+        return mSnapshots.getEntryCount();
+    }
+
+    /**
+     * @return The number of snapshots stored.
+     */
+    public int getCaptureCount() {
+        return mSnapshots.getPutCount();
+    }
+
+    /**
+     * @return The number of back or forward navigations that had a snapshot to show.
+     */
+    public int getHitCount() {
+        return mSnapshots.getHitCount();
+    }
+
+    public int getMissCount() {
+        return mSnapshots.getMissCount();
+    }
+
+    /**
+     * @return The number of snapshots evicted to stay within the byte budget or on memory
+     *         pressure.
+     */
+    public int getEvictionCount() {
+        return mSnapshots.getEvictionCount();
+    }
+
+    private static class Key {
+        final Shell mShell;
+        final int mIndex;
+        final String mUrl;
+
+        Key(Shell shell, int index, String url) {
+            mShell = shell;
+            mIndex = index;
+            mUrl = url;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) return false;
+            Key key = (Key) other;
+            return mShell == key.mShell && mIndex == key.mIndex
+                    && (mUrl == null ? key.mUrl == null : mUrl.equals(key.mUrl));
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(mShell) * 31 + mIndex) * 31
+                    + (mUrl == null ? 0 : mUrl.hashCode());
+        }
+    }
+}
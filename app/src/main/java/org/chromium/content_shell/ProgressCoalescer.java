@@ -0,0 +1,136 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+/**
+ * Collapses load progress updates to at most one redraw per frame.
+ *
+ * Every update only records the latest level; the first one after a redraw asks the delegate for
+ * a frame, and the level is drawn when that frame arrives unless it is already showing.  Counts
+ * of progress updates and redraws are kept for the current and the last completed load.
+ */
+public class ProgressCoalescer {
+
+    /** The level of a complete load, matching the range of a drawable level. */
+    public static final int MAX_LEVEL = 10000;
+
+    /**
+     * Schedules frames and draws levels.
+     */
+    public interface Delegate {
+        /**
+         * Requests a call to {@link ProgressCoalescer#onFrame()} on the next frame.
+         */
+        void scheduleFrame();
+
+        /**
+         * Cancels a frame requested by {@link #scheduleFrame()}.
+         */
+        void cancelFrame();
+
+        /**
+         * Shows the given progress level.
+         */
+        void drawLevel(int level);
+    }
+
+    private final Delegate mDelegate;
+    private int mPendingLevel;
+    private int mDrawnLevel;
+    private boolean mFrameScheduled;
+    private boolean mLoadCompleting;
+
+    private int mUpdateCount;
+    private int mRedrawCount;
+    private int mLastLoadUpdateCount;
+    private int mLastLoadRedrawCount;
+
+    public ProgressCoalescer(Delegate delegate) {
+        mDelegate = delegate;
+    }
+
+    /**
+     * Records a progress update.  Reaching 1.0 completes the load for the purpose of the counts.
+     * @param progress The load progress between 0.0 and 1.0.
+     */
+    public void onProgressChanged(double progress) {
+        mUpdateCount++;
+        mPendingLevel = (int) (MAX_LEVEL * progress);
+        if (!mFrameScheduled && mPendingLevel != mDrawnLevel) {
+            mFrameScheduled = true;
+            mDelegate.scheduleFrame();
+        }
+        if (mPendingLevel == MAX_LEVEL) {
+            // The load's counts include the redraw of its completed state on the next frame.
+            mLoadCompleting = true;
+            if (!mFrameScheduled) finishLoad();
+        }
+    }
+
+    /**
+     * Draws the latest level if it changed since the last redraw.  Called by the delegate on the
+     * frame it scheduled.
+     */
+    public void onFrame() {
+        mFrameScheduled = false;
+        if (mPendingLevel != mDrawnLevel) {
+            mDrawnLevel = mPendingLevel;
+            mRedrawCount++;
+            mDelegate.drawLevel(mDrawnLevel);
+        }
+        if (mLoadCompleting) finishLoad();
+    }
+
+    /**
+     * Immediately shows the given level, dropping any pending update.  Does not count as a
+     * progress update.
+     */
+    public void reset(int level) {
+        if (mFrameScheduled) {
+            mFrameScheduled = false;
+            mDelegate.cancelFrame();
+        }
+        if (mLoadCompleting) finishLoad();
+        mPendingLevel = level;
+        mDrawnLevel = level;
+        mDelegate.drawLevel(level);
+    }
+
+    private void finishLoad() {
+        mLoadCompleting = false;
+        mLastLoadUpdateCount = mUpdateCount;
+        mLastLoadRedrawCount = mRedrawCount;
+        mUpdateCount = 0;
+        mRedrawCount = 0;
+    }
+
+    /**
+     * @return The number of progress updates of the last completed load.
+     */
+    public int getLastLoadUpdateCount() {
+        return mLastLoadUpdateCount;
+    }
+
+    /**
+     * @return The number of redraws of the last completed load.
+     */
+    public int getLastLoadRedrawCount() {
+        return mLastLoadRedrawCount;
+    }
+
+    /**
+     * @return The number of progress updates of the load in progress.
+     */
+    public int getUpdateCount() {
+        return mUpdateCount;
+    }
+
+    /**
+     * @return The number of redraws of the load in progress.
+     */
+    public int getRedrawCount() {
+        return mRedrawCount;
+    }
+}
@@ -0,0 +1,311 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.chromium.base.CommandLine;
+import org.chromium.base.MemoryPressureLevel;
+import org.chromium.base.ThreadUtils;
+import org.chromium.content.browser.ChildProcessLauncher;
+import org.chromium.content.browser.ObservingBindingManager;
+import org.chromium.content.common.ContentSwitches;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides how many renderer processes may run at once based on the device's RAM and on memory
+ * pressure, and keeps one spare sandboxed process spawned so the next renderer starts without
+ * waiting for a fork.
+ *
+ * The process limit is read by native code when the library initializes, so
+ * {@link #applyProcessLimit(Context)} has to run before that.  Memory pressure lowers the limit
+ * in effect, which {@link ShellManager} enforces by discarding hidden shells, and stops keeping a
+ * spare; both are restored once no pressure has been reported for a while.  Renderer launches
+ * are observed through the launcher's binding manager, which the application installs.
+ */
+public class RendererProcessPolicy implements ObservingBindingManager.Listener {
+
+    private static final String TAG = "RendererProcessPolicy";
+
+    // Matches NUM_SANDBOXED_SERVICES in AndroidManifest.xml.
+    static final int MAX_SANDBOXED_SERVICES = 20;
+
+    // The renderer limits in effect after memory pressure, until it has passed.
+    static final int MODERATE_PRESSURE_PROCESS_LIMIT = 2;
+    static final int CRITICAL_PRESSURE_PROCESS_LIMIT = 1;
+
+    private static final long MB = 1024L * 1024L;
+
+    // Leaves time for the launch that consumes the current spare before spawning the next one.
+    private static final long SPARE_WARM_UP_DELAY_MS = 2000;
+    private static final long MEMORY_PRESSURE_COOLDOWN_MS = 60000;
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mWarmUpRunnable = new Runnable() {
+        @Override
+        public void run() {
+            warmUpSpareRenderer();
+        }
+    };
+    private final Runnable mPressureEndedRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mPressureLevel = MemoryPressureLevel.NONE;
+            Log.i(TAG, "Renderer process limit restored to " + mProcessLimit);
+            warmUpSpareRenderer();
+        }
+    };
+
+    // The limit given to native code.
+    private final int mProcessLimit;
+    // The last pressure reported within the cooldown, or NONE.
+    private int mPressureLevel = MemoryPressureLevel.NONE;
+    // Set by the warm-up thread, cleared by the launch that uses the spare.
+    private volatile boolean mSpareAvailable;
+    private final AtomicInteger mSpareWarmUpCount = new AtomicInteger();
+    private int mSpareUsedCount;
+    private int mRendererLaunchCount;
+    private final Set<Integer> mLiveRendererPids = new HashSet<Integer>();
+
+    public RendererProcessPolicy(Context context) {
+        mContext = context.getApplicationContext();
+        mProcessLimit = readProcessLimit();
+    }
+
+    /**
+     * Starts observing renderer launches.
+     */
+    public void startObserving() {
+        ObservingBindingManager.addListener(this);
+    }
+
+    /**
+     * Stops observing renderer launches and drops pending spare warm-ups.
+     */
+    public void stopObserving() {
+        ObservingBindingManager.removeListener(this);
+        mHandler.removeCallbacks(mWarmUpRunnable);
+    }
+
+    /**
+     * @param totalMemBytes The total RAM of the device.
+     * @param isLowRamDevice Whether the system considers the device low on RAM.
+     * @return The maximum number of renderer processes to run at once.
+     */
+    public static int computeProcessLimit(long totalMemBytes, boolean isLowRamDevice) {
+        int limit;
+        if (isLowRamDevice || totalMemBytes <= 1024 * MB) {
+            limit = 1;
+        } else if (totalMemBytes <= 1536 * MB) {
+            limit = 2;
+        } else if (totalMemBytes <= 2560 * MB) {
+            limit = 3;
+        } else if (totalMemBytes <= 4096 * MB) {
+            limit = 5;
+        } else {
+            limit = 8;
+        }
+        return Math.min(limit, MAX_SANDBOXED_SERVICES);
+    }
+
+    /**
+     * @param processLimit The limit given to native code.
+     * @param pressureLevel The {@link MemoryPressureLevel} last reported within the cooldown.
+     * @return The number of renderer processes to keep.
+     */
+    static int computeLimitInEffect(int processLimit, int pressureLevel) {
+        if (pressureLevel == MemoryPressureLevel.CRITICAL) {
+            return Math.min(processLimit, CRITICAL_PRESSURE_PROCESS_LIMIT);
+        }
+        if (pressureLevel == MemoryPressureLevel.MODERATE) {
+            return Math.min(processLimit, MODERATE_PRESSURE_PROCESS_LIMIT);
+        }
+        return processLimit;
+    }
+
+    /**
+     * Adds a renderer process limit suited to the device to the command line, unless one was
+     * given explicitly.  Must be called before the native library is initialized.
+     * @return The limit in effect, or -1 if an explicit one could not be parsed.
+     */
+    public static int applyProcessLimit(Context context) {
+        CommandLine commandLine = CommandLine.getInstance();
+        if (commandLine.hasSwitch(ContentSwitches.RENDER_PROCESS_LIMIT)) {
+            try {
+                return Integer.parseInt(
+                        commandLine.getSwitchValue(ContentSwitches.RENDER_PROCESS_LIMIT));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memoryInfo);
+        int limit = computeProcessLimit(memoryInfo.totalMem, activityManager.isLowRamDevice());
+        commandLine.appendSwitchWithValue(
+                ContentSwitches.RENDER_PROCESS_LIMIT, Integer.toString(limit));
+        Log.i(TAG, "Renderer process limit " + limit + " for " + (memoryInfo.totalMem / MB)
+                + "MB of RAM");
+        return limit;
+    }
+
+    /**
+     * @return The limit given to native code, read back from the command line.
+     */
+    private static int readProcessLimit() {
+        String value = CommandLine.getInstance().getSwitchValue(
+                ContentSwitches.RENDER_PROCESS_LIMIT);
+        if (value != null) {
+            try {
+                int limit = Integer.parseInt(value);
+                if (limit > 0) return Math.min(limit, MAX_SANDBOXED_SERVICES);
+            } catch (NumberFormatException e) {
+                // Fall through.
+            }
+        }
+        return MAX_SANDBOXED_SERVICES;
+    }
+
+    @Override
+    public void onChildProcessStarted(final int pid, boolean inSandbox) {
+        if (!inSandbox) return;
+        ThreadUtils.postOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                onRendererLaunched(pid);
+            }
+        });
+    }
+
+    @Override
+    public void onChildProcessStopped(final int pid) {
+        ThreadUtils.postOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mLiveRendererPids.remove(pid);
+            }
+        });
+    }
+
+    /**
+     * Records that a renderer process was launched and schedules spawning the next spare.  The
+     * launcher hands the spare to the first sandboxed launch, so the launch used it if it was
+     * waiting.
+     */
+    private void onRendererLaunched(int pid) {
+        mRendererLaunchCount++;
+        mLiveRendererPids.add(pid);
+        if (mSpareAvailable) {
+            mSpareAvailable = false;
+            mSpareUsedCount++;
+        }
+        mHandler.removeCallbacks(mWarmUpRunnable);
+        mHandler.postDelayed(mWarmUpRunnable, SPARE_WARM_UP_DELAY_MS);
+    }
+
+    /**
+     * Spawns a spare sandboxed process in the background unless one is already waiting, the
+     * process limit is 1, or the device has recently been under memory pressure.
+     */
+    public void warmUpSpareRenderer() {
+        ThreadUtils.assertOnUiThread();
+        if (mSpareAvailable || mPressureLevel != MemoryPressureLevel.NONE) return;
+        // With a single renderer every page shares it, so only the first launch could use a spare.
+        if (mProcessLimit <= 1) return;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Does nothing if the launcher already holds a spare.
+                ChildProcessLauncher.warmUp(mContext);
+                mSpareWarmUpCount.incrementAndGet();
+                mSpareAvailable = true;
+            }
+        });
+    }
+
+    /**
+     * Lowers the limit in effect and stops keeping a spare renderer after moderate or critical
+     * pressure, until none has been reported for {@link #MEMORY_PRESSURE_COOLDOWN_MS}; then
+     * restores the limit and spawns a spare again.  A spare that is already running is left to be
+     * used by the next launch.
+     * @param level A {@link MemoryPressureLevel} value.
+     */
+    public void onMemoryPressure(int level) {
+        ThreadUtils.assertOnUiThread();
+        if (level == MemoryPressureLevel.NONE) return;
+        if (mPressureLevel == MemoryPressureLevel.NONE) {
+            Log.i(TAG, "Renderer process limit lowered to "
+                    + computeLimitInEffect(mProcessLimit, level) + " on memory pressure");
+        }
+        mPressureLevel = level;
+        mHandler.removeCallbacks(mWarmUpRunnable);
+        mHandler.removeCallbacks(mPressureEndedRunnable);
+        mHandler.postDelayed(mPressureEndedRunnable, MEMORY_PRESSURE_COOLDOWN_MS);
+    }
+
+    /**
+     * @return The number of renderer processes to keep, lower than the limit given to native
+     *         code after recent memory pressure.
+     */
+    public int getProcessLimitInEffect() {
+        return computeLimitInEffect(mProcessLimit, mPressureLevel);
+    }
+
+    /**
+     * @return Whether memory pressure has been reported within the cooldown.
+     */
+    public boolean isUnderMemoryPressure() {
+        return mPressureLevel != MemoryPressureLevel.NONE;
+    }
+
+    /**
+     * @return The number of renderer processes the launcher has connected and not yet stopped,
+     *         not counting a spare.
+     */
+    public int getLiveRendererCount() {
+        return mLiveRendererPids.size();
+    }
+
+    /**
+     * @return The number of spare renderers spawned.
+     */
+    public int getSpareWarmUpCount() {
+        return mSpareWarmUpCount.get();
+    }
+
+    /**
+     * @return The number of renderer launches that found a spare waiting.
+     */
+    public int getSpareUsedCount() {
+        return mSpareUsedCount;
+    }
+
+    /**
+     * @return The number of renderer processes launched.
+     */
+    public int getRendererLaunchCount() {
+        return mRendererLaunchCount;
+    }
+
+    /**
+     * Logs the live process count and how often the spare was used.
+     */
+    public void logStats() {
+        Log.i(TAG, "liveRenderers=" + getLiveRendererCount() + " spareAvailable="
+                + mSpareAvailable + " limit=" + getProcessLimitInEffect() + "/" + mProcessLimit
+                + " launches=" + mRendererLaunchCount + " sparesSpawned=" + getSpareWarmUpCount()
+                + " sparesUsed=" + mSpareUsedCount);
+    }
+}
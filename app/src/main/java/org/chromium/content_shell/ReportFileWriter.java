@@ -0,0 +1,62 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import android.os.AsyncTask;
+import android.util.Log;
+
+import org.chromium.base.StreamUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes the reports dumped by the shell's tracing and benchmark modes to files in UTF-8, logging
+ * the outcome under the caller's tag.
+ */
+public final class ReportFileWriter {
+
+    private ReportFileWriter() {}
+
+    /**
+     * Writes a report, replacing the file if it exists.  Does disk I/O.
+     * @param tag The log tag of the caller.
+     * @param description What the report is, for the log messages.
+     * @return Whether the whole report was written.
+     */
+    public static boolean write(String tag, String description, File file, String contents) {
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            writer.write(contents);
+            // Closing flushes, so a failure here means the report is incomplete.
+            writer.close();
+            writer = null;
+            Log.i(tag, "Wrote " + description + " to " + file);
+            return true;
+        } catch (IOException e) {
+            Log.e(tag, "Failed to write " + description + " to " + file, e);
+            return false;
+        } finally {
+            StreamUtil.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Like {@link #write}, but on a background thread.
+     */
+    public static void writeAsync(final String tag, final String description, final File file,
+            final String contents) {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(tag, description, file, contents);
+            }
+        });
+    }
+}
@@ -0,0 +1,128 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import android.os.AsyncTask;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import org.chromium.base.StreamUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Reads and writes a {@link ShellSessionState} file off the UI thread.  Writes are serialized and
+ * atomic, so a crash or process kill mid-write leaves the previous session intact.
+ */
+public class SessionStore {
+
+    private static final String TAG = "SessionStore";
+
+    private final AtomicFile mFile;
+    private FutureTask<ShellSessionState> mRead;
+
+    public SessionStore(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Starts reading the stored session on a background thread.
+     */
+    public void startRead() {
+        if (mRead != null) return;
+        mRead = new FutureTask<ShellSessionState>(new Callable<ShellSessionState>() {
+            @Override
+            public ShellSessionState call() {
+                return read();
+            }
+        });
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(mRead);
+    }
+
+    /**
+     * Waits for the read started by {@link #startRead()}, starting it if needed.
+     * @return The stored session, or null if there is none or it cannot be read.
+     */
+    public ShellSessionState awaitRead() {
+        startRead();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return mRead.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Failed to read session", e.getCause());
+                    return null;
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the session on a background thread.  Writes happen in the order they are requested.
+     */
+    public void writeAsync(final ShellSessionState session) {
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(session);
+            }
+        });
+    }
+
+    /**
+     * Deletes the stored session.
+     */
+    public void clearAsync() {
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                mFile.delete();
+            }
+        });
+    }
+
+    private ShellSessionState read() {
+        FileInputStream stream = null;
+        try {
+            stream = mFile.openRead();
+            return ShellSessionState.readFrom(new BufferedInputStream(stream));
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable session", e);
+            return null;
+        } finally {
+            StreamUtil.closeQuietly(stream);
+        }
+    }
+
+    private void write(ShellSessionState session) {
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            BufferedOutputStream buffered = new BufferedOutputStream(stream);
+            session.writeTo(buffered);
+            buffered.flush();
+            mFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write session", e);
+            if (stream != null) mFile.failWrite(stream);
+        }
+    }
+}
@@ -6,20 +6,26 @@ package org.chromium.content_shell;
 
 import android.content.Context;
 import android.graphics.drawable.ClipDrawable;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.KeyEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputMethodManager;
-import android.widget.EditText;
+import android.widget.AdapterView;
+import android.widget.AutoCompleteTextView;
 import android.widget.FrameLayout;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.TextView.OnEditorActionListener;
 
+import org.chromium.base.ObserverList;
 import org.chromium.base.annotations.CalledByNative;
 import org.chromium.base.annotations.JNINamespace;
 import org.chromium.content.browser.ContentView;
@@ -28,6 +34,7 @@ import org.chromium.content.browser.ContentViewCore;
 import org.chromium.content.browser.ContentViewRenderView;
 import org.chromium.content_public.browser.LoadUrlParams;
 import org.chromium.content_public.browser.NavigationController;
+import org.chromium.content_public.browser.NavigationEntry;
 import org.chromium.content_public.browser.WebContents;
 import org.chromium.content_shell_apk.R;
 import org.chromium.ui.base.WindowAndroid;
@@ -39,11 +46,19 @@ import org.chromium.ui.base.WindowAndroid;
 public class Shell extends LinearLayout {
 
     private static final long COMPLETED_PROGRESS_TIMEOUT_MS = 200;
+    // Stops showing a snapshot for a navigation that has not painted by then.
+    private static final long SNAPSHOT_TIMEOUT_MS = 3000;
 
     private final Runnable mClearProgressRunnable = new Runnable() {
         @Override
         public void run() {
-            mProgressDrawable.setLevel(0);
+            mProgressCoalescer.reset(0);
+        }
+    };
+    private final Runnable mHideSnapshotRunnable = new Runnable() {
+        @Override
+        public void run() {
+            hideSnapshot();
         }
     };
 
@@ -51,12 +66,37 @@ public class Shell extends LinearLayout {
     private WebContents mWebContents;
     private NavigationController mNavigationController;
     private ContentViewClient mContentViewClient;
-    private EditText mUrlTextView;
+    private AutoCompleteTextView mUrlTextView;
     private ImageButton mPrevButton;
     private ImageButton mNextButton;
     private ImageButton mStopReloadButton;
 
     private ClipDrawable mProgressDrawable;
+    // Limits progress bar redraws to one per frame however often native reports progress.
+    private final ProgressCoalescer mProgressCoalescer =
+            new ProgressCoalescer(new ProgressCoalescer.Delegate() {
+                @Override
+                public void scheduleFrame() {
+                    Choreographer.getInstance().postFrameCallback(mProgressFrameCallback);
+                }
+
+                @Override
+                public void cancelFrame() {
+                    Choreographer.getInstance().removeFrameCallback(mProgressFrameCallback);
+                }
+
+                @Override
+                public void drawLevel(int level) {
+                    mProgressDrawable.setLevel(level);
+                }
+            });
+    private final Choreographer.FrameCallback mProgressFrameCallback =
+            new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    mProgressCoalescer.onFrame();
+                }
+            };
 
     private long mNativeShell;
     private ContentViewRenderView mContentViewRenderView;
@@ -65,6 +105,18 @@ public class Shell extends LinearLayout {
     private boolean mLoading = false;
     private boolean mIsFullscreen = false;
 
+    private Runnable mNativeDestroyedCallback;
+    private final ObserverList<NavigationMetrics.Observer> mNavigationMetricsObservers =
+            new ObserverList<NavigationMetrics.Observer>();
+    private NavigationMetricsTracker mNavigationMetricsTracker;
+    private ShellPaintObserver mPaintObserver;
+    private ShellPrerenderer mPrerenderer;
+    private NavigationSnapshotCache mSnapshotCache;
+    // The snapshot covering the content during a back or forward navigation, or null.
+    private NavigationSnapshotCache.Snapshot mShownSnapshot;
+    private ImageView mSnapshotView;
+    private UrlHistoryStore mUrlHistoryStore;
+
     /**
      * Constructor for inflating via XML.
      */
@@ -82,7 +134,8 @@ public class Shell extends LinearLayout {
                 contentViewHolder.removeView(mContentViewRenderView);
             }
         } else {
-            contentViewHolder.addView(contentViewRenderView,
+            // Keep the render view below a ContentView that may already have been added.
+            contentViewHolder.addView(contentViewRenderView, 0,
                     new FrameLayout.LayoutParams(
                             FrameLayout.LayoutParams.MATCH_PARENT,
                             FrameLayout.LayoutParams.MATCH_PARENT));
@@ -115,9 +168,91 @@ public class Shell extends LinearLayout {
 
     @CalledByNative
     private void onNativeDestroyed() {
+        hideSnapshot();
         mWindow = null;
         mNativeShell = 0;
+        if (mNavigationMetricsTracker != null) {
+            mNavigationMetricsTracker.destroy();
+            mNavigationMetricsTracker = null;
+        }
+        if (mPaintObserver != null) {
+            mPaintObserver.destroy();
+            mPaintObserver = null;
+        }
         mContentViewCore.destroy();
+        if (mNativeDestroyedCallback != null) mNativeDestroyedCallback.run();
+    }
+
+    /**
+     * @param callback Run once the native shell has been destroyed.
+     */
+    void setNativeDestroyedCallback(Runnable callback) {
+        mNativeDestroyedCallback = callback;
+    }
+
+    /**
+     * Adds an observer notified with the timings of every navigation once it stops loading.
+     */
+    public void addNavigationMetricsObserver(NavigationMetrics.Observer observer) {
+        mNavigationMetricsObservers.addObserver(observer);
+    }
+
+    public void removeNavigationMetricsObserver(NavigationMetrics.Observer observer) {
+        mNavigationMetricsObservers.removeObserver(observer);
+    }
+
+    /**
+     * @param prerenderer Speculatively loads URLs typed into the URL bar, or null to disable.
+     */
+    void setPrerenderer(ShellPrerenderer prerenderer) {
+        mPrerenderer = prerenderer;
+    }
+
+    /**
+     * @param snapshotCache Captures pages as they are navigated away from and shows them on back
+     *                      and forward navigations, or null to disable.
+     */
+    void setSnapshotCache(NavigationSnapshotCache snapshotCache) {
+        mSnapshotCache = snapshotCache;
+    }
+
+    /**
+     * @param urlHistoryStore Records the URLs shown by this shell and suggests them in the URL bar,
+     *                        or null to disable.
+     */
+    void setUrlHistoryStore(UrlHistoryStore urlHistoryStore) {
+        mUrlHistoryStore = urlHistoryStore;
+        mUrlTextView.setAdapter(urlHistoryStore != null
+                ? new UrlSuggestionAdapter(getContext(), urlHistoryStore) : null);
+    }
+
+    /**
+     * Resets the view state left behind by a destroyed native shell so this view can be
+     * initialized again for a new one.
+     */
+    void recycle() {
+        assert isDestroyed();
+        removeCallbacks(mClearProgressRunnable);
+        mProgressCoalescer.reset(0);
+        ((FrameLayout) findViewById(R.id.contentview_holder)).removeAllViews();
+        mContentViewRenderView = null;
+        mContentViewCore = null;
+        mWebContents = null;
+        mNavigationController = null;
+        mContentViewClient = null;
+        mNativeDestroyedCallback = null;
+        mNavigationMetricsObservers.clear();
+        mPrerenderer = null;
+        mSnapshotCache = null;
+        mSnapshotView = null;
+        setUrlHistoryStore(null);
+        mLoading = false;
+        mIsFullscreen = false;
+        findViewById(R.id.toolbar).setVisibility(VISIBLE);
+        mUrlTextView.setText("");
+        mPrevButton.setEnabled(true);
+        mNextButton.setEnabled(true);
+        mStopReloadButton.setImageResource(android.R.drawable.ic_menu_close_clear_cancel);
     }
 
     /**
@@ -145,7 +280,16 @@ public class Shell extends LinearLayout {
     }
 
     private void initializeUrlField() {
-        mUrlTextView = (EditText) findViewById(R.id.url);
+        mUrlTextView = (AutoCompleteTextView) findViewById(R.id.url);
+        mUrlTextView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                String url = (String) parent.getItemAtPosition(position);
+                setKeyboardVisibilityForUrl(false);
+                if (mPrerenderer != null && mPrerenderer.commit(url)) return;
+                loadUrl(url);
+            }
+        });
         mUrlTextView.setOnEditorActionListener(new OnEditorActionListener() {
             @Override
             public boolean onEditorAction(TextView v, int actionId, KeyEvent event) {
@@ -154,12 +298,30 @@ public class Shell extends LinearLayout {
                         || event.getAction() != KeyEvent.ACTION_DOWN)) {
                     return false;
                 }
-                loadUrl(mUrlTextView.getText().toString());
+                String url = mUrlTextView.getText().toString();
                 setKeyboardVisibilityForUrl(false);
+                // A swapped in speculative shell replaces this one, which is then closed.
+                if (mPrerenderer != null && mPrerenderer.commit(url)) return true;
+                loadUrl(url);
                 mContentViewCore.getContainerView().requestFocus();
                 return true;
             }
         });
+        mUrlTextView.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                // Only react to user edits, not to URL updates pushed from native.
+                if (mPrerenderer != null && mUrlTextView.hasFocus()) {
+                    mPrerenderer.onUrlEdited(s.toString());
+                }
+            }
+        });
         mUrlTextView.setOnFocusChangeListener(new OnFocusChangeListener() {
             @Override
             public void onFocusChange(View v, boolean hasFocus) {
@@ -168,7 +330,8 @@ public class Shell extends LinearLayout {
                 mPrevButton.setVisibility(hasFocus ? GONE : VISIBLE);
                 mStopReloadButton.setVisibility(hasFocus ? GONE : VISIBLE);
                 if (!hasFocus) {
-                    mUrlTextView.setText(mWebContents.getUrl());
+                    if (mPrerenderer != null) mPrerenderer.cancel();
+                    mUrlTextView.setText(mWebContents.getUrl(), false);
                 }
             }
         });
@@ -192,6 +355,7 @@ public class Shell extends LinearLayout {
      */
     public void loadUrl(String url) {
         if (url == null) return;
+        hideSnapshot();
 
         if (TextUtils.equals(url, mWebContents.getUrl())) {
             mNavigationController.reload(true);
@@ -210,9 +374,7 @@ public class Shell extends LinearLayout {
      * @return The sanitized URL.
      */
     public static String sanitizeUrl(String url) {
-        if (url == null) return null;
-        if (url.startsWith("www.") || url.indexOf(":") == -1) url = "http://" + url;
-        return url;
+        return UrlSanitizer.sanitize(url);
     }
 
     private void initializeNavigationButtons() {
@@ -220,7 +382,7 @@ public class Shell extends LinearLayout {
         mPrevButton.setOnClickListener(new OnClickListener() {
             @Override
             public void onClick(View v) {
-                if (mNavigationController.canGoBack()) mNavigationController.goBack();
+                goBack();
             }
         });
 
@@ -228,7 +390,7 @@ public class Shell extends LinearLayout {
         mNextButton.setOnClickListener(new OnClickListener() {
             @Override
             public void onClick(View v) {
-                if (mNavigationController.canGoForward()) mNavigationController.goForward();
+                goForward();
             }
         });
         mStopReloadButton = (ImageButton) findViewById(R.id.stop_reload_button);
@@ -241,18 +403,89 @@ public class Shell extends LinearLayout {
         });
     }
 
+    /**
+     * Navigates back, if possible, showing the snapshot of the previous page until it has painted.
+     */
+    public void goBack() {
+        goToOffset(-1);
+    }
+
+    /**
+     * Navigates forward, if possible, showing the snapshot of the next page until it has painted.
+     */
+    public void goForward() {
+        goToOffset(1);
+    }
+
+    private void goToOffset(int offset) {
+        if (!mNavigationController.canGoToOffset(offset)) return;
+        if (mSnapshotCache != null) {
+            int index = mNavigationController.getLastCommittedEntryIndex() + offset;
+            NavigationEntry entry = mNavigationController.getEntryAtIndex(index);
+            if (entry != null) showSnapshot(mSnapshotCache.acquire(this, index, entry.getUrl()));
+        }
+        mNavigationController.goToOffset(offset);
+    }
+
+    private void showSnapshot(NavigationSnapshotCache.Snapshot snapshot) {
+        hideSnapshot();
+        if (snapshot == null) return;
+        mShownSnapshot = snapshot;
+        if (mSnapshotView == null) {
+            mSnapshotView = new ImageView(getContext());
+            mSnapshotView.setScaleType(ImageView.ScaleType.FIT_XY);
+        }
+        if (mSnapshotView.getParent() == null) {
+            // Added last to cover the content view.
+            ((FrameLayout) findViewById(R.id.contentview_holder)).addView(mSnapshotView,
+                    new FrameLayout.LayoutParams(
+                            FrameLayout.LayoutParams.MATCH_PARENT,
+                            FrameLayout.LayoutParams.MATCH_PARENT));
+        }
+        mSnapshotView.setImageBitmap(snapshot.getBitmap());
+        mSnapshotView.setVisibility(VISIBLE);
+        postDelayed(mHideSnapshotRunnable, SNAPSHOT_TIMEOUT_MS);
+    }
+
+    private void hideSnapshot() {
+        if (mShownSnapshot == null) return;
+        removeCallbacks(mHideSnapshotRunnable);
+        mSnapshotView.setImageDrawable(null);
+        mSnapshotView.setVisibility(GONE);
+        if (mSnapshotCache != null) mSnapshotCache.release(mShownSnapshot);
+        mShownSnapshot = null;
+    }
+
+    /**
+     * Called when the page being navigated to has painted, which makes a shown snapshot obsolete.
+     * The URL history is loaded from then on, so that it stays off the startup path.
+     */
+    void onFirstVisuallyNonEmptyPaint() {
+        hideSnapshot();
+        if (mUrlHistoryStore != null) mUrlHistoryStore.loadAsync();
+    }
+
     @SuppressWarnings("unused")
     @CalledByNative
     private void onUpdateUrl(String url) {
-        mUrlTextView.setText(url);
+        // Suggestions are only for typed text.
+        mUrlTextView.setText(url, false);
+        if (mNavigationMetricsTracker != null) mNavigationMetricsTracker.onUrlUpdated(url);
+        if (mUrlHistoryStore != null) mUrlHistoryStore.recordVisit(url);
     }
 
     @SuppressWarnings("unused")
     @CalledByNative
     private void onLoadProgressChanged(double progress) {
         removeCallbacks(mClearProgressRunnable);
-        mProgressDrawable.setLevel((int) (10000.0 * progress));
-        if (progress == 1.0) postDelayed(mClearProgressRunnable, COMPLETED_PROGRESS_TIMEOUT_MS);
+        mProgressCoalescer.onProgressChanged(progress);
+        if (mNavigationMetricsTracker != null) {
+            mNavigationMetricsTracker.onLoadProgressChanged(progress);
+        }
+        if (progress == 1.0) {
+            StartupTracer.markOnce(StartupTracer.FIRST_LOAD_FINISHED);
+            postDelayed(mClearProgressRunnable, COMPLETED_PROGRESS_TIMEOUT_MS);
+        }
     }
 
     @CalledByNative
@@ -271,6 +504,11 @@ public class Shell extends LinearLayout {
     @CalledByNative
     private void setIsLoading(boolean loading) {
         mLoading = loading;
+        if (mNavigationMetricsTracker != null) mNavigationMetricsTracker.onLoadingChanged(loading);
+        // The page that is still shown is the one being navigated away from.
+        if (loading && mSnapshotCache != null) mSnapshotCache.capture(this);
+        // Navigations within the page never paint a new document.
+        if (!loading) hideSnapshot();
         if (mLoading) {
             mStopReloadButton
                     .setImageResource(android.R.drawable.ic_menu_close_clear_cancel);
@@ -290,6 +528,9 @@ public class Shell extends LinearLayout {
         mContentViewCore = new ContentViewCore(context);
         ContentView cv = ContentView.createContentView(context, mContentViewCore);
         mContentViewCore.initialize(cv, cv, webContents, mWindow);
+        mNavigationMetricsTracker =
+                new NavigationMetricsTracker(this, webContents, mNavigationMetricsObservers);
+        mPaintObserver = new ShellPaintObserver(this, webContents);
         mContentViewCore.setContentViewClient(mContentViewClient);
         mWebContents = mContentViewCore.getWebContents();
         mNavigationController = mWebContents.getNavigationController();
@@ -302,7 +543,10 @@ public class Shell extends LinearLayout {
                         FrameLayout.LayoutParams.MATCH_PARENT,
                         FrameLayout.LayoutParams.MATCH_PARENT));
         cv.requestFocus();
-        mContentViewRenderView.setCurrentContentViewCore(mContentViewCore);
+        // Speculative shells load while hidden and have no render view until swapped in.
+        if (mContentViewRenderView != null) {
+            mContentViewRenderView.setCurrentContentViewCore(mContentViewCore);
+        }
     }
 
     /**
@@ -327,6 +571,13 @@ public class Shell extends LinearLayout {
         return mContentViewCore.getContainerView();
     }
 
+    /**
+     * @return The progress bar coalescer, exposing update and redraw counts per load.
+     */
+    public ProgressCoalescer getProgressCoalescer() {
+        return mProgressCoalescer;
+    }
+
     /**
      * @return The {@link ContentViewCore} currently managing the view shown by this Shell.
      */
@@ -9,17 +9,41 @@ import android.content.Context;
 import org.chromium.base.annotations.CalledByNative;
 import org.chromium.base.annotations.JNINamespace;
 
+import java.io.File;
+
 /**
  * Utility methods used by content_shell for running Blink's layout tests on Android.
  */
 @JNINamespace("content")
-class ShellLayoutTestUtils {
+public class ShellLayoutTestUtils {
+
+    private static File sTestFilesDirectory;
+
+    /**
+     * Keeps the test files in a directory of their own.  Must be called before the browser process
+     * starts.
+     *
+     * An app runs one shard at a time, but a device runs several shards one after another when a
+     * run has more shards than devices, and the files directory outlives each of them.  Giving
+     * every shard its own directory keeps a shard from opening the FIFOs a killed shard left
+     * behind, and keeps its results apart from those of earlier shards that the host has yet to
+     * pull.
+     * @param directory The directory, or null for the files directory.
+     */
+    public static void setTestFilesDirectory(File directory) {
+        sTestFilesDirectory = directory;
+    }
+
     /**
      * @return The directory in which the test files, for example FIFOs, can be stored.
      */
     @SuppressWarnings("unused")
     @CalledByNative
     private static String getApplicationFilesDirectory(Context appContext) {
-        return appContext.getFilesDir().getAbsolutePath();
+        if (sTestFilesDirectory == null) return appContext.getFilesDir().getAbsolutePath();
+        if (!sTestFilesDirectory.isDirectory() && !sTestFilesDirectory.mkdirs()) {
+            throw new IllegalStateException("Cannot create " + sTestFilesDirectory);
+        }
+        return sTestFilesDirectory.getAbsolutePath();
     }
 }
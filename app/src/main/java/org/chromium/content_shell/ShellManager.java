@@ -7,10 +7,11 @@ package org.chromium.content_shell;
 import android.app.Activity;
 import android.content.Context;
 import android.util.AttributeSet;
-import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.FrameLayout;
 
+import org.chromium.base.MemoryPressureLevel;
+import org.chromium.base.SysUtils;
 import org.chromium.base.ThreadUtils;
 import org.chromium.base.VisibleForTesting;
 import org.chromium.base.annotations.CalledByNative;
@@ -20,32 +21,110 @@ import org.chromium.content.browser.ContentVideoViewClient;
 import org.chromium.content.browser.ContentViewClient;
 import org.chromium.content.browser.ContentViewCore;
 import org.chromium.content.browser.ContentViewRenderView;
-import org.chromium.content_shell_apk.R;
+import org.chromium.content_public.browser.NavigationController;
+import org.chromium.content_public.browser.NavigationEntry;
+import org.chromium.content_public.browser.NavigationHistory;
+import org.chromium.content_public.browser.WebContents;
 import org.chromium.ui.base.WindowAndroid;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
- * Container and generator of ShellViews.
+ * Container and generator of ShellViews.  Keeps a bounded number of shells alive as tabs so
+ * they can be switched between without reloading.
  */
 @JNINamespace("content")
 public class ShellManager extends FrameLayout {
 
     public static final String DEFAULT_SHELL_URL = "http://www.google.com";
+    public static final int DEFAULT_SHELL_POOL_CAPACITY = 2;
+    public static final int DEFAULT_MAX_LIVE_SHELLS = 4;
+    public static final int LOW_END_DEVICE_MAX_LIVE_SHELLS = 2;
+    // Batches session writes for bursts of tab and navigation changes.
+    private static final long SESSION_SAVE_DELAY_MS = 1000;
+    private static final int MAX_PERSISTED_HISTORY_ENTRIES = 50;
     private static boolean sStartup = true;
     private WindowAndroid mWindow;
     private Shell mActiveShell;
 
+    // All tabs in creation order, including discarded ones.
+    private final ArrayList<ShellTab> mTabs = new ArrayList<ShellTab>();
+    private ShellTab mActiveTab;
+    // The discarded tab whose shell is being recreated by nativeLaunchShell().
+    private ShellTab mRestoringTab;
+    // Non-null while speculative loading of typed URLs is enabled.
+    private ShellPrerenderer mPrerenderer;
+    private boolean mLaunchingSpeculativeShell;
+    private Shell mSpeculativeShell;
+    private int mMaxLiveShells =
+            SysUtils.isLowEndDevice() ? LOW_END_DEVICE_MAX_LIVE_SHELLS : DEFAULT_MAX_LIVE_SHELLS;
+
     private String mStartupUrl = DEFAULT_SHELL_URL;
 
     // The target for all content rendering.
     private ContentViewRenderView mContentViewRenderView;
     private ContentViewClient mContentViewClient;
 
+    // Inflated shell views waiting to back the next native shell.
+    private final ShellPool mShellPool;
+    // Keeps a spare renderer process ready for the next shell.
+    private final RendererProcessPolicy mRendererProcessPolicy;
+    private final NavigationMetricsAggregator mNavigationMetricsAggregator =
+            new NavigationMetricsAggregator();
+    // Shells whose current navigation was started speculatively.  It started before the user
+    // committed to it, so its timings would flatter the page and are not aggregated.
+    private final Set<Shell> mSpeculativeNavigationShells = new HashSet<Shell>();
+    private final NavigationMetrics.Observer mMetricsObserver = new NavigationMetrics.Observer() {
+        @Override
+        public void onNavigationFinished(Shell shell, NavigationMetrics metrics) {
+            if (mSpeculativeNavigationShells.contains(shell)) {
+                // Once swapped in, the shell's later navigations are the user's own.
+                if (findTab(shell) != null) mSpeculativeNavigationShells.remove(shell);
+                return;
+            }
+            mNavigationMetricsAggregator.onNavigationFinished(shell, metrics);
+        }
+    };
+    // Snapshots of recent history entries of all shells, shown on back and forward.
+    private final NavigationSnapshotCache mSnapshotCache = new NavigationSnapshotCache(
+            SysUtils.isLowEndDevice() ? NavigationSnapshotCache.LOW_END_DEVICE_MAX_SIZE_BYTES
+                    : NavigationSnapshotCache.DEFAULT_MAX_SIZE_BYTES);
+
+    // Non-null while visited URLs are recorded and suggested.
+    private UrlHistoryStore mUrlHistoryStore;
+
+    // Non-null while the tabs are persisted.
+    private SessionStore mSessionStore;
+    private final Runnable mSaveSessionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            saveSession();
+        }
+    };
+    private final NavigationMetrics.Observer mSessionObserver = new NavigationMetrics.Observer() {
+        @Override
+        public void onNavigationFinished(Shell shell, NavigationMetrics metrics) {
+            ShellTab tab = findTab(shell);
+            if (tab == null) return;
+            int scrollY = tab.takePendingScrollY();
+            ContentViewCore contentViewCore = shell.getContentViewCore();
+            if (scrollY > 0 && contentViewCore != null) contentViewCore.scrollTo(0, scrollY);
+            tab.markSessionStateDirty();
+            scheduleSessionSave();
+        }
+    };
+
     /**
      * Constructor for inflating via XML.
      */
     public ShellManager(final Context context, AttributeSet attrs) {
         super(context, attrs);
-        nativeInit(this);
+        mShellPool = new ShellPool(context, DEFAULT_SHELL_POOL_CAPACITY);
+        mRendererProcessPolicy = new RendererProcessPolicy(context);
         mContentViewClient = new ContentViewClient() {
             @Override
             public ContentVideoViewClient getContentVideoViewClient() {
@@ -80,10 +159,14 @@ public class ShellManager extends FrameLayout {
     @VisibleForTesting
     public void setWindow(WindowAndroid window, final boolean initialLoadingNeeded) {
         assert window != null;
+        // Deferred from construction so that the view can be inflated before the native library
+        // has finished loading.
+        nativeInit(this);
         mWindow = window;
         mContentViewRenderView = new ContentViewRenderView(getContext()) {
             @Override
             protected void onReadyToRender() {
+                StartupTracer.markOnce(StartupTracer.READY_TO_RENDER);
                 if (sStartup) {
                     if (initialLoadingNeeded) mActiveShell.loadUrl(mStartupUrl);
                     sStartup = false;
@@ -91,6 +174,7 @@ public class ShellManager extends FrameLayout {
             }
         };
         mContentViewRenderView.onNativeLibraryLoaded(window);
+        mShellPool.warmUp();
     }
 
     /**
@@ -114,6 +198,56 @@ public class ShellManager extends FrameLayout {
         mStartupUrl = url;
     }
 
+    /**
+     * Sets how many inflated shells are kept ready for reuse.
+     * @param capacity The maximum number of idle shells, 0 disables pooling.
+     */
+    public void setShellPoolCapacity(int capacity) {
+        mShellPool.setCapacity(capacity);
+        if (mContentViewRenderView != null) mShellPool.warmUp();
+    }
+
+    /**
+     * @return The pool backing new shells, exposing its hit and miss counters.
+     */
+    public ShellPool getShellPool() {
+        return mShellPool;
+    }
+
+    /**
+     * @return The renderer process policy, exposing live process and spare usage counts.
+     */
+    public RendererProcessPolicy getRendererProcessPolicy() {
+        return mRendererProcessPolicy;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mRendererProcessPolicy.startObserving();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        // A recreated activity has a new manager and policy; the binding manager stays.
+        mRendererProcessPolicy.stopObserving();
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * @return The percentiles of the navigation timings of all shells.
+     */
+    public NavigationMetricsAggregator getNavigationMetricsAggregator() {
+        return mNavigationMetricsAggregator;
+    }
+
+    /**
+     * @return The back and forward snapshot cache, exposing its size and hit counts.
+     */
+    public NavigationSnapshotCache getNavigationSnapshotCache() {
+        return mSnapshotCache;
+    }
+
     /**
      * @return The currently visible shell view or null if one is not showing.
      */
@@ -122,14 +256,240 @@ public class ShellManager extends FrameLayout {
     }
 
     /**
-     * Creates a new shell pointing to the specified URL.
+     * @return The tab backed by the currently visible shell or null if one is not showing.
+     */
+    public ShellTab getActiveTab() {
+        return mActiveTab;
+    }
+
+    /**
+     * @return All open tabs in creation order, including discarded ones.
+     */
+    public List<ShellTab> getTabs() {
+        return Collections.unmodifiableList(mTabs);
+    }
+
+    /**
+     * @return The number of tabs currently backed by a live shell.
+     */
+    public int getLiveShellCount() {
+        int count = 0;
+        for (ShellTab tab : mTabs) {
+            if (!tab.isDiscarded()) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Sets how many shells are kept alive.  Hidden shells beyond the limit are discarded, least
+     * recently used first, and restored from their URL when switched back to.
+     * @param maxLiveShells The maximum number of live shells, at least 1.
+     */
+    public void setMaxLiveShells(int maxLiveShells) {
+        assert maxLiveShells >= 1;
+        mMaxLiveShells = maxLiveShells;
+        discardShellsAboveLimit(getLiveShellLimit());
+    }
+
+    /**
+     * Persists the tabs, their history and scroll position to the given store from now on.
+     * @param store The store to write to, or null to stop persisting.
+     */
+    public void setSessionStore(SessionStore store) {
+        mSessionStore = store;
+        if (store == null) removeCallbacks(mSaveSessionRunnable);
+    }
+
+    /**
+     * Records the URLs visited in all shells to the given store and suggests them in the URL bar.
+     * @param store The store to use, or null to disable.
+     */
+    public void setUrlHistoryStore(UrlHistoryStore store) {
+        mUrlHistoryStore = store;
+        for (ShellTab tab : mTabs) {
+            if (!tab.isDiscarded()) tab.getShell().setUrlHistoryStore(store);
+        }
+    }
+
+    /**
+     * Recreates the tabs of a persisted session.  Only the tab that was visible is loaded now; the
+     * others are restored when first switched to.
+     * @return Whether any tab was restored.
+     */
+    public boolean restoreSession(ShellSessionState session) {
+        ThreadUtils.assertOnUiThread();
+        ShellTab activeTab = null;
+        List<TabState> states = session.getTabs();
+        for (int i = 0; i < states.size(); i++) {
+            TabState state = states.get(i);
+            if (state.getCurrentUrl() == null) continue;
+            ShellTab tab = new ShellTab(state.getCurrentUrl());
+            tab.restoreState(state);
+            mTabs.add(tab);
+            if (activeTab == null || i == session.getActiveIndex()) activeTab = tab;
+        }
+        if (activeTab == null) return false;
+        switchToTab(activeTab);
+        return true;
+    }
+
+    /**
+     * Snapshots the tabs that changed since the last save and writes the session in the
+     * background.
+     */
+    public void saveSession() {
+        removeCallbacks(mSaveSessionRunnable);
+        if (mSessionStore == null) return;
+        List<TabState> states = new ArrayList<TabState>();
+        int activeIndex = -1;
+        for (ShellTab tab : mTabs) {
+            // The scroll position of the visible tab changes without any notification.
+            if (!tab.isDiscarded() && (tab.isSessionStateDirty() || tab == mActiveTab)) {
+                snapshotTab(tab);
+            }
+            TabState state = tab.getSessionState();
+            if (state == null) continue;
+            if (tab == mActiveTab) activeIndex = states.size();
+            states.add(state);
+        }
+        mSessionStore.writeAsync(new ShellSessionState(states, activeIndex));
+    }
+
+    /**
+     * Creates a new shell pointing to the specified URL and makes it active.  The previously
+     * active shell is hidden and kept alive so it can be switched back to.
      * @param url The URL the shell should load upon creation.
      */
     public void launchShell(String url) {
         ThreadUtils.assertOnUiThread();
-        Shell previousShell = mActiveShell;
         nativeLaunchShell(url);
+    }
+
+    /**
+     * Enables or disables speculative loading of URLs typed into the URL bar.
+     */
+    public void setUrlPrerenderingEnabled(boolean enabled) {
+        if (enabled == (mPrerenderer != null)) return;
+        if (mPrerenderer != null) mPrerenderer.cancel();
+        mPrerenderer = enabled ? new ShellPrerenderer(this) : null;
+        for (ShellTab tab : mTabs) {
+            if (!tab.isDiscarded()) tab.getShell().setPrerenderer(mPrerenderer);
+        }
+    }
+
+    /**
+     * @return The URL prerenderer, or null if speculative loading is disabled.
+     */
+    public ShellPrerenderer getUrlPrerenderer() {
+        return mPrerenderer;
+    }
+
+    /**
+     * Creates a hidden shell loading the given URL that is not part of the tab model.
+     * @return The new shell.
+     */
+    Shell launchSpeculativeShell(String url) {
+        ThreadUtils.assertOnUiThread();
+        mLaunchingSpeculativeShell = true;
+        try {
+            nativeLaunchShell(url);
+        } finally {
+            mLaunchingSpeculativeShell = false;
+        }
+        Shell shell = mSpeculativeShell;
+        mSpeculativeShell = null;
+        return shell;
+    }
+
+    /**
+     * Replaces the shell of the active tab with a speculative shell and closes the old one.  The
+     * back and forward history of the old shell is carried over to the speculative one.
+     * @return Whether the shell was swapped in.  It is not if the history cannot be carried over
+     *         yet, because the speculative load has not committed.
+     */
+    boolean swapInSpeculativeShell(Shell speculativeShell) {
+        Shell previousShell = mActiveShell;
+        if (!copyNavigationHistory(previousShell, speculativeShell)) return false;
+        if (!speculativeShell.isLoading()) mSpeculativeNavigationShells.remove(speculativeShell);
+        ShellTab tab = mActiveTab;
+        if (tab == null) {
+            tab = new ShellTab(null);
+            mTabs.add(tab);
+        }
+        if (previousShell != null) detachShell(previousShell);
+        speculativeShell.setPrerenderer(mPrerenderer);
+        // Speculative shells do not record what they load until the user commits to it.
+        speculativeShell.setUrlHistoryStore(mUrlHistoryStore);
+        if (mUrlHistoryStore != null && speculativeShell.getWebContents() != null) {
+            mUrlHistoryStore.recordVisit(speculativeShell.getWebContents().getUrl());
+        }
+        tab.attachShell(speculativeShell);
+        activateTab(tab);
         if (previousShell != null) previousShell.close();
+        return true;
+    }
+
+    /**
+     * Prepends the history of one shell to the committed entry of another.
+     * @return Whether the history was copied, or there was none to copy.
+     */
+    private static boolean copyNavigationHistory(Shell from, Shell to) {
+        WebContents source = from != null ? from.getWebContents() : null;
+        WebContents target = to.getWebContents();
+        if (source == null || source.getNavigationController()
+                .getNavigationHistory().getEntryCount() == 0) {
+            return true;
+        }
+        if (target == null) return false;
+        NavigationController controller = target.getNavigationController();
+        if (!controller.canPruneAllButLastCommitted()) return false;
+        controller.copyStateFromAndPrune(source.getNavigationController(), false);
+        return true;
+    }
+
+    /**
+     * Makes the given tab active, restoring it first if it has been discarded.
+     * @param tab The tab to show.
+     */
+    public void switchToTab(ShellTab tab) {
+        ThreadUtils.assertOnUiThread();
+        assert mTabs.contains(tab);
+        if (tab == mActiveTab) return;
+        if (tab.isDiscarded()) {
+            mRestoringTab = tab;
+            nativeLaunchShell(tab.getUrl());
+            return;
+        }
+        if (mActiveShell != null) detachShell(mActiveShell);
+        activateTab(tab);
+    }
+
+    /**
+     * Closes the given tab, destroying its shell if it is still alive.
+     * @param tab The tab to close.
+     */
+    public void closeTab(ShellTab tab) {
+        ThreadUtils.assertOnUiThread();
+        if (tab.isDiscarded()) {
+            mTabs.remove(tab);
+            scheduleSessionSave();
+            return;
+        }
+        // The native side calls back into removeShell(), which drops the tab.
+        tab.getShell().close();
+    }
+
+    /**
+     * Releases hidden shells in response to memory pressure.  Until the pressure has passed,
+     * moderate pressure keeps only the most recently used hidden shell alive and critical
+     * pressure discards all hidden shells, see {@link RendererProcessPolicy}.
+     * @param level A {@link MemoryPressureLevel} value.
+     */
+    public void onMemoryPressure(int level) {
+        if (level != MemoryPressureLevel.NONE && mPrerenderer != null) mPrerenderer.cancel();
+        mRendererProcessPolicy.onMemoryPressure(level);
+        mSnapshotCache.onMemoryPressure(level);
+        discardShellsAboveLimit(getLiveShellLimit());
     }
 
     /**
@@ -145,18 +505,134 @@ public class ShellManager extends FrameLayout {
     @CalledByNative
     private Object createShell(long nativeShellPtr) {
         assert mContentViewRenderView != null;
-        LayoutInflater inflater =
-                (LayoutInflater) getContext().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        Shell shellView = (Shell) inflater.inflate(R.layout.shell_view, null);
+        final Shell shellView = mShellPool.acquire();
         shellView.initialize(nativeShellPtr, mWindow, mContentViewClient);
+        shellView.setNativeDestroyedCallback(new Runnable() {
+            @Override
+            public void run() {
+                mSnapshotCache.removeShell(shellView);
+                mSpeculativeNavigationShells.remove(shellView);
+                // Native teardown may still be unwinding, so recycle on a later task.
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mShellPool.release(shellView);
+                    }
+                });
+            }
+        });
+        shellView.addNavigationMetricsObserver(mMetricsObserver);
+        shellView.addNavigationMetricsObserver(mSessionObserver);
+        shellView.setSnapshotCache(mSnapshotCache);
+
+        if (mLaunchingSpeculativeShell) {
+            mSpeculativeShell = shellView;
+            mSpeculativeNavigationShells.add(shellView);
+            return shellView;
+        }
+        shellView.setPrerenderer(mPrerenderer);
+        shellView.setUrlHistoryStore(mUrlHistoryStore);
 
-        // TODO(tedchoc): Allow switching back to these inactive shells.
-        if (mActiveShell != null) removeShell(mActiveShell);
+        ShellTab tab = mRestoringTab;
+        mRestoringTab = null;
+        if (tab == null) {
+            tab = new ShellTab(null);
+            mTabs.add(tab);
+        }
+        tab.attachShell(shellView);
 
-        showShell(shellView);
+        if (mActiveShell != null) detachShell(mActiveShell);
+        activateTab(tab);
+        discardShellsAboveLimit(getLiveShellLimit());
         return shellView;
     }
 
+    private void activateTab(ShellTab tab) {
+        mActiveTab = tab;
+        tab.markActive();
+        showShell(tab.getShell());
+        scheduleSessionSave();
+    }
+
+    private void scheduleSessionSave() {
+        if (mSessionStore == null) return;
+        removeCallbacks(mSaveSessionRunnable);
+        postDelayed(mSaveSessionRunnable, SESSION_SAVE_DELAY_MS);
+    }
+
+    /**
+     * Records the history and scroll position of a live tab as its session state.
+     */
+    private void snapshotTab(ShellTab tab) {
+        Shell shell = tab.getShell();
+        WebContents webContents = shell.getWebContents();
+        if (webContents == null) return;
+        NavigationHistory history = webContents.getNavigationController().getNavigationHistory();
+        TabState restored = tab.getRestoredState();
+        int restoredCount = restored != null ? restored.getCurrentIndex() : 0;
+        int liveCount = history.getEntryCount();
+        int total = restoredCount + liveCount;
+        if (total == 0) return;
+        int current = liveCount == 0
+                ? restoredCount - 1 : restoredCount + history.getCurrentEntryIndex();
+        // Drop the oldest entries beyond the limit, never the current one.
+        int first = Math.min(Math.max(0, total - MAX_PERSISTED_HISTORY_ENTRIES), current);
+        String[] urls = new String[total - first];
+        String[] titles = new String[total - first];
+        for (int i = first; i < total; i++) {
+            if (i < restoredCount) {
+                urls[i - first] = restored.getUrl(i);
+                titles[i - first] = restored.getTitle(i);
+            } else {
+                NavigationEntry entry = history.getEntryAtIndex(i - restoredCount);
+                urls[i - first] = entry.getUrl();
+                titles[i - first] = entry.getTitle();
+            }
+        }
+        ContentViewCore contentViewCore = shell.getContentViewCore();
+        int scrollY = contentViewCore != null ? contentViewCore.computeVerticalScrollOffset() : 0;
+        tab.setSessionState(new TabState(urls, titles, current - first, scrollY));
+    }
+
+    private ShellTab findTab(Shell shell) {
+        for (ShellTab tab : mTabs) {
+            if (tab.getShell() == shell) return tab;
+        }
+        return null;
+    }
+
+    /**
+     * @return How many shells are kept alive: the configured maximum, bounded while under memory
+     *         pressure by the lowered renderer process limit since each live shell holds on to a
+     *         renderer.
+     */
+    private int getLiveShellLimit() {
+        if (!mRendererProcessPolicy.isUnderMemoryPressure()) return mMaxLiveShells;
+        return Math.min(mMaxLiveShells, mRendererProcessPolicy.getProcessLimitInEffect());
+    }
+
+    /**
+     * Discards hidden shells, least recently used first, until at most {@code maxLiveShells}
+     * remain alive.  The active shell is never discarded.
+     */
+    private void discardShellsAboveLimit(int maxLiveShells) {
+        int liveShells = getLiveShellCount();
+        while (liveShells > maxLiveShells) {
+            ShellTab victim = null;
+            for (ShellTab tab : mTabs) {
+                if (tab == mActiveTab || tab.isDiscarded()) continue;
+                if (victim == null || tab.getLastActiveTimeMs() < victim.getLastActiveTimeMs()) {
+                    victim = tab;
+                }
+            }
+            if (victim == null) return;
+            if (mSessionStore != null && victim.isSessionStateDirty()) snapshotTab(victim);
+            // Detach the tab first so removeShell() does not treat this as the tab closing.
+            victim.discardShell().close();
+            liveShells--;
+        }
+    }
+
     private void showShell(Shell shellView) {
         shellView.setContentViewRenderView(mContentViewRenderView);
         addView(shellView, new FrameLayout.LayoutParams(
@@ -171,6 +647,33 @@ public class ShellManager extends FrameLayout {
 
     @CalledByNative
     private void removeShell(Shell shellView) {
+        ShellTab closedTab = null;
+        for (ShellTab tab : mTabs) {
+            if (tab.getShell() == shellView) closedTab = tab;
+        }
+        if (closedTab != null) mTabs.remove(closedTab);
+        if (closedTab == mActiveTab) mActiveTab = null;
+
+        boolean wasActive = shellView == mActiveShell;
+        detachShell(shellView);
+        if (wasActive) activateMostRecentLiveTab();
+        if (closedTab != null) scheduleSessionSave();
+    }
+
+    private void activateMostRecentLiveTab() {
+        ShellTab next = null;
+        for (ShellTab tab : mTabs) {
+            if (tab.isDiscarded()) continue;
+            if (next == null || tab.getLastActiveTimeMs() > next.getLastActiveTimeMs()) next = tab;
+        }
+        if (next != null) activateTab(next);
+    }
+
+    /**
+     * Hides the shell and removes it from the view hierarchy without destroying it.  Hiding the
+     * {@link ContentViewCore} also lets the renderer drop to a background priority.
+     */
+    private void detachShell(Shell shellView) {
         if (shellView == mActiveShell) mActiveShell = null;
         if (shellView.getParent() == null) return;
         ContentViewCore contentViewCore = shellView.getContentViewCore();
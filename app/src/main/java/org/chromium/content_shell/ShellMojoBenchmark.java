@@ -0,0 +1,413 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import android.util.Log;
+
+import org.chromium.mojo.system.Core;
+import org.chromium.mojo.system.Handle;
+import org.chromium.mojo.system.MessagePipeHandle;
+import org.chromium.mojo.system.MojoException;
+import org.chromium.mojo.system.MojoResult;
+import org.chromium.mojo.system.Pair;
+import org.chromium.mojo.system.ResultAnd;
+import org.chromium.mojo.system.impl.CoreImpl;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures Mojo message pipe throughput and latency in the test environment of
+ * {@link ShellMojoTestUtils}, and writes the results as JSON so that runs before and after an IPC
+ * change can be compared.
+ *
+ * The scenarios are ping-pong round trips, one-way streaming and round trips carrying message
+ * pipe handles, at several message sizes and numbers of concurrent pipes.  Each concurrent pipe
+ * has a thread at either end.  Messages per second count round trips for the round-trip scenarios.
+ */
+public class ShellMojoBenchmark {
+
+    private static final String TAG = "ShellMojoBenchmark";
+
+    private static final int[] MESSAGE_SIZES = {64, 4 * 1024, 64 * 1024};
+    private static final int[] CONCURRENCY_LEVELS = {1, 2, 4};
+    private static final int[] HANDLE_COUNTS = {1, 4, 16};
+    private static final int HANDLE_MESSAGE_SIZE = 64;
+
+    private static final int ROUND_TRIPS = 2000;
+    private static final int WARM_UP_ROUND_TRIPS = 100;
+    private static final int MAX_STREAMED_MESSAGES = 5000;
+    // Message pipes do not apply back pressure, so this bounds what a stream can queue up.
+    private static final int MAX_STREAMED_BYTES = 16 * 1024 * 1024;
+    private static final int SERVICE_REGISTRY_PAIRS = 50;
+
+    private static final long DEADLINE_MICROS = 30 * 1000 * 1000;
+
+    private final Core mCore = CoreImpl.getInstance();
+    private final long mTestEnvironment;
+
+    /**
+     * Runs all scenarios and writes the results.  Blocks for several seconds.  Must be called
+     * after the native library is loaded, on a thread without a message loop of its own, as
+     * {@link ShellMojoTestUtils#setupTestEnvironment()} creates one.
+     * @return Whether the report was written.
+     */
+    public static boolean run(File reportFile) {
+        long testEnvironment = ShellMojoTestUtils.setupTestEnvironment();
+        String json;
+        try {
+            json = new ShellMojoBenchmark(testEnvironment).runAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (MojoException e) {
+            Log.e(TAG, "Mojo benchmark failed", e);
+            return false;
+        } finally {
+            ShellMojoTestUtils.tearDownTestEnvironment(testEnvironment);
+        }
+        return ReportFileWriter.write(TAG, "Mojo benchmark", reportFile, json);
+    }
+
+    private ShellMojoBenchmark(long testEnvironment) {
+        mTestEnvironment = testEnvironment;
+    }
+
+    private String runAll() throws InterruptedException {
+        List<Result> results = new ArrayList<Result>();
+        results.add(measureServiceRegistryPairs());
+        for (int size : MESSAGE_SIZES) {
+            for (int concurrency : CONCURRENCY_LEVELS) {
+                results.add(measureRoundTrips("ping_pong", size, 0, concurrency));
+            }
+        }
+        for (int size : MESSAGE_SIZES) {
+            for (int concurrency : CONCURRENCY_LEVELS) {
+                results.add(measureStreaming(size, concurrency));
+            }
+        }
+        for (int handleCount : HANDLE_COUNTS) {
+            for (int concurrency : CONCURRENCY_LEVELS) {
+                results.add(measureRoundTrips(
+                        "handle_passing", HANDLE_MESSAGE_SIZE, handleCount, concurrency));
+            }
+        }
+
+        StringBuilder json = new StringBuilder("{\"results\":[");
+        for (int i = 0; i < results.size(); i++) {
+            if (i > 0) json.append(',');
+            results.get(i).appendJson(json);
+            Log.i(TAG, results.get(i).toString());
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Times connecting a pair of ServiceRegistries, the setup cost of a Mojo service connection.
+     */
+    private Result measureServiceRegistryPairs() {
+        long[] latencies = new long[SERVICE_REGISTRY_PAIRS];
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < SERVICE_REGISTRY_PAIRS; i++) {
+            long pairStartNanos = System.nanoTime();
+            // The registries are owned by the test environment.
+            ShellMojoTestUtils.createServiceRegistryPair(mTestEnvironment);
+            latencies[i] = System.nanoTime() - pairStartNanos;
+        }
+        return new Result("service_registry_pair", 0, 0, 1, System.nanoTime() - startNanos,
+                latencies);
+    }
+
+    /**
+     * Sends messages over each pipe that its far end echoes back, handles included, and times
+     * each round trip.
+     */
+    private Result measureRoundTrips(String name, final int size, final int handleCount,
+            int concurrency) throws InterruptedException {
+        final List<Pair<MessagePipeHandle, MessagePipeHandle>> pipes = createPipes(concurrency);
+        final long[][] latencies = new long[concurrency][ROUND_TRIPS];
+        final CountDownLatch ready = new CountDownLatch(concurrency);
+        final CountDownLatch start = new CountDownLatch(1);
+        final MojoException[] failure = new MojoException[1];
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < concurrency; i++) {
+            final MessagePipeHandle near = pipes.get(i).first;
+            final MessagePipeHandle far = pipes.get(i).second;
+            final long[] pipeLatencies = latencies[i];
+            threads.add(new BenchmarkThread("echo", failure) {
+                @Override
+                void runScenario() {
+                    echo(far, size, handleCount);
+                }
+            });
+            threads.add(new BenchmarkThread("ping", failure) {
+                @Override
+                void runScenario() throws InterruptedException {
+                    ping(near, size, handleCount, pipeLatencies, ready, start);
+                }
+            });
+        }
+        long elapsedNanos = runThreads(threads, ready, start, failure, pipes);
+        return new Result(name, size, handleCount, concurrency, elapsedNanos,
+                concatenate(latencies));
+    }
+
+    /**
+     * Writes messages to each pipe without waiting for replies, and times each message from its
+     * write until it is read at the far end.
+     */
+    private Result measureStreaming(final int size, int concurrency) throws InterruptedException {
+        final int count = Math.min(MAX_STREAMED_MESSAGES, MAX_STREAMED_BYTES / concurrency / size);
+        final List<Pair<MessagePipeHandle, MessagePipeHandle>> pipes = createPipes(concurrency);
+        final long[][] latencies = new long[concurrency][count];
+        final CountDownLatch ready = new CountDownLatch(concurrency);
+        final CountDownLatch start = new CountDownLatch(1);
+        final MojoException[] failure = new MojoException[1];
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < concurrency; i++) {
+            final MessagePipeHandle near = pipes.get(i).first;
+            final MessagePipeHandle far = pipes.get(i).second;
+            final long[] pipeLatencies = latencies[i];
+            threads.add(new BenchmarkThread("reader", failure) {
+                @Override
+                void runScenario() {
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+                    for (int j = 0; j < count; j++) {
+                        read(far, buffer, 0);
+                        pipeLatencies[j] = System.nanoTime() - buffer.getLong(0);
+                    }
+                }
+            });
+            threads.add(new BenchmarkThread("writer", failure) {
+                @Override
+                void runScenario() throws InterruptedException {
+                    ByteBuffer buffer = createMessage(size);
+                    ready.countDown();
+                    start.await();
+                    for (int j = 0; j < count; j++) {
+                        buffer.putLong(0, System.nanoTime());
+                        near.writeMessage(buffer, null, MessagePipeHandle.WriteFlags.NONE);
+                    }
+                }
+            });
+        }
+        long elapsedNanos = runThreads(threads, ready, start, failure, pipes);
+        return new Result("streaming", size, 0, concurrency, elapsedNanos,
+                concatenate(latencies));
+    }
+
+    private void echo(MessagePipeHandle pipe, int size, int handleCount) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        while (true) {
+            MessagePipeHandle.ReadMessageResult result = read(pipe, buffer, handleCount);
+            // An empty message asks to stop.
+            if (result.getMessageSize() == 0) return;
+            pipe.writeMessage(buffer, result.getHandles(), MessagePipeHandle.WriteFlags.NONE);
+        }
+    }
+
+    private void ping(MessagePipeHandle pipe, int size, int handleCount, long[] latencies,
+            CountDownLatch ready, CountDownLatch start) throws InterruptedException {
+        ByteBuffer buffer = createMessage(size);
+        ByteBuffer reply = ByteBuffer.allocateDirect(size);
+        List<? extends Handle> handles = createHandles(handleCount);
+        try {
+            try {
+                for (int i = 0; i < WARM_UP_ROUND_TRIPS; i++) {
+                    handles = roundTrip(pipe, buffer, reply, handles);
+                }
+            } finally {
+                ready.countDown();
+            }
+            start.await();
+            for (int i = 0; i < latencies.length; i++) {
+                long startNanos = System.nanoTime();
+                handles = roundTrip(pipe, buffer, reply, handles);
+                latencies[i] = System.nanoTime() - startNanos;
+            }
+        } finally {
+            for (Handle handle : handles) handle.close();
+            pipe.writeMessage(null, null, MessagePipeHandle.WriteFlags.NONE);
+        }
+    }
+
+    private List<? extends Handle> roundTrip(MessagePipeHandle pipe, ByteBuffer buffer,
+            ByteBuffer reply, List<? extends Handle> handles) {
+        int handleCount = handles.size();
+        pipe.writeMessage(buffer, handleCount > 0 ? handles : null,
+                MessagePipeHandle.WriteFlags.NONE);
+        MessagePipeHandle.ReadMessageResult result = read(pipe, reply, handleCount);
+        if (result.getHandlesCount() != handleCount) {
+            throw new MojoException(MojoResult.DATA_LOSS);
+        }
+        if (result.getHandles() == null) return Collections.<Handle>emptyList();
+        return result.getHandles();
+    }
+
+    private MessagePipeHandle.ReadMessageResult read(MessagePipeHandle pipe, ByteBuffer buffer,
+            int maxHandles) {
+        while (true) {
+            ResultAnd<MessagePipeHandle.ReadMessageResult> result =
+                    pipe.readMessage(buffer, maxHandles, MessagePipeHandle.ReadFlags.NONE);
+            if (result.getMojoResult() == MojoResult.OK) return result.getValue();
+            if (result.getMojoResult() != MojoResult.SHOULD_WAIT) {
+                throw new MojoException(result.getMojoResult());
+            }
+            int waitResult = pipe.wait(Core.HandleSignals.READABLE, DEADLINE_MICROS)
+                    .getMojoResult();
+            if (waitResult != MojoResult.OK) throw new MojoException(waitResult);
+        }
+    }
+
+    /**
+     * Starts the threads, lets them measure together once all are ready and closes the pipes.
+     * @return The time from the start of measuring until the last thread finished.
+     */
+    private static long runThreads(List<Thread> threads, CountDownLatch ready,
+            CountDownLatch start, MojoException[] failure,
+            List<Pair<MessagePipeHandle, MessagePipeHandle>> pipes) throws InterruptedException {
+        long elapsedNanos;
+        try {
+            for (Thread thread : threads) thread.start();
+            ready.await();
+            long startNanos = System.nanoTime();
+            start.countDown();
+            for (Thread thread : threads) thread.join();
+            elapsedNanos = System.nanoTime() - startNanos;
+        } finally {
+            for (Pair<MessagePipeHandle, MessagePipeHandle> pipe : pipes) {
+                pipe.first.close();
+                pipe.second.close();
+            }
+        }
+        synchronized (failure) {
+            if (failure[0] != null) throw failure[0];
+        }
+        return elapsedNanos;
+    }
+
+    private List<Pair<MessagePipeHandle, MessagePipeHandle>> createPipes(int count) {
+        List<Pair<MessagePipeHandle, MessagePipeHandle>> pipes =
+                new ArrayList<Pair<MessagePipeHandle, MessagePipeHandle>>();
+        for (int i = 0; i < count; i++) pipes.add(mCore.createMessagePipe(null));
+        return pipes;
+    }
+
+    /**
+     * @return One end each of new message pipes, whose other ends are closed.
+     */
+    private List<MessagePipeHandle> createHandles(int count) {
+        List<MessagePipeHandle> handles = new ArrayList<MessagePipeHandle>();
+        for (int i = 0; i < count; i++) {
+            Pair<MessagePipeHandle, MessagePipeHandle> pipe = mCore.createMessagePipe(null);
+            pipe.second.close();
+            handles.add(pipe.first);
+        }
+        return handles;
+    }
+
+    private static ByteBuffer createMessage(int size) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < size; i++) buffer.put(i, (byte) (i * 31));
+        return buffer;
+    }
+
+    private static long[] concatenate(long[][] arrays) {
+        int length = 0;
+        for (long[] array : arrays) length += array.length;
+        long[] result = new long[length];
+        int offset = 0;
+        for (long[] array : arrays) {
+            System.arraycopy(array, 0, result, offset, array.length);
+            offset += array.length;
+        }
+        return result;
+    }
+
+    /**
+     * A thread running one end of a scenario, which records the first failure of any of them.
+     */
+    private abstract static class BenchmarkThread extends Thread {
+        private final MojoException[] mFailure;
+
+        BenchmarkThread(String name, MojoException[] failure) {
+            super(TAG + "." + name);
+            mFailure = failure;
+        }
+
+        abstract void runScenario() throws InterruptedException;
+
+        @Override
+        public void run() {
+            try {
+                runScenario();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (MojoException e) {
+                synchronized (mFailure) {
+                    if (mFailure[0] == null) mFailure[0] = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * The outcome of one scenario.
+     */
+    private static class Result {
+        final String mName;
+        final int mMessageBytes;
+        final int mHandles;
+        final int mConcurrency;
+        final double mMessagesPerSecond;
+        final long[] mSortedLatenciesNanos;
+
+        Result(String name, int messageBytes, int handles, int concurrency, long elapsedNanos,
+                long[] latenciesNanos) {
+            mName = name;
+            mMessageBytes = messageBytes;
+            mHandles = handles;
+            mConcurrency = concurrency;
+            mMessagesPerSecond = latenciesNanos.length * 1e9 / Math.max(1, elapsedNanos);
+            mSortedLatenciesNanos = latenciesNanos.clone();
+            Arrays.sort(mSortedLatenciesNanos);
+        }
+
+        long percentileMicros(int percentile) {
+            if (mSortedLatenciesNanos.length == 0) return 0;
+            int index = (int) Math.ceil(mSortedLatenciesNanos.length * percentile / 100.0) - 1;
+            return mSortedLatenciesNanos[Math.max(0, index)] / 1000;
+        }
+
+        void appendJson(StringBuilder json) {
+            json.append("{\"scenario\":\"").append(mName)
+                    .append("\",\"messageBytes\":").append(mMessageBytes)
+                    .append(",\"handles\":").append(mHandles)
+                    .append(",\"concurrency\":").append(mConcurrency)
+                    .append(",\"messages\":").append(mSortedLatenciesNanos.length)
+                    .append(",\"messagesPerSecond\":")
+                    .append(String.format(Locale.US, "%.1f", mMessagesPerSecond))
+                    .append(",\"p50Us\":").append(percentileMicros(50))
+                    .append(",\"p90Us\":").append(percentileMicros(90))
+                    .append(",\"p99Us\":").append(percentileMicros(99))
+                    .append(",\"maxUs\":").append(percentileMicros(100))
+                    .append('}');
+        }
+
+        @Override
+        public String toString() {
+            return mName + " " + mMessageBytes + "B x" + mConcurrency
+                    + (mHandles > 0 ? " with " + mHandles + " handles" : "") + ": "
+                    + String.format(Locale.US, "%.0f", mMessagesPerSecond) + " msg/s, p50 "
+                    + percentileMicros(50) + "us, p99 " + percentileMicros(99) + "us";
+        }
+    }
+}
@@ -0,0 +1,28 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import org.chromium.content_public.browser.WebContents;
+import org.chromium.content_public.browser.WebContentsObserver;
+
+/**
+ * Tells a {@link Shell} when the page of its {@link WebContents} first paints, so that it hides
+ * a snapshot shown for the navigation.  Observes every shell, unlike the optional
+ * {@link NavigationMetricsTracker}.
+ */
+class ShellPaintObserver extends WebContentsObserver {
+
+    private final Shell mShell;
+
+    ShellPaintObserver(Shell shell, WebContents webContents) {
+        super(webContents);
+        mShell = shell;
+    }
+
+    @Override
+    public void didFirstVisuallyNonEmptyPaint() {
+        mShell.onFirstVisuallyNonEmptyPaint();
+    }
+}
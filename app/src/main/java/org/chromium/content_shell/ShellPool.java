@@ -0,0 +1,161 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.view.LayoutInflater;
+
+import org.chromium.base.ThreadUtils;
+import org.chromium.content_shell_apk.R;
+
+import java.util.ArrayDeque;
+
+/**
+ * Bounded pool of inflated, detached {@link Shell} views.
+ *
+ * Shells released back to the pool once their native counterpart is destroyed are reused by the
+ * next {@link #acquire()}, and the pool is topped up with freshly inflated views while the UI
+ * thread is idle.  When the pool is full the least recently released view is dropped.
+ */
+public class ShellPool {
+
+    private final Context mContext;
+    // Most recently released shell first; eviction happens from the tail.
+    private final ArrayDeque<Shell> mShells = new ArrayDeque<Shell>();
+
+    private int mCapacity;
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+    private boolean mWarmUpScheduled;
+
+    private final MessageQueue.IdleHandler mWarmUpHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            if (mShells.size() >= mCapacity) {
+                mWarmUpScheduled = false;
+                return false;
+            }
+            mShells.addLast(inflateShell());
+            // Inflate at most one shell per idle pass to keep each pass short.
+            mWarmUpScheduled = mShells.size() < mCapacity;
+            return mWarmUpScheduled;
+        }
+    };
+
+    /**
+     * @param context The context used to inflate new shells.
+     * @param capacity The maximum number of idle shells kept around.
+     */
+    public ShellPool(Context context, int capacity) {
+        assert capacity >= 0;
+        mContext = context;
+        mCapacity = capacity;
+    }
+
+    /**
+     * @return A detached shell ready for {@link Shell#initialize}, either taken from the pool or
+     *         freshly inflated.
+     */
+    public Shell acquire() {
+        ThreadUtils.assertOnUiThread();
+        Shell shell = mShells.pollFirst();
+        if (shell != null) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+            shell = inflateShell();
+        }
+        warmUp();
+        return shell;
+    }
+
+    /**
+     * Returns a shell whose native side has been destroyed to the pool.
+     * @param shell The shell to recycle.  It must no longer be attached to a parent.
+     */
+    public void release(Shell shell) {
+        ThreadUtils.assertOnUiThread();
+        if (!shell.isDestroyed() || shell.getParent() != null) return;
+        shell.recycle();
+        if (mCapacity == 0) return;
+        mShells.addFirst(shell);
+        trimToCapacity();
+    }
+
+    /**
+     * Schedules inflation of shells until the pool is full.  Work is done while the UI thread is
+     * idle so it does not compete with pending input or rendering.
+     */
+    public void warmUp() {
+        if (mWarmUpScheduled || mShells.size() >= mCapacity) return;
+        mWarmUpScheduled = true;
+        Looper.myQueue().addIdleHandler(mWarmUpHandler);
+    }
+
+    /**
+     * Changes the maximum number of idle shells, evicting the least recently used ones if needed.
+     */
+    public void setCapacity(int capacity) {
+        assert capacity >= 0;
+        mCapacity = capacity;
+        trimToCapacity();
+    }
+
+    /**
+     * Drops all idle shells.
+     */
+    public void clear() {
+        mEvictionCount += mShells.size();
+        mShells.clear();
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return The number of idle shells currently held.
+     */
+    public int size() {
+        return mShells.size();
+    }
+
+    /**
+     * @return The number of {@link #acquire()} calls served from the pool.
+     */
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return The number of {@link #acquire()} calls that had to inflate a new shell.
+     */
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return The number of idle shells dropped because the pool was over capacity.
+     */
+    public int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    private void trimToCapacity() {
+        while (mShells.size() > mCapacity) {
+            mShells.removeLast();
+            mEvictionCount++;
+        }
+    }
+
+    private Shell inflateShell() {
+        LayoutInflater inflater =
+                (LayoutInflater) mContext.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        return (Shell) inflater.inflate(R.layout.shell_view, null);
+    }
+}
@@ -0,0 +1,118 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import android.os.Handler;
+import android.text.TextUtils;
+
+import org.chromium.base.ThreadUtils;
+
+/**
+ * Speculatively loads the URL being typed into a {@link Shell} URL bar in a hidden shell, so that
+ * committing the same URL only has to swap the already loading shell in.
+ *
+ * At most one speculative shell exists at a time.  Editing the URL cancels it and, once typing
+ * pauses for {@link #DEBOUNCE_DELAY_MS}, starts a new one for the edited URL.
+ */
+public class ShellPrerenderer {
+
+    static final long DEBOUNCE_DELAY_MS = 400;
+
+    private final ShellManager mShellManager;
+    private final Handler mHandler = new Handler();
+
+    private String mPendingUrl;
+    private String mSpeculativeUrl;
+    private Shell mSpeculativeShell;
+
+    private int mStartedCount;
+    private int mUsedCount;
+
+    private final Runnable mStartRunnable = new Runnable() {
+        @Override
+        public void run() {
+            String url = mPendingUrl;
+            mPendingUrl = null;
+            if (url == null) return;
+            mSpeculativeShell = mShellManager.launchSpeculativeShell(url);
+            if (mSpeculativeShell == null) return;
+            mSpeculativeUrl = url;
+            mStartedCount++;
+        }
+    };
+
+    ShellPrerenderer(ShellManager shellManager) {
+        mShellManager = shellManager;
+    }
+
+    /**
+     * Called whenever the user edits the URL bar.
+     * @param text The current, unsanitized contents of the URL bar.
+     */
+    void onUrlEdited(String text) {
+        ThreadUtils.assertOnUiThread();
+        String url = TextUtils.isEmpty(text) ? null : Shell.sanitizeUrl(text.trim());
+        if (url != null && url.equals(mSpeculativeUrl) && isSpeculativeShellAlive()) return;
+
+        cancel();
+        if (url == null) return;
+        mPendingUrl = url;
+        mHandler.postDelayed(mStartRunnable, DEBOUNCE_DELAY_MS);
+    }
+
+    /**
+     * Swaps the speculative shell in if it was started for the committed URL.
+     * @param text The unsanitized URL the user committed.
+     * @return Whether the speculative shell was used, in which case the caller must not load the
+     *         URL itself.
+     */
+    boolean commit(String text) {
+        ThreadUtils.assertOnUiThread();
+        String url = TextUtils.isEmpty(text) ? null : Shell.sanitizeUrl(text.trim());
+        if (url == null || !url.equals(mSpeculativeUrl) || !isSpeculativeShellAlive()) {
+            cancel();
+            return false;
+        }
+        if (!mShellManager.swapInSpeculativeShell(mSpeculativeShell)) {
+            // Loading the URL in the current shell keeps its back and forward history.
+            cancel();
+            return false;
+        }
+        mSpeculativeShell = null;
+        mSpeculativeUrl = null;
+        mUsedCount++;
+        return true;
+    }
+
+    /**
+     * Cancels any pending or running speculative load.
+     */
+    public void cancel() {
+        mHandler.removeCallbacks(mStartRunnable);
+        mPendingUrl = null;
+        mSpeculativeUrl = null;
+        Shell shell = mSpeculativeShell;
+        mSpeculativeShell = null;
+        if (shell != null) shell.close();
+    }
+
+    /**
+     * @return The number of speculative loads started.
+     */
+    public int getStartedCount() {
+        return mStartedCount;
+    }
+
+    /**
+     * @return The number of speculative loads that were swapped in on commit.
+     */
+    public int getUsedCount() {
+        return mUsedCount;
+    }
+
+    private boolean isSpeculativeShellAlive() {
+        return mSpeculativeShell != null && !mSpeculativeShell.isDestroyed();
+    }
+}
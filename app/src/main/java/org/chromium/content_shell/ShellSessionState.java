@@ -0,0 +1,72 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The persisted state of all tabs of a {@link ShellManager}, and its compact binary format.
+ */
+public class ShellSessionState {
+
+    private static final int MAGIC = 0x43535353;
+    private static final int VERSION = 1;
+
+    private final List<TabState> mTabs;
+    private final int mActiveIndex;
+
+    /**
+     * @param tabs The state of each tab in tab order.
+     * @param activeIndex The index of the visible tab, or -1 if there is none.
+     */
+    public ShellSessionState(List<TabState> tabs, int activeIndex) {
+        assert activeIndex >= -1 && activeIndex < tabs.size();
+        mTabs = Collections.unmodifiableList(new ArrayList<TabState>(tabs));
+        mActiveIndex = activeIndex;
+    }
+
+    public List<TabState> getTabs() {
+        return mTabs;
+    }
+
+    public int getActiveIndex() {
+        return mActiveIndex;
+    }
+
+    public void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(mTabs.size());
+        out.writeInt(mActiveIndex);
+        for (TabState tab : mTabs) tab.writeTo(out);
+        out.flush();
+    }
+
+    /**
+     * @throws IOException If the stream does not hold a session of the current version.
+     */
+    public static ShellSessionState readFrom(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) throw new IOException("Not a session file");
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("Unsupported session version " + version);
+        int tabCount = in.readInt();
+        int activeIndex = in.readInt();
+        if (tabCount < 0 || activeIndex < -1 || activeIndex >= tabCount) {
+            throw new IOException("Invalid session header");
+        }
+        List<TabState> tabs = new ArrayList<TabState>(tabCount);
+        for (int i = 0; i < tabCount; i++) tabs.add(TabState.readFrom(in));
+        return new ShellSessionState(tabs, activeIndex);
+    }
+}
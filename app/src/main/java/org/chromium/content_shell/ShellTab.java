@@ -0,0 +1,128 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import android.os.SystemClock;
+
+import org.chromium.content_public.browser.WebContents;
+
+/**
+ * An entry in the {@link ShellManager} tab model.  A tab is either backed by a live {@link Shell}
+ * or has been discarded to save memory, in which case only the URL needed to restore it is kept.
+ */
+public class ShellTab {
+
+    private Shell mShell;
+    private String mUrl;
+    private long mLastActiveTimeMs;
+
+    // The state last persisted for this tab, and whether the live shell has changed since.
+    private TabState mSessionState;
+    private boolean mSessionStateDirty = true;
+    // The state this tab was restored from.  Its entries before the current one are not known to
+    // the new shell, so they are kept to be persisted again.
+    private TabState mRestoredState;
+    // The scroll offset to apply once the restored page has loaded, or -1.
+    private int mPendingScrollY = -1;
+
+    ShellTab(String url) {
+        mUrl = url;
+    }
+
+    /**
+     * @return The shell backing this tab, or null if the tab has been discarded.
+     */
+    public Shell getShell() {
+        return mShell;
+    }
+
+    /**
+     * @return Whether the tab has been discarded and needs to be restored before it can be shown.
+     */
+    public boolean isDiscarded() {
+        return mShell == null;
+    }
+
+    /**
+     * @return The URL currently shown by the tab, or the URL it will be restored to.
+     */
+    public String getUrl() {
+        WebContents webContents = mShell != null ? mShell.getWebContents() : null;
+        if (webContents != null && webContents.getUrl() != null) return webContents.getUrl();
+        return mUrl;
+    }
+
+    /**
+     * @return The time this tab was last made active, in {@link SystemClock#elapsedRealtime()}.
+     */
+    public long getLastActiveTimeMs() {
+        return mLastActiveTimeMs;
+    }
+
+    void attachShell(Shell shell) {
+        mShell = shell;
+    }
+
+    /**
+     * Drops the reference to the live shell, remembering its URL for a later restore.
+     * @return The shell that was backing this tab.
+     */
+    Shell discardShell() {
+        Shell shell = mShell;
+        mUrl = getUrl();
+        mShell = null;
+        if (mSessionState != null) {
+            // The shell that restores this tab starts from the current entry again.
+            mRestoredState = mSessionState;
+            mPendingScrollY = mSessionState.getScrollY();
+        }
+        return shell;
+    }
+
+    /**
+     * Turns this discarded tab into one that restores the given state when it is shown.
+     */
+    void restoreState(TabState state) {
+        assert isDiscarded();
+        mRestoredState = state;
+        mSessionState = state;
+        mSessionStateDirty = false;
+        mPendingScrollY = state.getScrollY();
+    }
+
+    TabState getRestoredState() {
+        return mRestoredState;
+    }
+
+    TabState getSessionState() {
+        return mSessionState;
+    }
+
+    void setSessionState(TabState state) {
+        mSessionState = state;
+        mSessionStateDirty = false;
+    }
+
+    boolean isSessionStateDirty() {
+        return mSessionStateDirty;
+    }
+
+    void markSessionStateDirty() {
+        mSessionStateDirty = true;
+    }
+
+    /**
+     * @return The scroll offset to restore, or -1 if there is none.  Only returned once.
+     */
+    int takePendingScrollY() {
+        int scrollY = mPendingScrollY;
+        mPendingScrollY = -1;
+        return scrollY;
+    }
+
+    void markActive() {
+        mLastActiveTimeMs = SystemClock.elapsedRealtime();
+    }
+}
@@ -0,0 +1,137 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values recorded over a sliding time window, from which percentiles
+ * can be read.
+ *
+ * The window is split into time slices, each with its own bucket counts; a slice is cleared and
+ * reused once it falls out of the window.  Recording only does atomic increments, so it never
+ * blocks.  Percentiles are approximate: buckets grow geometrically, and an update racing with the
+ * reuse of a slice may be lost.
+ */
+public class SlidingWindowHistogram {
+
+    // Each bucket is 25% wider than the previous one, which bounds the error of a percentile.
+    private static final double BUCKET_GROWTH = 1.25;
+    private static final long MAX_TRACKED_VALUE = 1L << 40;
+    private static final long[] BUCKET_LOWER_BOUNDS = createBucketBounds();
+
+    private final long mSliceDurationMs;
+    private final int mSliceCount;
+    // mCounts[slice * bucketCount + bucket].
+    private final AtomicLongArray mCounts;
+    // The epoch, in slice durations since time 0, whose values each slice currently holds.
+    private final AtomicLongArray mSliceEpochs;
+
+    /**
+     * @param windowMs The length of the window values are kept for.
+     * @param sliceCount The number of slices the window is divided into; values expire in steps
+     *                   of windowMs / sliceCount.
+     */
+    public SlidingWindowHistogram(long windowMs, int sliceCount) {
+        assert sliceCount > 0 && windowMs >= sliceCount;
+        mSliceDurationMs = windowMs / sliceCount;
+        mSliceCount = sliceCount;
+        mCounts = new AtomicLongArray(sliceCount * BUCKET_LOWER_BOUNDS.length);
+        mSliceEpochs = new AtomicLongArray(sliceCount);
+        for (int i = 0; i < sliceCount; i++) mSliceEpochs.set(i, -1);
+    }
+
+    /**
+     * Records a value at the given time.
+     * @param value The value, negative values are recorded as 0.
+     * @param nowMs The current time on a monotonic clock.
+     */
+    public void record(long value, long nowMs) {
+        long epoch = nowMs / mSliceDurationMs;
+        int slice = (int) (epoch % mSliceCount);
+        long sliceEpoch = mSliceEpochs.get(slice);
+        if (sliceEpoch != epoch && mSliceEpochs.compareAndSet(slice, sliceEpoch, epoch)) {
+            int base = slice * BUCKET_LOWER_BOUNDS.length;
+            for (int i = 0; i < BUCKET_LOWER_BOUNDS.length; i++) mCounts.set(base + i, 0);
+        }
+        mCounts.incrementAndGet(slice * BUCKET_LOWER_BOUNDS.length + bucketFor(value));
+    }
+
+    /**
+     * @return The number of values recorded within the window.
+     */
+    public long getCount(long nowMs) {
+        long count = 0;
+        for (long bucketCount : collect(nowMs)) count += bucketCount;
+        return count;
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 100.
+     * @param nowMs The current time on a monotonic clock.
+     * @return An upper bound of the percentile of the values recorded within the window, or -1 if
+     *         there are none.
+     */
+    public long getPercentile(double percentile, long nowMs) {
+        long[] counts = collect(nowMs);
+        long total = 0;
+        for (long count : counts) total += count;
+        if (total == 0) return -1;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return bucketUpperBound(i);
+        }
+        return bucketUpperBound(counts.length - 1);
+    }
+
+    private long[] collect(long nowMs) {
+        long currentEpoch = nowMs / mSliceDurationMs;
+        long[] counts = new long[BUCKET_LOWER_BOUNDS.length];
+        for (int slice = 0; slice < mSliceCount; slice++) {
+            long epoch = mSliceEpochs.get(slice);
+            if (epoch < 0 || currentEpoch - epoch >= mSliceCount) continue;
+            int base = slice * BUCKET_LOWER_BOUNDS.length;
+            for (int i = 0; i < counts.length; i++) counts[i] += mCounts.get(base + i);
+        }
+        return counts;
+    }
+
+    private static int bucketFor(long value) {
+        if (value <= 0) return 0;
+        int low = 0;
+        int high = BUCKET_LOWER_BOUNDS.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (BUCKET_LOWER_BOUNDS[mid] <= value) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static long bucketUpperBound(int bucket) {
+        if (bucket + 1 < BUCKET_LOWER_BOUNDS.length) return BUCKET_LOWER_BOUNDS[bucket + 1] - 1;
+        return MAX_TRACKED_VALUE;
+    }
+
+    private static long[] createBucketBounds() {
+        // Bucket 0 holds 0, then one bucket per integer up to where growth exceeds 1.
+        long[] bounds = new long[256];
+        int count = 0;
+        bounds[count++] = 0;
+        long bound = 1;
+        while (bound < MAX_TRACKED_VALUE) {
+            bounds[count++] = bound;
+            bound = Math.max(bound + 1, (long) (bound * BUCKET_GROWTH));
+        }
+        long[] result = new long[count];
+        System.arraycopy(bounds, 0, result, 0, count);
+        return result;
+    }
+}
@@ -0,0 +1,178 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A cache of values within a byte budget, evicting the least recently used first.  A value can
+ * be acquired, which keeps it from being freed until it is released even if it is evicted
+ * meanwhile.  Backs {@link NavigationSnapshotCache}, which supplies the size of a value and frees
+ * it.  Must be used on a single thread.
+ */
+abstract class SnapshotLruCache<K, V> {
+
+    /**
+     * A cached value, as handed out by {@link #acquire}.
+     */
+    static class Entry<V> {
+        private final V mValue;
+        private final long mSizeBytes;
+        private int mAcquireCount;
+        private boolean mCached = true;
+
+        private Entry(V value, long sizeBytes) {
+            mValue = value;
+            mSizeBytes = sizeBytes;
+        }
+
+        V getValue() {
+            return mValue;
+        }
+    }
+
+    private final LinkedHashMap<K, Entry<V>> mEntries =
+            new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+    private long mMaxSizeBytes;
+    private long mSizeBytes;
+
+    private int mPutCount;
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    /**
+     * @param maxSizeBytes The maximum total size of the cached values.
+     */
+    SnapshotLruCache(long maxSizeBytes) {
+        assert maxSizeBytes >= 0;
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * @return The size of a value, which must not change while it is cached.
+     */
+    protected abstract long sizeOf(V value);
+
+    /**
+     * Called once a value is neither cached nor acquired.
+     */
+    protected abstract void free(V value);
+
+    /**
+     * Caches a value, replacing any earlier one of the key, and evicts values if the cache is now
+     * over budget.  A value larger than the budget is freed right away.
+     * @return Whether the value was cached.
+     */
+    boolean put(K key, V value) {
+        long size = sizeOf(value);
+        if (size > mMaxSizeBytes) {
+            free(value);
+            return false;
+        }
+        Entry<V> previous = mEntries.put(key, new Entry<V>(value, size));
+        if (previous != null) drop(previous);
+        mSizeBytes += size;
+        mPutCount++;
+        trimToSize(mMaxSizeBytes);
+        return true;
+    }
+
+    /**
+     * Looks up a value and acquires it, so it is not freed until {@link #release(Entry)}.
+     * @return The entry of the value, or null if there is none.
+     */
+    Entry<V> acquire(K key) {
+        Entry<V> entry = mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        entry.mAcquireCount++;
+        return entry;
+    }
+
+    void release(Entry<V> entry) {
+        assert entry.mAcquireCount > 0;
+        entry.mAcquireCount--;
+        if (entry.mAcquireCount == 0 && !entry.mCached) free(entry.mValue);
+    }
+
+    /**
+     * Removes the value of a key, if any.  Does not count as an eviction.
+     */
+    void remove(K key) {
+        Entry<V> entry = mEntries.remove(key);
+        if (entry != null) drop(entry);
+    }
+
+    /**
+     * @return The keys of the cached values, least recently used first.
+     */
+    List<K> getKeys() {
+        return new ArrayList<K>(mEntries.keySet());
+    }
+
+    /**
+     * Evicts the least recently used values until the cached ones fit in the given size.
+     */
+    void trimToSize(long maxSizeBytes) {
+        Iterator<Entry<V>> it = mEntries.values().iterator();
+        while (mSizeBytes > maxSizeBytes && it.hasNext()) {
+            Entry<V> entry = it.next();
+            it.remove();
+            drop(entry);
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Changes the byte budget, evicting values if the cache is now over it.
+     */
+    void setMaxSizeBytes(long maxSizeBytes) {
+        assert maxSizeBytes >= 0;
+        mMaxSizeBytes = maxSizeBytes;
+        trimToSize(maxSizeBytes);
+    }
+
+    long getMaxSizeBytes() {
+        return mMaxSizeBytes;
+    }
+
+    long getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    int getEntryCount() {
+        return mEntries.size();
+    }
+
+    int getPutCount() {
+        return mPutCount;
+    }
+
+    int getHitCount() {
+        return mHitCount;
+    }
+
+    int getMissCount() {
+        return mMissCount;
+    }
+
+    int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    private void drop(Entry<V> entry) {
+        mSizeBytes -= entry.mSizeBytes;
+        entry.mCached = false;
+        // An acquired value is freed once released.
+        if (entry.mAcquireCount == 0) free(entry.mValue);
+    }
+}
@@ -0,0 +1,145 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import android.os.Process;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the time at which each startup milestone is reached and writes them out as a Chrome
+ * trace-event JSON file that can be loaded in about:tracing.
+ *
+ * Milestones are stored in a fixed size ring buffer, so marking one does not allocate and is safe
+ * on any thread.  Each milestone marked with {@link #markOnce(int)} is only recorded the first
+ * time it is reached.
+ */
+public final class StartupTracer {
+
+    private static final String TAG = "StartupTracer";
+
+    public static final int APPLICATION_ON_CREATE = 0;
+    public static final int ACTIVITY_ON_CREATE = 1;
+    public static final int NATIVE_LIBRARY_LOADED = 2;
+    public static final int BROWSER_PROCESS_STARTED = 3;
+    public static final int READY_TO_RENDER = 4;
+    public static final int FIRST_LOAD_FINISHED = 5;
+
+    private static final String[] MILESTONE_NAMES = {
+        "Application.onCreate",
+        "Activity.onCreate",
+        "NativeLibraryLoaded",
+        "BrowserProcessStarted",
+        "ReadyToRender",
+        "FirstLoadFinished",
+    };
+
+    // Must be a power of two.
+    private static final int CAPACITY = 64;
+
+    private static final int[] sMilestones = new int[CAPACITY];
+    private static final long[] sTimesNanos = new long[CAPACITY];
+    private static final int[] sThreadIds = new int[CAPACITY];
+    private static final AtomicInteger sNextIndex = new AtomicInteger();
+    // Bit n is set once milestone n has been recorded by markOnce().
+    private static final AtomicInteger sMarkedOnce = new AtomicInteger();
+
+    private static volatile File sAutoDumpFile;
+
+    private StartupTracer() {}
+
+    /**
+     * Records that a milestone was reached now.
+     * @param milestone One of the milestone constants of this class.
+     */
+    public static void mark(int milestone) {
+        long timeNanos = System.nanoTime();
+        int slot = sNextIndex.getAndIncrement() & (CAPACITY - 1);
+        sMilestones[slot] = milestone;
+        sThreadIds[slot] = Process.myTid();
+        // Published last; a dump racing with this write may still see the previous entry.
+        sTimesNanos[slot] = timeNanos;
+    }
+
+    /**
+     * Records that a milestone was reached now, unless it has already been recorded by this
+     * method.
+     */
+    public static void markOnce(int milestone) {
+        int bit = 1 << milestone;
+        while (true) {
+            int marked = sMarkedOnce.get();
+            if ((marked & bit) != 0) return;
+            if (sMarkedOnce.compareAndSet(marked, marked | bit)) break;
+        }
+        mark(milestone);
+        if (milestone == FIRST_LOAD_FINISHED && sAutoDumpFile != null) {
+            writeTraceAsync(sAutoDumpFile);
+        }
+    }
+
+    /**
+     * @param file The file the trace is written to once the first page finishes loading, or
+     *             null to not write it automatically.
+     */
+    public static void setAutoDumpFile(File file) {
+        sAutoDumpFile = file;
+    }
+
+    /**
+     * Snapshots the recorded milestones and writes them to a file on a background thread.
+     */
+    public static void writeTraceAsync(final File file) {
+        ReportFileWriter.writeAsync(TAG, "startup trace", file, buildTraceJson());
+    }
+
+    /**
+     * @return The recorded milestones in trace-event JSON.  Each milestone is an instant event,
+     *         and the interval between two consecutive milestones is a complete event so the
+     *         phases show up as slices.
+     */
+    static String buildTraceJson() {
+        int end = sNextIndex.get();
+        int start = Math.max(0, end - CAPACITY);
+        int pid = Process.myPid();
+        long baseNanos = 0;
+        StringBuilder builder = new StringBuilder("{\"traceEvents\":[");
+        boolean first = true;
+        int previousMilestone = -1;
+        long previousMicros = 0;
+        for (int i = start; i < end; i++) {
+            int slot = i & (CAPACITY - 1);
+            long timeNanos = sTimesNanos[slot];
+            if (i == start) baseNanos = timeNanos;
+            long micros = (timeNanos - baseNanos) / 1000;
+            int milestone = sMilestones[slot];
+            if (!first) builder.append(',');
+            first = false;
+            appendEvent(builder, MILESTONE_NAMES[milestone], "i", micros, -1, pid,
+                    sThreadIds[slot]);
+            if (previousMilestone >= 0) {
+                builder.append(',');
+                appendEvent(builder, MILESTONE_NAMES[previousMilestone] + " -> "
+                        + MILESTONE_NAMES[milestone], "X", previousMicros,
+                        micros - previousMicros, pid, 0);
+            }
+            previousMilestone = milestone;
+            previousMicros = micros;
+        }
+        builder.append("],\"displayTimeUnit\":\"ms\"}");
+        return builder.toString();
+    }
+
+    private static void appendEvent(StringBuilder builder, String name, String phase,
+            long timestampMicros, long durationMicros, int pid, int tid) {
+        builder.append("{\"name\":\"").append(name)
+                .append("\",\"cat\":\"startup\",\"ph\":\"").append(phase)
+                .append("\",\"ts\":").append(timestampMicros);
+        if (durationMicros >= 0) builder.append(",\"dur\":").append(durationMicros);
+        if ("i".equals(phase)) builder.append(",\"s\":\"p\"");
+        builder.append(",\"pid\":").append(pid).append(",\"tid\":").append(tid).append('}');
+    }
+}
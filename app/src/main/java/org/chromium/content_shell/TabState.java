@@ -0,0 +1,130 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * The persisted state of a {@link ShellTab}: its navigation history, the current entry and the
+ * scroll position of the page.  Immutable, so its encoding is computed once and reused by every
+ * session write until the tab changes.
+ */
+public class TabState {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    // Guards against allocating huge buffers for a corrupt file; data URLs can be large.
+    private static final int MAX_STRING_BYTES = 2 * 1024 * 1024;
+
+    private final String[] mUrls;
+    private final String[] mTitles;
+    private final int mCurrentIndex;
+    private final int mScrollY;
+    private byte[] mEncoded;
+
+    /**
+     * @param urls The URLs of the history entries, oldest first.
+     * @param titles The titles of the history entries, the same length as {@code urls}.
+     * @param currentIndex The index of the current entry.
+     * @param scrollY The vertical scroll offset of the current entry.
+     */
+    public TabState(String[] urls, String[] titles, int currentIndex, int scrollY) {
+        assert urls.length == titles.length;
+        assert urls.length == 0 || (currentIndex >= 0 && currentIndex < urls.length);
+        mUrls = urls;
+        mTitles = titles;
+        mCurrentIndex = currentIndex;
+        mScrollY = scrollY;
+    }
+
+    public int getEntryCount() {
+        return mUrls.length;
+    }
+
+    public String getUrl(int index) {
+        return mUrls[index];
+    }
+
+    public String getTitle(int index) {
+        return mTitles[index];
+    }
+
+    public int getCurrentIndex() {
+        return mCurrentIndex;
+    }
+
+    /**
+     * @return The URL of the current entry, or null if the history is empty.
+     */
+    public String getCurrentUrl() {
+        return mUrls.length == 0 ? null : mUrls[mCurrentIndex];
+    }
+
+    public int getScrollY() {
+        return mScrollY;
+    }
+
+    /**
+     * @return The binary encoding of this state, as written by {@link #writeTo}.
+     */
+    synchronized byte[] encode() {
+        if (mEncoded == null) {
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(mUrls.length);
+                out.writeInt(mCurrentIndex);
+                out.writeInt(mScrollY);
+                for (int i = 0; i < mUrls.length; i++) {
+                    writeString(out, mUrls[i]);
+                    writeString(out, mTitles[i]);
+                }
+                out.flush();
+                mEncoded = bytes.toByteArray();
+            } catch (IOException e) {
+                // Not thrown by in-memory streams.
+                throw new IllegalStateException(e);
+            }
+        }
+        return mEncoded;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.write(encode());
+    }
+
+    static TabState readFrom(DataInputStream in) throws IOException {
+        int entryCount = in.readInt();
+        int currentIndex = in.readInt();
+        int scrollY = in.readInt();
+        if (entryCount < 0 || (entryCount > 0 && (currentIndex < 0 || currentIndex >= entryCount))) {
+            throw new IOException("Invalid tab state");
+        }
+        String[] urls = new String[entryCount];
+        String[] titles = new String[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            urls[i] = readString(in);
+            titles[i] = readString(in);
+        }
+        return new TabState(urls, titles, currentIndex, scrollY);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_BYTES) throw new IOException("Invalid string length");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
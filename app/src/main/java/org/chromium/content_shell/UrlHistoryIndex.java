@@ -0,0 +1,299 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * In-memory index of visited URLs answering URL bar prefix queries ranked by frecency, a score
+ * combining how often and how recently a URL was visited.
+ *
+ * URLs are matched without their http or https scheme, a leading "www." and case, so "goo" finds
+ * "https://www.google.com/".  The match keys are kept in one sorted array of entry ids, so a query
+ * is two binary searches followed by a scan of the matching range that keeps the best results.
+ * New URLs are sorted in by the next query: one by one if there are few, otherwise all at once,
+ * which keeps loading a large history from being quadratic.  Queries write into arrays owned by
+ * the caller and, once the new URLs are sorted in, do not allocate.  Not thread safe.
+ */
+public class UrlHistoryIndex {
+
+    private static final String[] STRIPPED_SCHEMES = {"http://", "https://"};
+    private static final String STRIPPED_HOST_PREFIX = "www.";
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    // Weight of a visit by the age of the most recent one, in days.
+    private static final int[] RECENCY_BUCKET_DAYS = {4, 14, 31, 90};
+    private static final int[] RECENCY_BUCKET_WEIGHTS = {100, 70, 50, 30};
+    private static final int OLD_VISIT_WEIGHT = 10;
+
+    private static final int INITIAL_CAPACITY = 64;
+    // Above this many new URLs, a query sorts all of them again rather than inserting each.
+    private static final int MAX_SORTED_INSERTIONS = 64;
+
+    // Entries by id, in insertion order.
+    private String[] mUrls = new String[INITIAL_CAPACITY];
+    private String[] mKeys = new String[INITIAL_CAPACITY];
+    private int[] mVisitCounts = new int[INITIAL_CAPACITY];
+    private long[] mLastVisitTimesMs = new long[INITIAL_CAPACITY];
+    private int mSize;
+    // Entry ids ordered by match key, up to mSortedCount; the ids of newer entries follow.
+    private int[] mSortedIds = new int[INITIAL_CAPACITY];
+    private int mSortedCount;
+    private final HashMap<String, Integer> mIdsByUrl = new HashMap<String, Integer>();
+
+    // The best matches found so far by a query, best first.
+    private int[] mTopIds = new int[0];
+    private long[] mTopScores = new long[0];
+
+    /**
+     * Records visits to a URL.
+     * @param visitCount The number of visits to add.
+     * @param visitTimeMs The time of the most recent of them, in milliseconds since the epoch.
+     */
+    public void addVisits(String url, int visitCount, long visitTimeMs) {
+        Integer existing = mIdsByUrl.get(url);
+        if (existing != null) {
+            int id = existing;
+            mVisitCounts[id] += visitCount;
+            mLastVisitTimesMs[id] = Math.max(mLastVisitTimesMs[id], visitTimeMs);
+            return;
+        }
+        if (mSize == mUrls.length) grow();
+        int id = mSize++;
+        String key = matchKey(url);
+        mUrls[id] = url;
+        mKeys[id] = key;
+        mVisitCounts[id] = visitCount;
+        mLastVisitTimesMs[id] = visitTimeMs;
+        mIdsByUrl.put(url, id);
+        mSortedIds[id] = id;
+    }
+
+    /**
+     * Finds the visited URLs matching typed text.
+     * @param text The text typed so far.
+     * @param nowMs The current time, in milliseconds since the epoch.
+     * @param results Receives the best matching URLs, best first; its length is the maximum
+     *                number of results.
+     * @return The number of results written.
+     */
+    public int query(CharSequence text, long nowMs, String[] results) {
+        int start = matchStart(text);
+        int maxResults = results.length;
+        if (start == text.length() || maxResults == 0) return 0;
+        sort();
+        if (mTopIds.length < maxResults) {
+            mTopIds = new int[maxResults];
+            mTopScores = new long[maxResults];
+        }
+
+        int end = upperBound(text, start);
+        int count = 0;
+        for (int i = lowerBound(text, start); i < end; i++) {
+            int id = mSortedIds[i];
+            long score = score(id, nowMs);
+            if (count == maxResults && !ranksAbove(id, score, maxResults - 1)) continue;
+            // Insertion into the top results, dropping the worst one if they are full.
+            int position = count < maxResults ? count++ : maxResults - 1;
+            while (position > 0 && ranksAbove(id, score, position - 1)) {
+                mTopIds[position] = mTopIds[position - 1];
+                mTopScores[position] = mTopScores[position - 1];
+                position--;
+            }
+            mTopIds[position] = id;
+            mTopScores[position] = score;
+        }
+        for (int i = 0; i < count; i++) results[i] = mUrls[mTopIds[i]];
+        return count;
+    }
+
+    /**
+     * Sorts in the URLs added since the last query, so that the next query does not have to.
+     */
+    public void sort() {
+        if (mSortedCount == mSize) return;
+        if (mSize - mSortedCount > MAX_SORTED_INSERTIONS) {
+            Integer[] ids = new Integer[mSize];
+            for (int i = 0; i < mSize; i++) ids[i] = i;
+            Arrays.sort(ids, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return mKeys[a].compareTo(mKeys[b]);
+                }
+            });
+            for (int i = 0; i < mSize; i++) mSortedIds[i] = ids[i];
+            mSortedCount = mSize;
+            return;
+        }
+        while (mSortedCount < mSize) {
+            int id = mSortedIds[mSortedCount];
+            int position = insertionPoint(mKeys[id]);
+            System.arraycopy(mSortedIds, position, mSortedIds, position + 1,
+                    mSortedCount - position);
+            mSortedIds[position] = id;
+            mSortedCount++;
+        }
+    }
+
+    /**
+     * @return The number of distinct URLs.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @param id An entry id, from 0 to {@link #size()} exclusive.
+     */
+    public String getUrl(int id) {
+        return mUrls[id];
+    }
+
+    public int getVisitCount(int id) {
+        return mVisitCounts[id];
+    }
+
+    public long getLastVisitTimeMs(int id) {
+        return mLastVisitTimesMs[id];
+    }
+
+    /**
+     * @return The frecency of an entry: its visit count weighted by the age of its last visit.
+     */
+    long score(int id, long nowMs) {
+        long ageDays = (nowMs - mLastVisitTimesMs[id]) / DAY_MS;
+        int weight = OLD_VISIT_WEIGHT;
+        for (int i = 0; i < RECENCY_BUCKET_DAYS.length; i++) {
+            if (ageDays <= RECENCY_BUCKET_DAYS[i]) {
+                weight = RECENCY_BUCKET_WEIGHTS[i];
+                break;
+            }
+        }
+        return (long) mVisitCounts[id] * weight;
+    }
+
+    /**
+     * @return Whether an entry ranks above the top result at the given position.  Ties go to the
+     *         more recently visited entry.
+     */
+    private boolean ranksAbove(int id, long score, int position) {
+        if (score != mTopScores[position]) return score > mTopScores[position];
+        return mLastVisitTimesMs[id] > mLastVisitTimesMs[mTopIds[position]];
+    }
+
+    /**
+     * @return The URL lowercased and without the parts ignored when matching.
+     */
+    static String matchKey(String url) {
+        int start = matchStart(url);
+        char[] key = new char[url.length() - start];
+        for (int i = 0; i < key.length; i++) key[i] = Character.toLowerCase(url.charAt(start + i));
+        return new String(key);
+    }
+
+    /**
+     * @return The offset of the first character of the text that is matched.
+     */
+    private static int matchStart(CharSequence text) {
+        int start = 0;
+        for (String scheme : STRIPPED_SCHEMES) {
+            if (startsWithIgnoreCase(text, 0, scheme)) {
+                start = scheme.length();
+                break;
+            }
+        }
+        if (startsWithIgnoreCase(text, start, STRIPPED_HOST_PREFIX)) {
+            start += STRIPPED_HOST_PREFIX.length();
+        }
+        return start;
+    }
+
+    private static boolean startsWithIgnoreCase(CharSequence text, int offset, String prefix) {
+        if (text.length() - offset < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase(text.charAt(offset + i)) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compares a match key with the typed text from {@code start}.
+     * @return 0 if the key starts with the text, otherwise the order of the key relative to all
+     *         keys that do.
+     */
+    private static int comparePrefix(String key, CharSequence text, int start) {
+        int length = text.length() - start;
+        for (int i = 0; i < length; i++) {
+            // A key that is a proper prefix of the text sorts before it.
+            if (i == key.length()) return -1;
+            int difference = key.charAt(i) - Character.toLowerCase(text.charAt(start + i));
+            if (difference != 0) return difference;
+        }
+        return 0;
+    }
+
+    /**
+     * @return The first position in the sorted ids whose key starts with or follows the text.
+     */
+    private int lowerBound(CharSequence text, int start) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparePrefix(mKeys[mSortedIds[middle]], text, start) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return The first position in the sorted ids whose key follows all keys starting with the
+     *         text.
+     */
+    private int upperBound(CharSequence text, int start) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (comparePrefix(mKeys[mSortedIds[middle]], text, start) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return The position among the sorted ids at which a new key goes, after any equal keys.
+     */
+    private int insertionPoint(String key) {
+        int low = 0;
+        int high = mSortedCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mKeys[mSortedIds[middle]].compareTo(key) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void grow() {
+        int capacity = mUrls.length * 2;
+        mUrls = Arrays.copyOf(mUrls, capacity);
+        mKeys = Arrays.copyOf(mKeys, capacity);
+        mVisitCounts = Arrays.copyOf(mVisitCounts, capacity);
+        mLastVisitTimesMs = Arrays.copyOf(mLastVisitTimesMs, capacity);
+        mSortedIds = Arrays.copyOf(mSortedIds, capacity);
+    }
+}
@@ -0,0 +1,176 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UTFDataFormatException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The format of the visit log of {@link UrlHistoryStore}: a header followed by one record per
+ * visit or, once compacted, per URL.  Reading keeps the records before a cut short or malformed
+ * one, so that a crash while appending loses at most the last visit.
+ */
+class UrlHistoryLog {
+
+    private static final int MAGIC = 0x55524c48;
+    private static final int VERSION = 1;
+
+    /** The log was read to its end. */
+    static final int COMPLETE = 0;
+    /** The header or the last record was cut short, by a process kill most likely. */
+    static final int TRUNCATED = 1;
+    /** The header or a record is not in the expected format. */
+    static final int CORRUPT = 2;
+
+    /**
+     * What {@link #read} found in a log.
+     */
+    static class ReadResult {
+        /** {@link #COMPLETE}, {@link #TRUNCATED} or {@link #CORRUPT}. */
+        final int mStatus;
+        /** The number of complete records read. */
+        final int mRecordCount;
+        /** The length of the header and the complete records, where appending can resume. */
+        final long mValidLength;
+
+        ReadResult(int status, int recordCount, long validLength) {
+            mStatus = status;
+            mRecordCount = recordCount;
+            mValidLength = validLength;
+        }
+    }
+
+    private UrlHistoryLog() {}
+
+    /**
+     * Adds the records of a log to an index, up to the first incomplete or malformed one.
+     * @throws IOException If reading fails, in which case the index holds the records read.
+     */
+    static ReadResult read(InputStream stream, UrlHistoryIndex index) throws IOException {
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(stream));
+        DataInputStream in = new DataInputStream(counter);
+        int recordCount = 0;
+        long validLength = 0;
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return new ReadResult(CORRUPT, 0, 0);
+            }
+            validLength = counter.mCount;
+            while (true) {
+                // A clean end falls between records.
+                if (counter.isAtEnd()) return new ReadResult(COMPLETE, recordCount, validLength);
+                String url = in.readUTF();
+                int visitCount = in.readInt();
+                long visitTimeMs = in.readLong();
+                index.addVisits(url, visitCount, visitTimeMs);
+                recordCount++;
+                validLength = counter.mCount;
+            }
+        } catch (EOFException e) {
+            return new ReadResult(TRUNCATED, recordCount, validLength);
+        } catch (UTFDataFormatException e) {
+            return new ReadResult(CORRUPT, recordCount, validLength);
+        }
+    }
+
+    static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    static void writeRecord(DataOutputStream out, String url, int visitCount, long visitTimeMs)
+            throws IOException {
+        out.writeUTF(url);
+        out.writeInt(visitCount);
+        out.writeLong(visitTimeMs);
+    }
+
+    /**
+     * Writes a header and one record per URL of the index.
+     */
+    static void writeIndex(DataOutputStream out, UrlHistoryIndex index) throws IOException {
+        writeHeader(out);
+        for (int id = 0; id < index.size(); id++) {
+            writeRecord(out, index.getUrl(id), index.getVisitCount(id),
+                    index.getLastVisitTimeMs(id));
+        }
+    }
+
+    /**
+     * @return The index itself if it has at most the given number of URLs, otherwise a new one
+     *         with the most recently visited of them.
+     */
+    static UrlHistoryIndex keepMostRecent(final UrlHistoryIndex index, int maxUrls) {
+        if (index.size() <= maxUrls) return index;
+        Integer[] ids = new Integer[index.size()];
+        for (int id = 0; id < ids.length; id++) ids[id] = id;
+        Arrays.sort(ids, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long timeA = index.getLastVisitTimeMs(a);
+                long timeB = index.getLastVisitTimeMs(b);
+                return timeA > timeB ? -1 : (timeA < timeB ? 1 : 0);
+            }
+        });
+        UrlHistoryIndex pruned = new UrlHistoryIndex();
+        for (int i = 0; i < maxUrls; i++) {
+            int id = ids[i];
+            pruned.addVisits(index.getUrl(id), index.getVisitCount(id),
+                    index.getLastVisitTimeMs(id));
+        }
+        return pruned;
+    }
+
+    /**
+     * Counts the bytes read, to find where the last complete record ends.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long mCount;
+
+        // Needs a stream supporting mark().
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        /**
+         * @return Whether there is nothing left to read, without consuming anything.
+         */
+        boolean isAtEnd() throws IOException {
+            in.mark(1);
+            if (in.read() < 0) return true;
+            in.reset();
+            return false;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) mCount++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) mCount += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
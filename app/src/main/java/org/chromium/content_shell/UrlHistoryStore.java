@@ -0,0 +1,247 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import org.chromium.base.StreamUtil;
+import org.chromium.base.ThreadUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Persists the URLs visited in all shells and answers URL bar prefix queries from a
+ * {@link UrlHistoryIndex}.
+ *
+ * Visits are appended to a log file, one record each, so recording one never rewrites the file.
+ * The log is replayed into the index on a background thread when {@link #loadAsync()} is first
+ * called, and compacted to one record per URL at that point once it has grown to more than twice
+ * that.  A record cut short is truncated away; a malformed one moves the log aside, to a file
+ * named after it with a ".corrupt" suffix, and the records before it are kept.  The index keeps
+ * the {@link #MAX_URLS} most recently visited URLs, which bounds its memory, and the log is
+ * compacted during a session too once it reaches {@link #MAX_RECORDS}.  File access is
+ * serialized on {@link AsyncTask#SERIAL_EXECUTOR}.  See {@link UrlHistoryLog} for the format.
+ */
+public class UrlHistoryStore {
+
+    private static final String TAG = "UrlHistoryStore";
+
+    private static final int MIN_RECORDS_TO_COMPACT = 1000;
+    // The index keeps every URL in memory, at around 300 bytes each: 100k URLs take 26-39MB on
+    // a JVM, too large a share of a low-end device's heap.  This many takes around 6MB.  Queries
+    // stay fast well beyond it; UrlHistoryIndexBenchmark measures them at 100k URLs.
+    static final int MAX_URLS = 20000;
+    // Around 6MB of log with typical URLs.
+    static final int MAX_RECORDS = 4 * MAX_URLS;
+    // Longer URLs are not worth suggesting, and do not fit a record.
+    private static final int MAX_URL_LENGTH = 2048;
+
+    private final AtomicFile mFile;
+    // Null until loaded.  Updated on the serial executor and queried on any thread, guarded by
+    // itself.
+    private volatile UrlHistoryIndex mIndex;
+    // Accessed on the serial executor only.
+    private int mRecordCount;
+    private volatile long mLoadDurationMs = -1;
+
+    // Accessed on the UI thread only.
+    private boolean mLoadStarted;
+    private String mLastRecordedUrl;
+
+    public UrlHistoryStore(File file) {
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Starts loading the history on a background thread, if that has not been done yet.  Queries
+     * return no results until it has finished.
+     */
+    public void loadAsync() {
+        ThreadUtils.assertOnUiThread();
+        if (mLoadStarted) return;
+        mLoadStarted = true;
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * Records a visit to a URL shown by a shell.  Repeated updates to the same URL count once,
+     * and only http and https URLs of reasonable length are recorded.
+     */
+    public void recordVisit(final String url) {
+        ThreadUtils.assertOnUiThread();
+        if (url == null || url.length() > MAX_URL_LENGTH || url.equals(mLastRecordedUrl)) return;
+        if (!url.startsWith("http://") && !url.startsWith("https://")) return;
+        mLastRecordedUrl = url;
+        final long visitTimeMs = System.currentTimeMillis();
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                append(url, visitTimeMs);
+                // A load still to come replays the record instead.
+                UrlHistoryIndex index = mIndex;
+                if (index == null) return;
+                synchronized (index) {
+                    index.addVisits(url, 1, visitTimeMs);
+                }
+                if (mRecordCount >= MAX_RECORDS) {
+                    UrlHistoryIndex capped;
+                    synchronized (index) {
+                        capped = UrlHistoryLog.keepMostRecent(index, MAX_URLS);
+                    }
+                    compact(capped);
+                    if (capped != index) {
+                        capped.sort();
+                        mIndex = capped;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Finds the visited URLs matching text typed into the URL bar, best first.  Does not allocate.
+     * @param results Receives the matches; its length is the maximum number of them.
+     * @return The number of results written.
+     */
+    public int query(CharSequence text, String[] results) {
+        UrlHistoryIndex index = mIndex;
+        if (index == null) return 0;
+        synchronized (index) {
+            return index.query(text, System.currentTimeMillis(), results);
+        }
+    }
+
+    /**
+     * @return Whether the history has been loaded.
+     */
+    public boolean isLoaded() {
+        return mIndex != null;
+    }
+
+    /**
+     * @return How long loading the history took, or -1 if it has not been loaded.
+     */
+    public long getLoadDurationMs() {
+        return mLoadDurationMs;
+    }
+
+    private void load() {
+        long startMs = SystemClock.elapsedRealtime();
+        UrlHistoryIndex index = new UrlHistoryIndex();
+        UrlHistoryLog.ReadResult result = null;
+        FileInputStream stream = null;
+        try {
+            stream = mFile.openRead();
+            result = UrlHistoryLog.read(stream, index);
+        } catch (FileNotFoundException e) {
+            // No history yet.
+        } catch (IOException e) {
+            // The log may well be intact; keep it and the records read.
+            Log.w(TAG, "Failed to read the history past " + index.size() + " URLs", e);
+        } finally {
+            StreamUtil.closeQuietly(stream);
+        }
+        mRecordCount = result != null ? result.mRecordCount : index.size();
+        boolean rewrite = false;
+        if (result != null && result.mStatus == UrlHistoryLog.TRUNCATED) {
+            // Records appended after the partial one would be misread.
+            truncate(result.mValidLength);
+        } else if (result != null && result.mStatus == UrlHistoryLog.CORRUPT) {
+            Log.w(TAG, "History is malformed after " + result.mRecordCount + " records");
+            moveAside();
+            // Writes the records read to a new log.
+            rewrite = true;
+        }
+        UrlHistoryIndex capped = UrlHistoryLog.keepMostRecent(index, MAX_URLS);
+        if (rewrite || capped != index
+                || mRecordCount > Math.max(MIN_RECORDS_TO_COMPACT, 2 * index.size())) {
+            compact(capped);
+            index = capped;
+        }
+        // Keeps the first query from having to.
+        index.sort();
+        mIndex = index;
+        mLoadDurationMs = SystemClock.elapsedRealtime() - startMs;
+        Log.i(TAG, "Loaded " + index.size() + " URLs from " + mRecordCount + " records in "
+                + mLoadDurationMs + "ms");
+    }
+
+    /**
+     * Rewrites the log with one record per URL.
+     */
+    private void compact(UrlHistoryIndex index) {
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            UrlHistoryLog.writeIndex(out, index);
+            out.flush();
+            mFile.finishWrite(stream);
+            mRecordCount = index.size();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to compact history", e);
+            if (stream != null) mFile.failWrite(stream);
+        }
+    }
+
+    /**
+     * Cuts the log to the given length, dropping a partial last record.
+     */
+    private void truncate(long length) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile.getBaseFile(), "rw");
+            file.setLength(length);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to truncate history", e);
+        } finally {
+            StreamUtil.closeQuietly(file);
+        }
+    }
+
+    /**
+     * Keeps a malformed log for inspection, replacing an earlier one, so that compacting does not
+     * lose what could not be read.
+     */
+    private void moveAside() {
+        File file = mFile.getBaseFile();
+        File corruptFile = new File(file.getPath() + ".corrupt");
+        corruptFile.delete();
+        if (!file.renameTo(corruptFile)) Log.e(TAG, "Failed to move aside " + file);
+    }
+
+    private void append(String url, long visitTimeMs) {
+        File file = mFile.getBaseFile();
+        DataOutputStream out = null;
+        try {
+            boolean empty = !file.exists() || file.length() == 0;
+            out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file, true)));
+            if (empty) UrlHistoryLog.writeHeader(out);
+            UrlHistoryLog.writeRecord(out, url, 1, visitTimeMs);
+            out.flush();
+            mRecordCount++;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to record a visit", e);
+        } finally {
+            StreamUtil.closeQuietly(out);
+        }
+    }
+}
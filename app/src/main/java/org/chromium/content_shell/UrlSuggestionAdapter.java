@@ -0,0 +1,99 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.TextView;
+
+/**
+ * Suggests visited URLs from a {@link UrlHistoryStore} in the drop down of the URL bar.
+ */
+class UrlSuggestionAdapter extends BaseAdapter implements Filterable {
+
+    static final int MAX_SUGGESTIONS = 5;
+
+    private final LayoutInflater mInflater;
+    private final UrlHistoryStore mStore;
+    private final String[] mSuggestions = new String[MAX_SUGGESTIONS];
+    private int mCount;
+
+    private final Filter mFilter = new Filter() {
+        // Filtering runs on a single worker thread and queries into mQueryMatches, then hands the
+        // matches over in mMatches, from which the UI thread copies them into mSuggestions.  Only
+        // the FilterResults the framework requires are allocated per keystroke.
+        private final String[] mQueryMatches = new String[MAX_SUGGESTIONS];
+        // Guarded by mMatches.
+        private final String[] mMatches = new String[MAX_SUGGESTIONS];
+        private int mMatchCount;
+
+        @Override
+        protected FilterResults performFiltering(CharSequence constraint) {
+            int count = constraint != null ? mStore.query(constraint, mQueryMatches) : 0;
+            synchronized (mMatches) {
+                System.arraycopy(mQueryMatches, 0, mMatches, 0, count);
+                mMatchCount = count;
+            }
+            FilterResults results = new FilterResults();
+            results.count = count;
+            return results;
+        }
+
+        @Override
+        protected void publishResults(CharSequence constraint, FilterResults results) {
+            // Filtering may have moved on to a later constraint; its matches are shown early.
+            synchronized (mMatches) {
+                mCount = mMatchCount;
+                System.arraycopy(mMatches, 0, mSuggestions, 0, mCount);
+            }
+            if (mCount == 0) {
+                notifyDataSetInvalidated();
+                return;
+            }
+            notifyDataSetChanged();
+        }
+    };
+
+    UrlSuggestionAdapter(Context context, UrlHistoryStore store) {
+        mInflater = LayoutInflater.from(context);
+        mStore = store;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String getItem(int position) {
+        return mSuggestions[position];
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView view = (TextView) convertView;
+        if (view == null) {
+            view = (TextView) mInflater.inflate(
+                    android.R.layout.simple_dropdown_item_1line, parent, false);
+        }
+        view.setText(mSuggestions[position]);
+        return view;
+    }
+
+    @Override
+    public Filter getFilter() {
+        return mFilter;
+    }
+}
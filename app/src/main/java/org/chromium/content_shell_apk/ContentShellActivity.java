@@ -5,13 +5,9 @@
 package org.chromium.content_shell_apk;
 
 import android.app.Activity;
-import android.content.ComponentName;
 import android.content.Intent;
-import android.content.ServiceConnection;
+import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.IBinder;
-import android.os.Process;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.KeyEvent;
@@ -19,9 +15,9 @@ import android.widget.Toast;
 
 import org.chromium.base.BaseSwitches;
 import org.chromium.base.CommandLine;
+import org.chromium.base.MemoryPressureLevel;
 import org.chromium.base.MemoryPressureListener;
 import org.chromium.base.annotations.SuppressFBWarnings;
-import org.chromium.base.library_loader.LibraryLoader;
 import org.chromium.base.library_loader.LibraryProcessType;
 import org.chromium.base.library_loader.ProcessInitException;
 import org.chromium.content.app.ContentApplication;
@@ -30,10 +26,20 @@ import org.chromium.content.browser.ContentViewCore;
 import org.chromium.content.browser.DeviceUtils;
 import org.chromium.content.common.ContentSwitches;
 import org.chromium.content_public.browser.WebContents;
+import org.chromium.content_shell.RendererProcessPolicy;
+import org.chromium.content_shell.SessionStore;
 import org.chromium.content_shell.Shell;
+import org.chromium.content_shell.ShellLayoutTestUtils;
 import org.chromium.content_shell.ShellManager;
+import org.chromium.content_shell.ShellMojoBenchmark;
+import org.chromium.content_shell.ShellSessionState;
+import org.chromium.content_shell.StartupTracer;
+import org.chromium.content_shell.UrlHistoryStore;
 import org.chromium.ui.base.ActivityWindowAndroid;
 
+import java.io.File;
+import java.util.concurrent.Callable;
+
 /**
  * Activity for managing the Content Shell.
  */
@@ -43,14 +49,37 @@ public class ContentShellActivity extends Activity {
 
     private static final String ACTIVE_SHELL_URL_KEY = "activeUrl";
     public static final String COMMAND_LINE_ARGS_KEY = "commandLineArgs";
+    public static final String ACTION_DUMP_STARTUP_TRACE =
+            "org.chromium.content_shell.action.DUMP_STARTUP_TRACE";
+    private static final String STARTUP_TRACE_FILE = "startup_trace.json";
+    public static final String ACTION_DUMP_NAVIGATION_METRICS =
+            "org.chromium.content_shell.action.DUMP_NAVIGATION_METRICS";
+    private static final String NAVIGATION_METRICS_FILE = "navigation_metrics.json";
+    private static final String SESSION_FILE = "shell_session.bin";
+    private static final String URL_HISTORY_FILE = "url_history.log";
+    public static final String ACTION_RUN_WORKSPOT_IPC_BENCHMARK =
+            "org.chromium.content_shell.action.RUN_WORKSPOT_IPC_BENCHMARK";
+    public static final String ACTION_REPORT_MEMORY_FOOTPRINT =
+            "org.chromium.content_shell.action.REPORT_MEMORY_FOOTPRINT";
+    public static final String ACTION_RUN_MOJO_BENCHMARK =
+            "org.chromium.content_shell.action.RUN_MOJO_BENCHMARK";
+    private static final String MOJO_BENCHMARK_FILE = "mojo_benchmark.json";
+
+    // Watches the UI thread for the life of the process, across activity instances.
+    private static UiThreadWatchdog sUiThreadWatchdog;
 
     private ShellManager mShellManager;
     private ActivityWindowAndroid mWindowAndroid;
     private Intent mLastSentIntent;
+    private StartupPipeline mStartupPipeline;
+    private SessionStore mSessionStore;
+    // Non-null when the activity runs the page-load benchmark instead of showing a page.
+    private PageLoadBenchmarkRunner mPageLoadBenchmarkRunner;
 
     @Override
     @SuppressFBWarnings("DM_EXIT")
     protected void onCreate(final Bundle savedInstanceState) {
+        StartupTracer.mark(StartupTracer.ACTIVITY_ON_CREATE);
         super.onCreate(savedInstanceState);
 
         // Initializing the command line must occur before loading the library.
@@ -58,20 +87,47 @@ public class ContentShellActivity extends Activity {
             ContentApplication.initCommandLine(this);
             String[] commandLineParams = getCommandLineParamsFromIntent(getIntent());
             if (commandLineParams != null) {
-                CommandLine.getInstance().appendSwitchesAndArguments(commandLineParams);
+                PrefetchedCommandLine.appendSwitchesAndArguments(commandLineParams);
             }
         }
-        waitForDebuggerIfNeeded();
-
-        Intent workspotServiceIntent = new Intent(ContentShellApplication.context,
-                WorkspotService.class);
-        bindService(workspotServiceIntent, workspotServiceConnection,
-                BIND_AUTO_CREATE);
+        PrefetchedCommandLine switches = PrefetchedCommandLine.get();
+        waitForDebuggerIfNeeded(switches);
+        if (switches.hasSwitch(ContentShellSwitches.DUMP_STARTUP_TRACE)) {
+            StartupTracer.setAutoDumpFile(getStartupTraceFile());
+        }
+        if (sUiThreadWatchdog == null
+                && switches.hasSwitch(ContentShellSwitches.UI_THREAD_WATCHDOG)) {
+            sUiThreadWatchdog = UiThreadWatchdog.start(
+                    new File(getFilesDir(), UiThreadWatchdog.REPORT_DIRECTORY),
+                    UiThreadWatchdog.parseThresholdMs(
+                            switches.getSwitchValue(ContentShellSwitches.UI_THREAD_WATCHDOG)));
+        }
 
         DeviceUtils.addDeviceSpecificUserAgentSwitch(this);
+        RendererProcessPolicy.applyProcessLimit(this);
+        mStartupPipeline = new StartupPipeline();
+        mStartupPipeline.markPhase("commandLine");
+        // The library loads in the background while the service binds and the layout inflates;
+        // none of them depend on each other.
+        mStartupPipeline.startNativeLibraryLoad(this);
+        mSessionStore = new SessionStore(new File(getFilesDir(), SESSION_FILE));
+        // Only a recreated activity restores its tabs; read them while the library loads.
+        if (savedInstanceState != null) mSessionStore.startRead();
+
+        if (!switches.hasSwitch(ContentShellSwitches.LAZY_WORKSPOT_SERVICE)) {
+            ContentShellApplication.getWorkspotServiceClient().connect();
+            mStartupPipeline.markPhase("bindService");
+        }
+
+        setContentView(R.layout.content_shell_activity);
+        mShellManager = (ShellManager) findViewById(R.id.shell_container);
+        final boolean listenToActivityState = true;
+        mWindowAndroid = new ActivityWindowAndroid(this, listenToActivityState);
+        mWindowAndroid.restoreInstanceState(savedInstanceState);
+        mStartupPipeline.markPhase("inflate");
+
         try {
-            LibraryLoader.get(LibraryProcessType.PROCESS_BROWSER)
-                    .ensureInitialized(getApplicationContext());
+            mStartupPipeline.awaitNativeLibrary();
         } catch (ProcessInitException e) {
             Log.e(TAG, "ContentView initialization failed.", e);
             // Since the library failed to initialize nothing in the application
@@ -79,24 +135,29 @@ public class ContentShellActivity extends Activity {
             System.exit(-1);
             return;
         }
+        StartupTracer.mark(StartupTracer.NATIVE_LIBRARY_LOADED);
 
-        setContentView(R.layout.content_shell_activity);
-        mShellManager = (ShellManager) findViewById(R.id.shell_container);
-        final boolean listenToActivityState = true;
-        mWindowAndroid = new ActivityWindowAndroid(this, listenToActivityState);
-        mWindowAndroid.restoreInstanceState(savedInstanceState);
-        mShellManager.setWindow(mWindowAndroid);
+        if (switches.hasSwitch(ContentShellSwitches.RUN_PAGE_LOAD_BENCHMARK)) {
+            mPageLoadBenchmarkRunner = createPageLoadBenchmarkRunner(switches);
+        }
+        // The benchmark launches its own shells; the startup URL would interrupt the first.
+        mShellManager.setWindow(mWindowAndroid, mPageLoadBenchmarkRunner == null);
         // Set up the animation placeholder to be the SurfaceView. This disables the
         // SurfaceView's 'hole' clipping during animations that are notified to the window.
         mWindowAndroid.setAnimationPlaceholderView(
                 mShellManager.getContentViewRenderView().getSurfaceView());
+        mStartupPipeline.markPhase("setWindow");
+
+        mShellManager.setUrlPrerenderingEnabled(
+                switches.hasSwitch(ContentShellSwitches.ENABLE_URL_PRERENDER));
 
         String startupUrl = getUrlFromIntent(getIntent());
         if (!TextUtils.isEmpty(startupUrl)) {
             mShellManager.setStartupUrl(Shell.sanitizeUrl(startupUrl));
         }
 
-        if (CommandLine.getInstance().hasSwitch(ContentSwitches.RUN_LAYOUT_TEST)) {
+        if (switches.hasSwitch(ContentSwitches.RUN_LAYOUT_TEST)) {
+            startLayoutTestShard(switches);
             try {
                 BrowserStartupController.get(this, LibraryProcessType.PROCESS_BROWSER)
                         .startBrowserProcessesSync(false);
@@ -104,6 +165,9 @@ public class ContentShellActivity extends Activity {
                 Log.e(TAG, "Failed to load native library.", e);
                 System.exit(-1);
             }
+            StartupTracer.mark(StartupTracer.BROWSER_PROCESS_STARTED);
+            mStartupPipeline.markPhase("startBrowserProcesses");
+            mStartupPipeline.logTimings();
         } else {
             try {
                 BrowserStartupController.get(this, LibraryProcessType.PROCESS_BROWSER)
@@ -123,10 +187,29 @@ public class ContentShellActivity extends Activity {
                 Log.e(TAG, "Unable to load native library.", e);
                 System.exit(-1);
             }
+            mStartupPipeline.markPhase("startBrowserProcessesAsync");
+            // Benchmark loads are neither restored nor suggested later.
+            if (mPageLoadBenchmarkRunner == null) {
+                mShellManager.setSessionStore(mSessionStore);
+                mShellManager.setUrlHistoryStore(
+                        new UrlHistoryStore(new File(getFilesDir(), URL_HISTORY_FILE)));
+            }
         }
     }
 
     private void finishInitialization(Bundle savedInstanceState) {
+        StartupTracer.mark(StartupTracer.BROWSER_PROCESS_STARTED);
+        mStartupPipeline.markPhase("browserProcessesStarted");
+        mStartupPipeline.logTimings();
+        verifyMappedAssets();
+        if (mPageLoadBenchmarkRunner != null) {
+            mPageLoadBenchmarkRunner.start();
+            return;
+        }
+        if (savedInstanceState != null) {
+            ShellSessionState session = mSessionStore.awaitRead();
+            if (session != null && mShellManager.restoreSession(session)) return;
+        }
         String shellUrl = ShellManager.DEFAULT_SHELL_URL;
         if (savedInstanceState != null
                 && savedInstanceState.containsKey(ACTIVE_SHELL_URL_KEY)) {
@@ -135,6 +218,20 @@ public class ContentShellActivity extends Activity {
         mShellManager.launchShell(shellUrl);
     }
 
+    /**
+     * Checks the mapped assets on a {@link WorkspotService} worker once startup is done.  With
+     * --lazy-workspot-service this is the request that starts the service.
+     */
+    private void verifyMappedAssets() {
+        ContentShellApplication.getWorkspotServiceClient().invoke(WorkspotRequest.fromCallable(
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return new MappedAssetVerifier(getAssets()).verifyMappedAssets();
+                    }
+                }, WorkspotRequest.Priority.BACKGROUND));
+    }
+
     private void initializationFailed() {
         Log.e(TAG, "ContentView initialization failed.");
         Toast.makeText(ContentShellActivity.this,
@@ -154,8 +251,69 @@ public class ContentShellActivity extends Activity {
         mWindowAndroid.saveInstanceState(outState);
     }
 
-    private void waitForDebuggerIfNeeded() {
-        if (CommandLine.getInstance().hasSwitch(BaseSwitches.WAIT_FOR_JAVA_DEBUGGER)) {
+    private PageLoadBenchmarkRunner createPageLoadBenchmarkRunner(
+            PrefetchedCommandLine switches) {
+        String urlList = switches.getSwitchValue(ContentShellSwitches.RUN_PAGE_LOAD_BENCHMARK);
+        if (TextUtils.isEmpty(urlList)) {
+            Log.e(TAG, "--" + ContentShellSwitches.RUN_PAGE_LOAD_BENCHMARK
+                    + " needs the path of a URL list file");
+            return null;
+        }
+        return PageLoadBenchmarkRunner.create(mShellManager, new File(urlList),
+                switches.getSwitchValue(ContentShellSwitches.PAGE_LOAD_BENCHMARK_ITERATIONS),
+                getFilesDir(), new Runnable() {
+                    @Override
+                    public void run() {
+                        finish();
+                    }
+                });
+    }
+
+    /**
+     * Sets up the shard of a sharded layout test run, and starts running the tests of a test
+     * list if one is given.  content_shell opens its FIFOs while the browser process starts.
+     */
+    private void startLayoutTestShard(PrefetchedCommandLine switches) {
+        String testList = switches.getSwitchValue(ContentShellSwitches.LAYOUT_TEST_LIST);
+        if (testList == null && !switches.hasSwitch(ContentShellSwitches.LAYOUT_TEST_SHARD_INDEX)) {
+            return;
+        }
+        LayoutTestShardRunner runner = LayoutTestShardRunner.create(getFilesDir(),
+                switches.getSwitchValue(ContentShellSwitches.LAYOUT_TEST_SHARD_INDEX),
+                switches.getSwitchValue(ContentShellSwitches.LAYOUT_TEST_TOTAL_SHARDS));
+        if (runner == null) return;
+        ShellLayoutTestUtils.setTestFilesDirectory(runner.getShardDirectory());
+        if (testList != null) runner.start(new File(testList));
+    }
+
+    private void runMojoBenchmark() {
+        final File reportFile = new File(getFilesDir(), MOJO_BENCHMARK_FILE);
+        // Mojo needs the native library, and the benchmark a thread without a message loop.
+        BrowserStartupController.get(this, LibraryProcessType.PROCESS_BROWSER)
+                .addStartupCompletedObserver(new BrowserStartupController.StartupCallback() {
+                    @Override
+                    public void onSuccess(boolean alreadyStarted) {
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                ShellMojoBenchmark.run(reportFile);
+                            }
+                        }, "ShellMojoBenchmark").start();
+                    }
+
+                    @Override
+                    public void onFailure() {
+                        Log.e(TAG, "Browser process failed to start; not running Mojo benchmark");
+                    }
+                });
+    }
+
+    private File getStartupTraceFile() {
+        return new File(getFilesDir(), STARTUP_TRACE_FILE);
+    }
+
+    private void waitForDebuggerIfNeeded(PrefetchedCommandLine switches) {
+        if (switches.hasSwitch(BaseSwitches.WAIT_FOR_JAVA_DEBUGGER)) {
             Log.e(TAG, "Waiting for Java debugger to connect...");
             android.os.Debug.waitForDebugger();
             Log.e(TAG, "Java debugger connected. Resuming execution.");
@@ -165,10 +323,11 @@ public class ContentShellActivity extends Activity {
     @Override
     public boolean onKeyUp(int keyCode, KeyEvent event) {
         if (keyCode == KeyEvent.KEYCODE_BACK) {
+            Shell activeShell = getActiveShell();
             ContentViewCore contentViewCore = getActiveContentViewCore();
-            if (contentViewCore != null && contentViewCore.getWebContents()
+            if (activeShell != null && contentViewCore != null && contentViewCore.getWebContents()
                     .getNavigationController().canGoBack()) {
-                contentViewCore.getWebContents().getNavigationController().goBack();
+                activeShell.goBack();
                 return true;
             }
         }
@@ -176,6 +335,20 @@ public class ContentShellActivity extends Activity {
         return super.onKeyUp(keyCode, event);
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (mShellManager != null) {
+            mShellManager.onMemoryPressure(MemoryPressureLevels.fromTrimLevel(level));
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        if (mShellManager != null) mShellManager.onMemoryPressure(MemoryPressureLevel.CRITICAL);
+    }
+
     @Override
     protected void onNewIntent(Intent intent) {
         if (getCommandLineParamsFromIntent(intent) != null) {
@@ -183,6 +356,39 @@ public class ContentShellActivity extends Activity {
         }
 
         if (MemoryPressureListener.handleDebugIntent(this, intent.getAction())) return;
+        if (ACTION_DUMP_STARTUP_TRACE.equals(intent.getAction())) {
+            StartupTracer.writeTraceAsync(getStartupTraceFile());
+            return;
+        }
+        if (ACTION_DUMP_NAVIGATION_METRICS.equals(intent.getAction())) {
+            if (mShellManager != null) {
+                mShellManager.getNavigationMetricsAggregator().writeDumpAsync(
+                        new File(getFilesDir(), NAVIGATION_METRICS_FILE));
+            }
+            return;
+        }
+        if (ACTION_RUN_WORKSPOT_IPC_BENCHMARK.equals(intent.getAction())) {
+            // Writes WorkspotIpcBenchmarkService.REPORT_FILE from its own process.  Hands it the
+            // binder the way an isolated process gets it.
+            WorkspotRemoteClient.startServiceWithBinder(
+                    this, new Intent(this, WorkspotIpcBenchmarkService.class));
+            return;
+        }
+        if (ACTION_REPORT_MEMORY_FOOTPRINT.equals(intent.getAction())) {
+            if (mShellManager != null) mShellManager.getRendererProcessPolicy().logStats();
+            final MemoryFootprintReporter reporter = new MemoryFootprintReporter(this);
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    reporter.writeReport();
+                }
+            });
+            return;
+        }
+        if (ACTION_RUN_MOJO_BENCHMARK.equals(intent.getAction())) {
+            runMojoBenchmark();
+            return;
+        }
 
         String url = getUrlFromIntent(intent);
         if (!TextUtils.isEmpty(url)) {
@@ -193,81 +399,19 @@ public class ContentShellActivity extends Activity {
         }
     }
 
-    private final ServiceConnection workspotServiceConnection = new ServiceConnection() {
-
-        public void onServiceConnected(ComponentName className, IBinder service) {
-
-            Log.e(TAG, " onServiceConnected called");
-
-            if (service instanceof WorkspotService.WorkspotServiceBinder) {
-                WorkspotService.WorkspotServiceBinder binder = (WorkspotService.WorkspotServiceBinder) service;
-                ((ContentShellApplication)getApplication()).workspotService = binder.getService();
-//                isWorkspotServiceCurrentlyBound.set(true);
-            } else {
-                // If we did not receive a WorkspotServiceBinder, it is because
-                // we are invoked as a remote process, and we are pre-JB (so not
-                // running as an isolated process). Simulate that now:
-//                IS_APPLICATION_RUNNING_AS_ISOLATED_PROCESS.set(true);
-
-                // Redundant, but making it crystal clear what state the service
-                // is in:
-                ((ContentShellApplication)getApplication()).workspotService = null;
-//                isWorkspotServiceCurrentlyBound.set(false);
-
-                // Attempt to stop the service; any exception is treated as
-                // benign, since the whole point is to stop a service that we
-                // never refer to beyond this point. Note that we do NOT use
-                // WSLog, since it should not actually be accessible at this
-                // point (since we're simulating an isolated process).
-                try {
-                    Handler mainLooper = new Handler(ContentShellApplication.context.getMainLooper());
-                    Runnable runnable = new Runnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                Intent workspotServiceIntent = new Intent(
-                                        ContentShellApplication.context, WorkspotService.class);
-                                stopService(workspotServiceIntent);
-                            } catch (Exception ex) {
-                                Log.d(TAG,
-                                        "Caught and will not rethrow exception while stopping workspot service",
-                                        ex);
-                            }
-                        }
-                    };
-                    mainLooper.post(runnable);
-                } catch (Exception ex) {
-                    Log.d(TAG,
-                            "Caught and will not rethrow exception while posting runnable to stop workspot service",
-                            ex);
-                }
-            }
-        }
-
-        public void onServiceDisconnected(ComponentName className) {
-            Log.e(TAG, " onServiceDisconnected called");
-//            isWorkspotServiceCurrentlyBound.set(false);
-
-//            //TODO cgoru stopping the service when it is unbound.
-//            stopService(new Intent(
-//                    context, WorkspotService.class));
-        }
-    };
-
     @Override
     protected void onDestroy() {
         super.onDestroy();
 
         Log.e(TAG, " onDestroy called with application context JAI SRIRAM!");
         ((ContentShellApplication)getApplication()).cleanup();
-        if (workspotServiceConnection != null) {
-            Log.e(TAG, "cleanup inside if " + Process.myPid());
-            unbindService(workspotServiceConnection);
-        }
+    }
 
-        Intent workspotServiceIntent = new Intent(ContentShellApplication.context,
-                WorkspotService.class);
-        stopService(workspotServiceIntent);
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // The process may be killed without further notice once the activity is in the background.
+        if (mShellManager != null) mShellManager.saveSession();
     }
 
     @Override
@@ -16,9 +16,14 @@ import android.util.Log;
 
 import org.chromium.base.CommandLine;
 import org.chromium.base.PathUtils;
+import org.chromium.base.StreamUtil;
 import org.chromium.base.annotations.SuppressFBWarnings;
 import org.chromium.content.app.ContentApplication;
+import org.chromium.content.browser.ObservingBindingManager;
+import org.chromium.content_shell.StartupTracer;
 
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -33,12 +38,50 @@ public class ContentShellApplication extends ContentApplication {
     private static final String PRIVATE_DATA_DIRECTORY_SUFFIX = "content_shell";
 
     public static Context context;
-    public static WorkspotService workspotService = null;
+    private static WorkspotServiceClient sWorkspotServiceClient;
     private static AtomicBoolean IS_APPLICATION_RUNNING_AS_ISOLATED_PROCESS = new AtomicBoolean(
             false);
 
+    @Override
+    protected void attachBaseContext(Context base) {
+        super.attachBaseContext(base);
+        // Child processes get their command line from the browser process.
+        if (!isBrowserProcess(base)) return;
+        // The file is only parsed once the activity asks for it; start reading it now.
+        PrefetchedCommandLine.startPrefetch(COMMAND_LINE_FILE);
+    }
+
+    /**
+     * @return Whether this is the browser process rather than a sandboxed or service process, or
+     *         true if that cannot be told.  Reads the process name from /proc, which needs no
+     *         binder call and also works in isolated processes.
+     */
+    private static boolean isBrowserProcess(Context context) {
+        byte[] buffer = new byte[256];
+        int length = 0;
+        FileInputStream stream = null;
+        try {
+            stream = new FileInputStream("/proc/self/cmdline");
+            int read;
+            while (length < buffer.length
+                    && (read = stream.read(buffer, length, buffer.length - length)) > 0) {
+                length += read;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read the process name", e);
+            return true;
+        } finally {
+            StreamUtil.closeQuietly(stream);
+        }
+        // The name is terminated by a NUL, followed by the arguments if any.
+        int end = 0;
+        while (end < length && buffer[end] != 0) end++;
+        return new String(buffer, 0, end).equals(context.getPackageName());
+    }
+
     @Override
     public void onCreate() {
+        StartupTracer.mark(StartupTracer.APPLICATION_ON_CREATE);
         super.onCreate();
         context = getApplicationContext();
 
@@ -52,15 +95,22 @@ public class ContentShellApplication extends ContentApplication {
             Log.d(TAG, "Running as isolated process");
             IS_APPLICATION_RUNNING_AS_ISOLATED_PROCESS.set(true);
         }
+        // The launcher keeps its bindings in the binding manager, so it is installed once per
+        // process rather than by each activity.
+        if (runningAsFullApplication && isBrowserProcess(this)) ObservingBindingManager.install();
+        // WorkspotService is started by the activity during startup, or with
+        // --lazy-workspot-service by the first request sent through getWorkspotServiceClient().
+    }
 
-        if (IS_APPLICATION_RUNNING_AS_ISOLATED_PROCESS.get() == false) {
-            // start the Workspot service and initiate its async binding
-            Intent workspotServiceIntent = new Intent(context,
-                    WorkspotService.class);
-            startService(workspotServiceIntent);
-//            bindService(workspotServiceIntent, workspotServiceConnection,
-//                    BIND_AUTO_CREATE);
+    /**
+     * @return The client to send {@link WorkspotService} requests through.  Must be called on the
+     *         main thread after the application is created.
+     */
+    public static WorkspotServiceClient getWorkspotServiceClient() {
+        if (sWorkspotServiceClient == null) {
+            sWorkspotServiceClient = new WorkspotServiceClient(context);
         }
+        return sWorkspotServiceClient;
     }
 
     private boolean hasPermission(final String permission)
@@ -78,7 +128,7 @@ public class ContentShellApplication extends ContentApplication {
     @Override
     public void initCommandLine() {
         if (!CommandLine.isInitialized()) {
-            CommandLine.initFromFile(COMMAND_LINE_FILE);
+            CommandLine.init(PrefetchedCommandLine.get().getArgs());
         }
     }
 
@@ -88,10 +138,10 @@ public class ContentShellApplication extends ContentApplication {
 //            Log.e(TAG, "cleanup inside if " + Process.myPid());
 //            unbindService(workspotServiceConnection);
 //        }
+        if (sWorkspotServiceClient != null) sWorkspotServiceClient.disconnect();
         Intent workspotServiceIntent = new Intent(this,
                 WorkspotService.class);
         stopService(workspotServiceIntent);
-        workspotService = null;
     }
 
 }
@@ -0,0 +1,43 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+/**
+ * Contains all of the command line switches that are specific to the content_shell
+ * portion of Chromium on Android.
+ */
+public abstract class ContentShellSwitches {
+    // Start loading the URL typed into the URL bar in a hidden shell before it is committed.
+    public static final String ENABLE_URL_PRERENDER = "enable-url-prerender";
+
+    // Write the startup trace to the app's files directory once the first page has loaded.
+    public static final String DUMP_STARTUP_TRACE = "dump-startup-trace";
+
+    // Start and bind WorkspotService on its first request rather than during startup.
+    public static final String LAZY_WORKSPOT_SERVICE = "lazy-workspot-service";
+
+    // Load every URL listed in the given file and write their timings to the app's files
+    // directory instead of showing the start page.
+    public static final String RUN_PAGE_LOAD_BENCHMARK = "run-page-load-benchmark";
+
+    // How many times the page-load benchmark loads each URL, cold and warm.
+    public static final String PAGE_LOAD_BENCHMARK_ITERATIONS = "page-load-benchmark-iterations";
+
+    // With --run-layout-test, run the tests listed in the given file instead of those a host
+    // writes to the stdin FIFO, keeping the results in the app's files directory.
+    public static final String LAYOUT_TEST_LIST = "layout-test-list";
+
+    // Which of --layout-test-total-shards parts of a layout test run this process runs, from 0.
+    // Each shard keeps its FIFOs in a subdirectory of the files directory of its own.
+    public static final String LAYOUT_TEST_SHARD_INDEX = "layout-test-shard-index";
+    public static final String LAYOUT_TEST_TOTAL_SHARDS = "layout-test-total-shards";
+
+    // Report UI thread messages running longer than the given number of milliseconds, or than
+    // UiThreadWatchdog.DEFAULT_THRESHOLD_MS without a value, to the app's files directory.
+    public static final String UI_THREAD_WATCHDOG = "ui-thread-watchdog";
+
+    // Prevent instantiation.
+    private ContentShellSwitches() {}
+}
@@ -0,0 +1,364 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.chromium.base.StreamUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs one shard of a layout test list without a host driving it.
+ *
+ * content_shell runs the tests it reads from a stdin FIFO one at a time, and a process has only
+ * one set of FIFOs, so tests run in parallel as shards in separate processes, typically one per
+ * device.  Each shard keeps its FIFOs, the raw test output and its results in a directory of its
+ * own, picks its tests from the full list with {@link LayoutTestSharder}, and feeds them to its
+ * own FIFOs from background threads.  Shards run on separate devices, so the host pulls their
+ * {@link #RESULTS_FILE}s and merges them with LayoutTestResultMerger, which the layout_tests
+ * module builds for the host.
+ */
+public class LayoutTestShardRunner {
+
+    private static final String TAG = "LayoutTestShard";
+
+    // The FIFOs content_shell creates in the test files directory.
+    private static final String STDOUT_FIFO = "test.fifo";
+    private static final String STDIN_FIFO = "stdin.fifo";
+    private static final String STDERR_FIFO = "stderr.fifo";
+    // Markers content_shell writes to stderr.
+    private static final String END_OF_TEST = "#EOF";
+    private static final String CRASHED_PREFIX = "#CRASHED";
+
+    public static final String OUTPUT_FILE = "output.txt";
+    public static final String RESULTS_FILE = "results.tsv";
+
+    static final String STATUS_DONE = "DONE";
+    static final String STATUS_CRASH = "CRASH";
+    static final String STATUS_TIMEOUT = "TIMEOUT";
+    // Every test of a shard whose content_shell never created its FIFOs.
+    static final String STATUS_NOT_STARTED = "NOT_STARTED";
+
+    // A test that runs longer than this is taken to have hung, along with the shard.
+    private static final long TEST_TIMEOUT_MS = 60000;
+    // Browser startup taking longer than this fails the shard.
+    private static final long FIFO_TIMEOUT_MS = 60000;
+    private static final long POLL_INTERVAL_MS = 50;
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    private final int mShardIndex;
+    private final int mShardCount;
+    private final File mShardDir;
+
+    // Guarded by this.
+    private List<String> mTests;
+    private final List<String> mResults = new ArrayList<String>();
+    private boolean mCurrentTestCrashed;
+    private long mStartMs;
+    private boolean mFifosCreated;
+    private long mCurrentTestStartMs;
+    // Set once the shard has stopped running tests, and once its results have been written.
+    private boolean mFinishing;
+    private boolean mFinished;
+
+    /**
+     * @param shardIndex The switch value giving the index of the shard, or null for the first.
+     * @param shardCount The switch value giving the number of shards, or null for one.
+     * @return The runner, or null if the values are not a valid shard.
+     */
+    public static LayoutTestShardRunner create(File filesDir, String shardIndex,
+            String shardCount) {
+        int index;
+        int count;
+        try {
+            index = shardIndex != null ? Integer.parseInt(shardIndex) : 0;
+            count = shardCount != null ? Integer.parseInt(shardCount) : 1;
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Invalid shard " + shardIndex + " of " + shardCount);
+            return null;
+        }
+        if (count < 1 || index < 0 || index >= count) {
+            Log.e(TAG, "Invalid shard " + index + " of " + count);
+            return null;
+        }
+        return new LayoutTestShardRunner(filesDir, index, count);
+    }
+
+    private LayoutTestShardRunner(File filesDir, int shardIndex, int shardCount) {
+        mShardIndex = shardIndex;
+        mShardCount = shardCount;
+        mShardDir = getShardDirectory(filesDir, shardIndex);
+    }
+
+    /**
+     * @return The directory holding the FIFOs, output and results of the shard.
+     */
+    public File getShardDirectory() {
+        return mShardDir;
+    }
+
+    /**
+     * Starts feeding the shard's tests from a test list to content_shell.  Must be called before
+     * the browser process starts, since content_shell blocks on opening the FIFOs.
+     * @param testList A file with one test line per line, as the host would write them.
+     */
+    public void start(final File testList) {
+        mShardDir.mkdirs();
+        // content_shell recreates the FIFOs; stale ones must not be opened in the meantime.
+        for (String fifo : new String[] {STDOUT_FIFO, STDIN_FIFO, STDERR_FIFO}) {
+            new File(mShardDir, fifo).delete();
+        }
+        new File(mShardDir, RESULTS_FILE).delete();
+        synchronized (this) {
+            mStartMs = SystemClock.elapsedRealtime();
+        }
+
+        startThread("LayoutTestStdin", new Runnable() {
+            @Override
+            public void run() {
+                List<String> tests;
+                try {
+                    tests = LayoutTestSharder.shard(
+                            LayoutTestSharder.readLines(testList), mShardCount).get(mShardIndex);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to read the test list " + testList, e);
+                    tests = new ArrayList<String>();
+                }
+                Log.i(TAG, "Running " + tests.size() + " tests as shard " + mShardIndex + " of "
+                        + mShardCount);
+                synchronized (LayoutTestShardRunner.this) {
+                    mTests = tests;
+                }
+                writeTests(tests);
+            }
+        });
+        startThread("LayoutTestStdout", new Runnable() {
+            @Override
+            public void run() {
+                copyOutput();
+            }
+        });
+        startThread("LayoutTestStderr", new Runnable() {
+            @Override
+            public void run() {
+                readErrors();
+            }
+        });
+        startThread("LayoutTestWatchdog", new Runnable() {
+            @Override
+            public void run() {
+                watchForHangs();
+            }
+        });
+    }
+
+    private void writeTests(List<String> tests) {
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(
+                    new FileOutputStream(awaitFifo(STDIN_FIFO)), "UTF-8");
+            for (String test : tests) writer.write(test + "\n");
+            writer.flush();
+            // content_shell exits once it has run the tests it read before the end of input,
+            // which has to wait until the results are written.
+            synchronized (this) {
+                while (!mFinished) wait();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write the tests", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            StreamUtil.closeQuietly(writer);
+        }
+    }
+
+    private void copyOutput() {
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = new FileInputStream(awaitFifo(STDOUT_FIFO));
+            out = new FileOutputStream(new File(mShardDir, OUTPUT_FILE));
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to copy the test output", e);
+        } finally {
+            StreamUtil.closeQuietly(in);
+            StreamUtil.closeQuietly(out);
+        }
+    }
+
+    private void readErrors() {
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(awaitFifo(STDERR_FIFO)), "UTF-8"));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(CRASHED_PREFIX)) {
+                    synchronized (this) {
+                        mCurrentTestCrashed = true;
+                    }
+                } else if (line.equals(END_OF_TEST) && onTestFinished()) {
+                    // Keeps reading, so that content_shell never writes to a closed pipe.
+                    finish(null);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read the test errors", e);
+        } finally {
+            StreamUtil.closeQuietly(in);
+        }
+        // Also reached if content_shell went away before running all tests.
+        finish(null);
+    }
+
+    /**
+     * Records the result of the running test.
+     * @return Whether it was the last test of the shard.
+     */
+    private synchronized boolean onTestFinished() {
+        if (mTests == null || mResults.size() == mTests.size()) return false;
+        long nowMs = SystemClock.elapsedRealtime();
+        mResults.add(LayoutTestSharder.formatResult(mTests.get(mResults.size()),
+                mCurrentTestCrashed ? STATUS_CRASH : STATUS_DONE, nowMs - mCurrentTestStartMs));
+        mCurrentTestCrashed = false;
+        mCurrentTestStartMs = nowMs;
+        return mResults.size() == mTests.size();
+    }
+
+    /**
+     * Fails the shard if content_shell does not create its FIFOs in time, then if a test hangs.
+     */
+    private void watchForHangs() {
+        while (true) {
+            long remainingMs;
+            String failure;
+            synchronized (this) {
+                if (mFinishing) return;
+                long nowMs = SystemClock.elapsedRealtime();
+                if (mFifosCreated) {
+                    remainingMs = mCurrentTestStartMs + TEST_TIMEOUT_MS - nowMs;
+                    failure = STATUS_TIMEOUT;
+                } else {
+                    remainingMs = mStartMs + FIFO_TIMEOUT_MS - nowMs;
+                    failure = STATUS_NOT_STARTED;
+                }
+            }
+            if (remainingMs <= 0) {
+                finish(failure);
+                return;
+            }
+            SystemClock.sleep(Math.min(remainingMs, TEST_TIMEOUT_MS / 10));
+        }
+    }
+
+    /**
+     * Writes the results of the shard.
+     * @param failure Null if content_shell ran the tests or went away, {@link #STATUS_TIMEOUT}
+     *        if the running test hung, or {@link #STATUS_NOT_STARTED} if it never started.
+     */
+    private void finish(String failure) {
+        boolean timedOut = STATUS_TIMEOUT.equals(failure);
+        boolean notStarted = STATUS_NOT_STARTED.equals(failure);
+        List<String> results;
+        int finishedCount;
+        synchronized (this) {
+            if (mFinishing) return;
+            mFinishing = true;
+            finishedCount = mResults.size();
+            results = new ArrayList<String>(mResults);
+            List<String> tests = mTests != null ? mTests : new ArrayList<String>();
+            for (int i = finishedCount; i < tests.size(); i++) {
+                boolean running = i == finishedCount;
+                String status = LayoutTestSharder.STATUS_NOT_RUN;
+                if (notStarted) status = STATUS_NOT_STARTED;
+                if (running && timedOut) status = STATUS_TIMEOUT;
+                results.add(LayoutTestSharder.formatResult(tests.get(i), status,
+                        running && timedOut
+                                ? SystemClock.elapsedRealtime() - mCurrentTestStartMs : -1));
+            }
+        }
+        if (notStarted) {
+            Log.e(TAG, "Shard " + mShardIndex + " failed: content_shell did not create its FIFOs"
+                    + " within " + FIFO_TIMEOUT_MS + " ms");
+        } else {
+            Log.i(TAG, "Shard " + mShardIndex + " finished " + finishedCount + " of "
+                    + results.size() + " tests" + (timedOut ? ", then hung" : ""));
+        }
+        writeLines(new File(mShardDir, RESULTS_FILE), results);
+        synchronized (this) {
+            mFinished = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits for content_shell to create one of its FIFOs.
+     * @throws IOException If the shard finished first, which it does once the FIFOs are overdue.
+     */
+    private File awaitFifo(String name) throws IOException {
+        // The stdin FIFO is created last, so once it exists all of them do.
+        File last = new File(mShardDir, STDIN_FIFO);
+        while (!last.exists()) {
+            synchronized (this) {
+                if (mFinishing) throw new IOException("No " + name + " before the shard finished");
+            }
+            SystemClock.sleep(POLL_INTERVAL_MS);
+        }
+        synchronized (this) {
+            if (!mFifosCreated) {
+                mFifosCreated = true;
+                // Browser startup does not count towards the first test.
+                mCurrentTestStartMs = SystemClock.elapsedRealtime();
+            }
+        }
+        return new File(mShardDir, name);
+    }
+
+    private static File getShardDirectory(File filesDir, int shardIndex) {
+        return new File(filesDir, "layout_test_shard_" + shardIndex);
+    }
+
+    private static void startThread(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Writes lines to a temporary file renamed into place, so that a file that exists is whole.
+     */
+    private static void writeLines(File file, List<String> lines) {
+        File temporary = new File(file.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(temporary), "UTF-8");
+            for (String line : lines) writer.write(line + "\n");
+            writer.close();
+            writer = null;
+            if (!temporary.renameTo(file)) throw new IOException("Cannot rename " + temporary);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write " + file, e);
+        } finally {
+            StreamUtil.closeQuietly(writer);
+        }
+    }
+}
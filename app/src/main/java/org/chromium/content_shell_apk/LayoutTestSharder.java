@@ -0,0 +1,136 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import org.chromium.base.StreamUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits a layout test list into shards and merges the results of the shards back into list
+ * order.
+ *
+ * Tests of a directory stay in one shard, since they tend to share resources and to be slower
+ * when run apart.  Directories are handed out largest first to the shard with the fewest tests,
+ * so every shard computes the same split from the same list without coordinating.
+ */
+class LayoutTestSharder {
+
+    // A test line is the test path optionally followed by arguments, separated by quotes.
+    private static final char ARGUMENT_SEPARATOR = '\'';
+
+    static final String STATUS_NOT_RUN = "NOT_RUN";
+    static final String RESULT_SEPARATOR = "\t";
+
+    /**
+     * @param tests Test lines, in the order they would run unsharded.
+     * @return The test lines of each shard, each in the order of the list.
+     */
+    static List<List<String>> shard(List<String> tests, int shardCount) {
+        if (shardCount < 1) throw new IllegalArgumentException("No shards: " + shardCount);
+        Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < tests.size(); i++) {
+            String directory = directoryOf(tests.get(i));
+            List<Integer> group = groups.get(directory);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(directory, group);
+            }
+            group.add(i);
+        }
+        List<List<Integer>> bySize = new ArrayList<List<Integer>>(groups.values());
+        // Stable, so equally sized directories keep the order of the list.
+        Collections.sort(bySize, new Comparator<List<Integer>>() {
+            @Override
+            public int compare(List<Integer> a, List<Integer> b) {
+                return b.size() - a.size();
+            }
+        });
+
+        List<List<Integer>> shardIndices = new ArrayList<List<Integer>>();
+        for (int i = 0; i < shardCount; i++) shardIndices.add(new ArrayList<Integer>());
+        for (List<Integer> group : bySize) {
+            List<Integer> smallest = shardIndices.get(0);
+            for (List<Integer> candidate : shardIndices) {
+                if (candidate.size() < smallest.size()) smallest = candidate;
+            }
+            smallest.addAll(group);
+        }
+
+        List<List<String>> shards = new ArrayList<List<String>>();
+        for (List<Integer> indices : shardIndices) {
+            Collections.sort(indices);
+            List<String> shard = new ArrayList<String>();
+            for (int index : indices) shard.add(tests.get(index));
+            shards.add(shard);
+        }
+        return shards;
+    }
+
+    /**
+     * Merges result lines of the form "test\tstatus\tdurationMs" from all shards.
+     * @param tests The unsharded test list.
+     * @return One result line per test, in list order; tests no shard reported are not run.
+     */
+    static List<String> mergeResults(List<String> tests, List<List<String>> shardResults) {
+        Map<String, String> resultsByTest = new HashMap<String, String>();
+        for (List<String> results : shardResults) {
+            for (String result : results) {
+                int end = result.indexOf(RESULT_SEPARATOR);
+                if (end > 0) resultsByTest.put(result.substring(0, end), result);
+            }
+        }
+        List<String> merged = new ArrayList<String>(tests.size());
+        for (String test : tests) {
+            String result = resultsByTest.get(test);
+            merged.add(result != null ? result : formatResult(test, STATUS_NOT_RUN, -1));
+        }
+        return merged;
+    }
+
+    static String formatResult(String test, String status, long durationMs) {
+        return test + RESULT_SEPARATOR + status + RESULT_SEPARATOR + durationMs;
+    }
+
+    /**
+     * Reads a test list or a results file.
+     * @return The lines of the file that are not empty.
+     */
+    static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isEmpty()) lines.add(line);
+            }
+        } finally {
+            StreamUtil.closeQuietly(in);
+        }
+        return lines;
+    }
+
+    /**
+     * @return The directory of the test a test line runs, or "" for a top-level test.
+     */
+    static String directoryOf(String testLine) {
+        int end = testLine.indexOf(ARGUMENT_SEPARATOR);
+        String test = end < 0 ? testLine : testLine.substring(0, end);
+        int slash = test.lastIndexOf('/');
+        return slash < 0 ? "" : test.substring(0, slash);
+    }
+}
@@ -0,0 +1,121 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A UI thread message that ran for too long, with the stacks the UI thread was sampled at while
+ * it ran.  Consecutive identical stacks are stored once with a count.
+ */
+class LongTaskReport {
+
+    // Deeper frames are dropped; the top of the stack is what points at the culprit.
+    static final int MAX_STACK_DEPTH = 64;
+
+    private static class Sample {
+        final long mOffsetMs;
+        final StackTraceElement[] mStack;
+        int mCount = 1;
+
+        Sample(long offsetMs, StackTraceElement[] stack) {
+            mOffsetMs = offsetMs;
+            mStack = stack;
+        }
+    }
+
+    private final String mMessage;
+    private final long mStartUptimeMs;
+    private final long mWallTimeMs;
+    private final List<Sample> mSamples = new ArrayList<Sample>();
+    private int mSampleCount;
+    private long mDurationMs = -1;
+
+    /**
+     * @param message The looper's description of the message, naming its target and callback.
+     * @param startUptimeMs When the message started running, in uptime milliseconds.
+     * @param wallTimeMs When the message started running, in milliseconds since the epoch.
+     */
+    LongTaskReport(String message, long startUptimeMs, long wallTimeMs) {
+        mMessage = message;
+        mStartUptimeMs = startUptimeMs;
+        mWallTimeMs = wallTimeMs;
+    }
+
+    /**
+     * Adds a stack sample.
+     * @param uptimeMs When it was taken, in uptime milliseconds.
+     */
+    void addSample(long uptimeMs, StackTraceElement[] stack) {
+        mSampleCount++;
+        if (stack.length > MAX_STACK_DEPTH) stack = Arrays.copyOf(stack, MAX_STACK_DEPTH);
+        if (!mSamples.isEmpty()) {
+            Sample last = mSamples.get(mSamples.size() - 1);
+            if (Arrays.equals(last.mStack, stack)) {
+                last.mCount++;
+                return;
+            }
+        }
+        mSamples.add(new Sample(uptimeMs - mStartUptimeMs, stack));
+    }
+
+    int getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * @param durationMs How long the message ran, or -1 if it had not finished when reported.
+     */
+    void setDurationMs(long durationMs) {
+        mDurationMs = durationMs;
+    }
+
+    long getDurationMs() {
+        return mDurationMs;
+    }
+
+    String getMessage() {
+        return mMessage;
+    }
+
+    String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"message\":\"").append(escape(mMessage))
+                .append("\",\"startTimeMs\":").append(mWallTimeMs)
+                .append(",\"startUptimeMs\":").append(mStartUptimeMs)
+                .append(",\"durationMs\":").append(mDurationMs)
+                .append(",\"finished\":").append(mDurationMs >= 0)
+                .append(",\"samples\":[");
+        for (int i = 0; i < mSamples.size(); i++) {
+            Sample sample = mSamples.get(i);
+            if (i > 0) json.append(',');
+            json.append("{\"offsetMs\":").append(sample.mOffsetMs)
+                    .append(",\"count\":").append(sample.mCount).append(",\"stack\":[");
+            for (int j = 0; j < sample.mStack.length; j++) {
+                if (j > 0) json.append(',');
+                json.append('"').append(escape(sample.mStack[j].toString())).append('"');
+            }
+            json.append("]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,84 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Keeps the most recent reports in a directory, one file each, deleting the oldest once there
+ * are more than the capacity.  Files are numbered in the order they were written, across
+ * restarts, so the newest is the one with the highest number.  Not thread safe.
+ */
+class LongTaskReportRing {
+
+    private static final String PREFIX = "long_task_";
+    private static final String SUFFIX = ".json";
+
+    private final File mDirectory;
+    private final int mCapacity;
+    // The number of the next report, or -1 until the directory has been scanned.
+    private long mNextNumber = -1;
+
+    LongTaskReportRing(File directory, int capacity) {
+        mDirectory = directory;
+        mCapacity = capacity;
+    }
+
+    /**
+     * Writes a report, evicting the oldest ones over capacity.  Does disk I/O.
+     * @return The file written.
+     */
+    File write(String report) throws IOException {
+        if (mNextNumber < 0) mNextNumber = scanNewestNumber() + 1;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        File file = new File(mDirectory, PREFIX + mNextNumber + SUFFIX);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(report);
+        } finally {
+            writer.close();
+        }
+        mNextNumber++;
+        evict();
+        return file;
+    }
+
+    private void evict() {
+        String[] names = mDirectory.list();
+        if (names == null) return;
+        for (String name : names) {
+            long number = parseNumber(name);
+            if (number >= 0 && number < mNextNumber - mCapacity) {
+                new File(mDirectory, name).delete();
+            }
+        }
+    }
+
+    private long scanNewestNumber() {
+        long newest = -1;
+        String[] names = mDirectory.list();
+        if (names == null) return newest;
+        for (String name : names) newest = Math.max(newest, parseNumber(name));
+        return newest;
+    }
+
+    /**
+     * @return The number of a report file, or -1 if the name is not one.
+     */
+    private static long parseNumber(String name) {
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) return -1;
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import org.chromium.base.StreamUtil;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that the assets the native code maps straight out of the APK are stored so that they
+ * can be: uncompressed, so that they are neither extracted nor copied, and page-aligned, so that
+ * their pages are shared between processes.
+ *
+ * A compressed asset costs startup I/O and dirty memory in every process that reads it, which is
+ * easy to miss since it still works.
+ */
+public class MappedAssetVerifier {
+
+    private static final String TAG = "MappedAssetVerifier";
+
+    /**
+     * The assets the native code maps from the APK.  Each must be in the noCompress list in
+     * build.gradle.
+     */
+    public static final String[] MAPPED_ASSETS = {
+        "content_shell.pak",
+        "natives_blob_32.bin",
+        "snapshot_blob_32.bin",
+    };
+
+    // The alignment applied to uncompressed entries after zipalign in build.gradle.
+    public static final int PAGE_SIZE = 4096;
+
+    private final AssetManager mAssetManager;
+
+    public MappedAssetVerifier(AssetManager assetManager) {
+        mAssetManager = assetManager;
+    }
+
+    /**
+     * Checks that every asset in {@link #MAPPED_ASSETS} is in the APK, stored uncompressed and
+     * page-aligned, logging a warning for each that is not.  Does disk I/O.
+     * @return Whether all of them can be mapped without a copy from page-aligned offsets.
+     */
+    public boolean verifyMappedAssets() {
+        List<String> assets;
+        try {
+            assets = Arrays.asList(mAssetManager.list(""));
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to list the assets", e);
+            return false;
+        }
+        boolean valid = true;
+        for (String assetName : MAPPED_ASSETS) {
+            if (!assets.contains(assetName)) {
+                Log.w(TAG, assetName + " is missing from the APK");
+                valid = false;
+                continue;
+            }
+            AssetFileDescriptor descriptor = null;
+            try {
+                descriptor = mAssetManager.openFd(assetName);
+                if (descriptor.getStartOffset() % PAGE_SIZE != 0) {
+                    Log.w(TAG, assetName + " is not page-aligned in the APK (offset "
+                            + descriptor.getStartOffset() + ")");
+                    valid = false;
+                }
+            } catch (FileNotFoundException e) {
+                // openFd() only fails this way for compressed assets once the asset is listed.
+                Log.w(TAG, assetName + " is compressed in the APK and will be copied; add it to "
+                        + "noCompress in build.gradle");
+                valid = false;
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to open " + assetName, e);
+                valid = false;
+            } finally {
+                StreamUtil.closeQuietly(descriptor);
+            }
+        }
+        return valid;
+    }
+}
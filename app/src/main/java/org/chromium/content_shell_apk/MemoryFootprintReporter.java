@@ -0,0 +1,105 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Debug;
+import android.util.Log;
+
+import org.chromium.base.library_loader.Linker;
+import org.chromium.content_shell.ReportFileWriter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the proportional set size of the browser process and of every child process of the
+ * application, and writes it to a JSON file named after the build flavor so that the footprint
+ * with and without the Chromium linker can be compared.
+ *
+ * Since Android 5.1 the sandboxed renderer processes may not be visible to
+ * {@link ActivityManager#getRunningAppProcesses()}; run the report on an older device, or
+ * compare with `adb shell dumpsys meminfo` there.
+ */
+public class MemoryFootprintReporter {
+
+    private static final String TAG = "MemoryFootprint";
+
+    private static final String REPORT_FILE_PREFIX = "memory_footprint_";
+    private static final String SANDBOXED_PROCESS_SUFFIX = ":sandboxed_process";
+
+    private final Context mContext;
+
+    public MemoryFootprintReporter(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Measures all processes of the application and writes the report.  This is slow and must
+     * not be called on the UI thread.
+     * @return The report file, or null if it could not be written.
+     */
+    public File writeReport() {
+        ActivityManager activityManager =
+                (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+        String packageName = mContext.getPackageName();
+        List<ActivityManager.RunningAppProcessInfo> processes =
+                new ArrayList<ActivityManager.RunningAppProcessInfo>();
+        List<ActivityManager.RunningAppProcessInfo> running =
+                activityManager.getRunningAppProcesses();
+        if (running != null) {
+            for (ActivityManager.RunningAppProcessInfo process : running) {
+                if (process.processName.startsWith(packageName)) processes.add(process);
+            }
+        }
+        int[] pids = new int[processes.size()];
+        for (int i = 0; i < pids.length; i++) pids[i] = processes.get(i).pid;
+        Debug.MemoryInfo[] memoryInfos = activityManager.getProcessMemoryInfo(pids);
+
+        boolean useLinker = Linker.isUsed();
+        boolean sharedRelros = useLinker && Linker.getInstance().isUsingBrowserSharedRelros();
+        StringBuilder json = new StringBuilder();
+        json.append("{\"flavor\":\"").append(BuildConfig.FLAVOR).append('"')
+                .append(",\"useChromiumLinker\":").append(useLinker)
+                .append(",\"loadFromApk\":").append(Linker.isInZipFile())
+                .append(",\"browserSharedRelros\":").append(sharedRelros)
+                .append(",\"processes\":[");
+        long browserPssKb = 0;
+        long childPssKb = 0;
+        int childCount = 0;
+        for (int i = 0; i < pids.length; i++) {
+            ActivityManager.RunningAppProcessInfo process = processes.get(i);
+            Debug.MemoryInfo info = memoryInfos[i];
+            if (i > 0) json.append(',');
+            json.append("{\"name\":\"").append(process.processName).append('"')
+                    .append(",\"pid\":").append(process.pid)
+                    .append(",\"totalPssKb\":").append(info.getTotalPss())
+                    .append(",\"privateDirtyKb\":").append(info.getTotalPrivateDirty())
+                    .append(",\"sharedDirtyKb\":").append(info.getTotalSharedDirty())
+                    .append(",\"nativePssKb\":").append(info.nativePss)
+                    .append('}');
+            if (process.processName.contains(SANDBOXED_PROCESS_SUFFIX)) {
+                childPssKb += info.getTotalPss();
+                childCount++;
+            } else if (process.processName.equals(packageName)) {
+                browserPssKb = info.getTotalPss();
+            }
+        }
+        json.append("],\"browserPssKb\":").append(browserPssKb)
+                .append(",\"rendererPssKb\":").append(childPssKb)
+                .append(",\"rendererCount\":").append(childCount)
+                .append('}');
+        Log.i(TAG, "flavor=" + BuildConfig.FLAVOR + " linker=" + useLinker + " sharedRelros="
+                + sharedRelros + " browserPss=" + browserPssKb + "kB renderers=" + childCount
+                + " rendererPss=" + childPssKb + "kB");
+
+        File file = new File(mContext.getFilesDir(),
+                REPORT_FILE_PREFIX + BuildConfig.FLAVOR + ".json");
+        return ReportFileWriter.write(TAG, "memory footprint report", file, json.toString())
+                ? file : null;
+    }
+}
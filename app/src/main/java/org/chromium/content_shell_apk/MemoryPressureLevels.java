@@ -0,0 +1,33 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import android.content.ComponentCallbacks2;
+
+import org.chromium.base.MemoryPressureLevel;
+
+/**
+ * Maps {@link ComponentCallbacks2} trim levels onto {@link MemoryPressureLevel} values, using the
+ * same thresholds as {@link org.chromium.base.MemoryPressureListener}.
+ */
+public class MemoryPressureLevels {
+
+    private MemoryPressureLevels() {}
+
+    /**
+     * @param trimLevel A level passed to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     * @return The matching {@link MemoryPressureLevel}.
+     */
+    public static int fromTrimLevel(int trimLevel) {
+        if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            return MemoryPressureLevel.CRITICAL;
+        }
+        if (trimLevel >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || trimLevel == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return MemoryPressureLevel.MODERATE;
+        }
+        return MemoryPressureLevel.NONE;
+    }
+}
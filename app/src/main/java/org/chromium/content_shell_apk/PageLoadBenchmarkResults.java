@@ -0,0 +1,176 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import org.chromium.content_shell.UrlSanitizer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Timings collected by {@link PageLoadBenchmarkRunner}, formatted as CSV with one row per load
+ * and as JSON with the loads and the median timings of each URL.
+ */
+class PageLoadBenchmarkResults {
+
+    static final String CSV_HEADER =
+            "url,mode,iteration,commitMs,firstPaintMs,loadCompleteMs,totalBytes";
+
+    /**
+     * The timings of one load.  Milestones that were not reached, for instance because the load
+     * timed out, are -1.
+     */
+    static class Sample {
+        final String mUrl;
+        final boolean mWarm;
+        final int mIteration;
+        final long mCommitMs;
+        final long mFirstPaintMs;
+        final long mLoadCompleteMs;
+        final long mTotalBytes;
+
+        Sample(String url, boolean warm, int iteration, long commitMs, long firstPaintMs,
+                long loadCompleteMs, long totalBytes) {
+            mUrl = url;
+            mWarm = warm;
+            mIteration = iteration;
+            mCommitMs = commitMs;
+            mFirstPaintMs = firstPaintMs;
+            mLoadCompleteMs = loadCompleteMs;
+            mTotalBytes = totalBytes;
+        }
+    }
+
+    private final List<String> mUrls;
+    private final int mIterations;
+    private final List<Sample> mSamples = new ArrayList<Sample>();
+
+    PageLoadBenchmarkResults(List<String> urls, int iterations) {
+        mUrls = urls;
+        mIterations = iterations;
+    }
+
+    void add(Sample sample) {
+        mSamples.add(sample);
+    }
+
+    List<Sample> getSamples() {
+        return mSamples;
+    }
+
+    /**
+     * Reads a URL list with one URL per line.  Blank lines and lines starting with '#' are
+     * skipped, and the URLs are sanitized as if typed into the URL bar.
+     */
+    static List<String> parseUrlList(Reader reader) throws IOException {
+        List<String> urls = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(reader);
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            urls.add(UrlSanitizer.sanitize(line));
+        }
+        return urls;
+    }
+
+    String toCsv() {
+        StringBuilder csv = new StringBuilder(CSV_HEADER).append('\n');
+        for (Sample sample : mSamples) {
+            csv.append(escapeCsv(sample.mUrl)).append(',')
+                    .append(sample.mWarm ? "warm" : "cold").append(',')
+                    .append(sample.mIteration).append(',')
+                    .append(sample.mCommitMs).append(',')
+                    .append(sample.mFirstPaintMs).append(',')
+                    .append(sample.mLoadCompleteMs).append(',')
+                    .append(sample.mTotalBytes).append('\n');
+        }
+        return csv.toString();
+    }
+
+    String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"iterations\":").append(mIterations).append(",\"loads\":[");
+        for (int i = 0; i < mSamples.size(); i++) {
+            Sample sample = mSamples.get(i);
+            if (i > 0) json.append(',');
+            json.append("{\"url\":\"").append(escapeJson(sample.mUrl))
+                    .append("\",\"mode\":\"").append(sample.mWarm ? "warm" : "cold")
+                    .append("\",\"iteration\":").append(sample.mIteration)
+                    .append(",\"commitMs\":").append(sample.mCommitMs)
+                    .append(",\"firstPaintMs\":").append(sample.mFirstPaintMs)
+                    .append(",\"loadCompleteMs\":").append(sample.mLoadCompleteMs)
+                    .append(",\"totalBytes\":").append(sample.mTotalBytes).append('}');
+        }
+        json.append("],\"medians\":[");
+        boolean first = true;
+        for (String url : mUrls) {
+            for (boolean warm : new boolean[] {false, true}) {
+                if (!first) json.append(',');
+                first = false;
+                json.append("{\"url\":\"").append(escapeJson(url))
+                        .append("\",\"mode\":\"").append(warm ? "warm" : "cold").append('"');
+                appendMedians(json, url, warm);
+                json.append('}');
+            }
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Appends the median of each milestone over the loads of a URL that reached it, along with
+     * how many did not.
+     */
+    private void appendMedians(StringBuilder json, String url, boolean warm) {
+        List<Sample> samples = new ArrayList<Sample>();
+        for (Sample sample : mSamples) {
+            if (sample.mWarm == warm && sample.mUrl.equals(url)) samples.add(sample);
+        }
+        long[] commit = new long[samples.size()];
+        long[] firstPaint = new long[samples.size()];
+        long[] loadComplete = new long[samples.size()];
+        int failures = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            Sample sample = samples.get(i);
+            commit[i] = sample.mCommitMs;
+            firstPaint[i] = sample.mFirstPaintMs;
+            loadComplete[i] = sample.mLoadCompleteMs;
+            if (sample.mLoadCompleteMs < 0) failures++;
+        }
+        json.append(",\"loads\":").append(samples.size())
+                .append(",\"failures\":").append(failures)
+                .append(",\"commitMs\":").append(median(commit))
+                .append(",\"firstPaintMs\":").append(median(firstPaint))
+                .append(",\"loadCompleteMs\":").append(median(loadComplete));
+    }
+
+    /**
+     * @return The median of the values that are not -1, or -1 if there are none.
+     */
+    static long median(long[] values) {
+        long[] reached = new long[values.length];
+        int count = 0;
+        for (long value : values) {
+            if (value >= 0) reached[count++] = value;
+        }
+        if (count == 0) return -1;
+        Arrays.sort(reached, 0, count);
+        if (count % 2 == 1) return reached[count / 2];
+        return (reached[count / 2 - 1] + reached[count / 2]) / 2;
+    }
+
+    private static String escapeCsv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String escapeJson(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,253 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.util.Log;
+
+import org.chromium.base.StreamUtil;
+import org.chromium.base.ThreadUtils;
+import org.chromium.content_shell.NavigationMetrics;
+import org.chromium.content_shell.ReportFileWriter;
+import org.chromium.content_shell.Shell;
+import org.chromium.content_shell.ShellManager;
+import org.chromium.content_shell.ShellTab;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Loads each URL of a list a number of times, unattended, and writes the commit, first paint and
+ * load complete timings reported by the shells to {@link #CSV_REPORT_FILE} and
+ * {@link #JSON_REPORT_FILE} in the files directory.
+ *
+ * Every iteration loads a URL twice: cold, in a newly created shell after the previous one has
+ * been closed, then warm, in that same shell after navigating it to about:blank.  The HTTP cache
+ * is shared by all shells, so only the first cold load of a URL starts from an empty cache if the
+ * app data was cleared before the run.  The JSON report is written last; once it exists the run
+ * is complete.
+ */
+public class PageLoadBenchmarkRunner implements NavigationMetrics.Observer {
+
+    private static final String TAG = "PageLoadBenchmark";
+
+    public static final String CSV_REPORT_FILE = "page_load_benchmark.csv";
+    public static final String JSON_REPORT_FILE = "page_load_benchmark.json";
+    public static final int DEFAULT_ITERATIONS = 5;
+
+    private static final String BLANK_URL = "about:blank";
+    // Loads that have not finished by then are recorded with -1 timings.
+    private static final long LOAD_TIMEOUT_MS = 60000;
+    // Lets the previous page go quiet, and its client redirects be ignored, before the next load.
+    private static final long SETTLE_DELAY_MS = 1000;
+
+    // Loads about:blank in the first shell, so that the surface is ready before any timed load.
+    private static final int STEP_WARM_UP = 0;
+    private static final int STEP_COLD = 1;
+    private static final int STEP_BLANK = 2;
+    private static final int STEP_WARM = 3;
+
+    private final ShellManager mShellManager;
+    private final List<String> mUrls;
+    private final int mIterations;
+    private final File mOutputDir;
+    private final Runnable mFinishedCallback;
+    private final PageLoadBenchmarkResults mResults;
+    private final Handler mHandler = new Handler();
+
+    private int mStep = STEP_WARM_UP;
+    private int mUrlIndex;
+    private int mIteration;
+    // The shell being loaded, and whether the current step is waiting for it to finish.
+    private Shell mShell;
+    private boolean mAwaitingLoad;
+
+    private final Runnable mTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Log.w(TAG, "Timed out loading " + currentUrl());
+            finishStep(null);
+        }
+    };
+
+    private final Runnable mNextStepRunnable = new Runnable() {
+        @Override
+        public void run() {
+            runStep();
+        }
+    };
+
+    /**
+     * Reads the URL list for a benchmark run.
+     * @param urlListFile A file with one URL per line.
+     * @param iterations The switch value giving the number of loads of each URL, or null for
+     *                   {@link #DEFAULT_ITERATIONS}.
+     * @param outputDir The directory the reports are written to.
+     * @param finishedCallback Run on the UI thread once the reports have been written.
+     * @return The runner, or null if the URL list could not be read or is empty.
+     */
+    public static PageLoadBenchmarkRunner create(ShellManager shellManager, File urlListFile,
+            String iterations, File outputDir, Runnable finishedCallback) {
+        List<String> urls;
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(urlListFile), "UTF-8");
+            urls = PageLoadBenchmarkResults.parseUrlList(reader);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read the URL list " + urlListFile, e);
+            return null;
+        } finally {
+            StreamUtil.closeQuietly(reader);
+        }
+        if (urls.isEmpty()) {
+            Log.e(TAG, "No URLs in " + urlListFile);
+            return null;
+        }
+        return new PageLoadBenchmarkRunner(shellManager, urls, parseIterations(iterations),
+                outputDir, finishedCallback);
+    }
+
+    private PageLoadBenchmarkRunner(ShellManager shellManager, List<String> urls, int iterations,
+            File outputDir, Runnable finishedCallback) {
+        mShellManager = shellManager;
+        mUrls = urls;
+        mIterations = iterations;
+        mOutputDir = outputDir;
+        mFinishedCallback = finishedCallback;
+        mResults = new PageLoadBenchmarkResults(urls, iterations);
+    }
+
+    /**
+     * Launches the first shell and starts loading.  Must be called once the browser process has
+     * started, in place of launching a shell.
+     */
+    public void start() {
+        ThreadUtils.assertOnUiThread();
+        Log.i(TAG, "Loading " + mUrls.size() + " URLs " + mIterations + " times each");
+        runStep();
+    }
+
+    @Override
+    public void onNavigationFinished(Shell shell, NavigationMetrics metrics) {
+        if (shell != mShell || !mAwaitingLoad) return;
+        // A late notification for the page navigated away from.
+        if (mStep == STEP_BLANK && !BLANK_URL.equals(metrics.getUrl())) return;
+        finishStep(metrics);
+    }
+
+    private void runStep() {
+        switch (mStep) {
+            case STEP_WARM_UP:
+                launchShell(BLANK_URL);
+                break;
+            case STEP_COLD:
+                ShellTab tab = mShellManager.getActiveTab();
+                if (tab != null) mShellManager.closeTab(tab);
+                launchShell(currentUrl());
+                break;
+            case STEP_BLANK:
+            case STEP_WARM:
+                if (mShell == null || mShell.isDestroyed()) {
+                    Log.w(TAG, "Shell destroyed while loading " + currentUrl());
+                    finishStep(null);
+                    return;
+                }
+                mShell.loadUrl(mStep == STEP_BLANK ? BLANK_URL : currentUrl());
+                break;
+            default:
+                assert false;
+        }
+        mAwaitingLoad = true;
+        mHandler.postDelayed(mTimeoutRunnable, LOAD_TIMEOUT_MS);
+    }
+
+    private void launchShell(String url) {
+        mShellManager.launchShell(url);
+        mShell = mShellManager.getActiveShell();
+        if (mShell != null) mShell.addNavigationMetricsObserver(this);
+    }
+
+    /**
+     * Records the timings of the current step, if it is a timed one, and schedules the next.
+     * @param metrics The timings, or null if the load did not finish.
+     */
+    private void finishStep(NavigationMetrics metrics) {
+        mAwaitingLoad = false;
+        mHandler.removeCallbacks(mTimeoutRunnable);
+        if (mStep == STEP_COLD || mStep == STEP_WARM) {
+            boolean warm = mStep == STEP_WARM;
+            mResults.add(metrics != null
+                    ? new PageLoadBenchmarkResults.Sample(currentUrl(), warm, mIteration,
+                            metrics.getCommitMs(), metrics.getFirstPaintMs(),
+                            metrics.getLoadCompleteMs(), metrics.getTotalBytes())
+                    : new PageLoadBenchmarkResults.Sample(currentUrl(), warm, mIteration,
+                            -1, -1, -1, -1));
+        }
+
+        switch (mStep) {
+            case STEP_WARM_UP:
+                mStep = STEP_COLD;
+                break;
+            case STEP_COLD:
+                mStep = STEP_BLANK;
+                break;
+            case STEP_BLANK:
+                mStep = STEP_WARM;
+                break;
+            case STEP_WARM:
+                mStep = STEP_COLD;
+                if (++mIteration == mIterations) {
+                    mIteration = 0;
+                    mUrlIndex++;
+                }
+                break;
+            default:
+                assert false;
+        }
+        if (mUrlIndex == mUrls.size()) {
+            finish();
+            return;
+        }
+        mHandler.postDelayed(mNextStepRunnable, SETTLE_DELAY_MS);
+    }
+
+    private void finish() {
+        if (mShell != null) mShell.removeNavigationMetricsObserver(this);
+        mShell = null;
+        final String csv = mResults.toCsv();
+        final String json = mResults.toJson();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                ReportFileWriter.write(TAG, "page load benchmark",
+                        new File(mOutputDir, CSV_REPORT_FILE), csv);
+                ReportFileWriter.write(TAG, "page load benchmark",
+                        new File(mOutputDir, JSON_REPORT_FILE), json);
+                if (mFinishedCallback != null) mHandler.post(mFinishedCallback);
+            }
+        });
+    }
+
+    private String currentUrl() {
+        return mStep == STEP_WARM_UP ? BLANK_URL : mUrls.get(mUrlIndex);
+    }
+
+    private static int parseIterations(String value) {
+        if (value == null) return DEFAULT_ITERATIONS;
+        try {
+            int iterations = Integer.parseInt(value);
+            if (iterations > 0) return iterations;
+        } catch (NumberFormatException e) {
+            // Fall through.
+        }
+        Log.w(TAG, "Invalid iteration count " + value + ", using " + DEFAULT_ITERATIONS);
+        return DEFAULT_ITERATIONS;
+    }
+}
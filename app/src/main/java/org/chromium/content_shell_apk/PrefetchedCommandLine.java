@@ -0,0 +1,199 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.chromium.base.CommandLine;
+import org.chromium.base.StreamUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * An immutable snapshot of the command line, with the switches in a hash map so that lookups on
+ * the UI thread are cheap.
+ *
+ * The command-line file is read on a background thread started when the application is attached,
+ * so that by the time the activity is created it has usually been read already; {@link #get()}
+ * only blocks if it has not.
+ */
+public class PrefetchedCommandLine {
+
+    private static final String TAG = "PrefetchedCommandLine";
+
+    // Matches the limit CommandLine.initFromFile() applies.
+    private static final int MAX_FILE_CHARS = 8 * 1024;
+    private static final String SWITCH_PREFIX = "--";
+    private static final String SWITCH_TERMINATOR = SWITCH_PREFIX;
+    private static final String SWITCH_VALUE_SEPARATOR = "=";
+
+    private static FutureTask<PrefetchedCommandLine> sPrefetch;
+    private static volatile PrefetchedCommandLine sCurrent;
+    private static long sWaitTimeMs;
+
+    private final String[] mArgs;
+    private final Map<String, String> mSwitches;
+
+    private PrefetchedCommandLine(String[] args) {
+        mArgs = args;
+        Map<String, String> switches = new HashMap<String, String>();
+        // args[0] is the program name.
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals(SWITCH_TERMINATOR)) break;
+            if (!arg.startsWith(SWITCH_PREFIX)) continue;
+            String[] parts = arg.substring(SWITCH_PREFIX.length()).split(SWITCH_VALUE_SEPARATOR, 2);
+            switches.put(parts[0], parts.length > 1 ? parts[1] : "");
+        }
+        mSwitches = Collections.unmodifiableMap(switches);
+    }
+
+    /**
+     * Starts reading the command-line file in the background.  Only the first call has an effect.
+     */
+    public static synchronized void startPrefetch(final String path) {
+        if (sPrefetch != null) return;
+        sPrefetch = new FutureTask<PrefetchedCommandLine>(new Callable<PrefetchedCommandLine>() {
+            @Override
+            public PrefetchedCommandLine call() {
+                return parse(readFile(path));
+            }
+        });
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(sPrefetch);
+    }
+
+    /**
+     * @return The current snapshot, waiting for the file to be read if needed.  Reads the file on
+     *         the calling thread if {@link #startPrefetch(String)} was not called.
+     */
+    public static PrefetchedCommandLine get() {
+        PrefetchedCommandLine current = sCurrent;
+        if (current != null) return current;
+        synchronized (PrefetchedCommandLine.class) {
+            if (sCurrent == null) {
+                startPrefetch(ContentShellApplication.COMMAND_LINE_FILE);
+                long startMs = SystemClock.elapsedRealtime();
+                sCurrent = awaitPrefetch();
+                sWaitTimeMs = SystemClock.elapsedRealtime() - startMs;
+                if (sWaitTimeMs > 0) Log.i(TAG, "Waited " + sWaitTimeMs + "ms for the command line");
+            }
+            return sCurrent;
+        }
+    }
+
+    /**
+     * Appends arguments to both {@link CommandLine} and the current snapshot.
+     */
+    public static synchronized void appendSwitchesAndArguments(String[] args) {
+        CommandLine.getInstance().appendSwitchesAndArguments(args);
+        sCurrent = get().withArguments(args);
+    }
+
+    /**
+     * @return How long {@link #get()} blocked for the file to be read.
+     */
+    public static long getWaitTimeMs() {
+        return sWaitTimeMs;
+    }
+
+    /**
+     * Builds a snapshot from the contents of a command-line file.
+     * @param contents The contents, or null if there is no file.
+     */
+    static PrefetchedCommandLine parse(char[] contents) {
+        String[] args = contents != null ? CommandLine.tokenizeQuotedAruments(contents) : null;
+        // Like CommandLine, keeps an empty program name when there is none.
+        if (args == null || args.length == 0) args = new String[] {""};
+        return new PrefetchedCommandLine(args);
+    }
+
+    /**
+     * @return A snapshot with all of the given arguments appended, as
+     *         {@link CommandLine#appendSwitchesAndArguments} does.
+     */
+    PrefetchedCommandLine withArguments(String[] args) {
+        if (args == null || args.length == 0) return this;
+        String[] merged = Arrays.copyOf(mArgs, mArgs.length + args.length);
+        System.arraycopy(args, 0, merged, mArgs.length, args.length);
+        return new PrefetchedCommandLine(merged);
+    }
+
+    /**
+     * @return The arguments, starting with the program name, to initialize CommandLine with.
+     */
+    public String[] getArgs() {
+        return mArgs.clone();
+    }
+
+    public boolean hasSwitch(String switchString) {
+        return mSwitches.containsKey(switchString);
+    }
+
+    /**
+     * @return The value of the switch, an empty string if it has none, or null if it is absent.
+     */
+    public String getSwitchValue(String switchString) {
+        return mSwitches.get(switchString);
+    }
+
+    private static PrefetchedCommandLine awaitPrefetch() {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return sPrefetch.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Log.w(TAG, "Unable to read the command line", e.getCause());
+                    return parse(null);
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    private static char[] readFile(String path) {
+        File file = new File(path);
+        if (file.length() > MAX_FILE_CHARS) {
+            Log.w(TAG, "Ignoring command line file " + path + " larger than " + MAX_FILE_CHARS);
+            return null;
+        }
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            char[] buffer = new char[(int) file.length()];
+            int length = 0;
+            int read;
+            while (length < buffer.length
+                    && (read = reader.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+            }
+            return Arrays.copyOf(buffer, length);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read " + path, e);
+            return null;
+        } finally {
+            StreamUtil.closeQuietly(reader);
+        }
+    }
+}
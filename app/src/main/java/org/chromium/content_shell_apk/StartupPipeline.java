@@ -0,0 +1,120 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.chromium.base.library_loader.LibraryLoader;
+import org.chromium.base.library_loader.LibraryProcessType;
+import org.chromium.base.library_loader.ProcessInitException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Overlaps the steps of browser startup that do not depend on each other and records how long
+ * each one takes.
+ *
+ * The native library is loaded on a background thread while the UI thread binds services and
+ * inflates the layout; {@link #awaitNativeLibrary()} joins the load only once native code is
+ * needed.  UI thread phases are delimited by {@link #markPhase(String)} calls.
+ */
+public class StartupPipeline {
+
+    private static final String TAG = "StartupPipeline";
+
+    private final long mStartTimeMs = SystemClock.elapsedRealtime();
+    private long mLastMarkTimeMs = mStartTimeMs;
+    private final List<String> mPhaseNames = new ArrayList<String>();
+    private final List<Long> mPhaseDurationsMs = new ArrayList<Long>();
+
+    private FutureTask<Void> mLibraryLoad;
+    private volatile long mLibraryLoadDurationMs = -1;
+    private long mLibraryWaitDurationMs = -1;
+
+    /**
+     * Starts loading and initializing the native library on a background thread.  The command
+     * line must be complete before this is called, since native code reads it on initialization.
+     */
+    public void startNativeLibraryLoad(final Context context) {
+        assert mLibraryLoad == null;
+        mLibraryLoad = new FutureTask<Void>(new Callable<Void>() {
+            @Override
+            public Void call() throws ProcessInitException {
+                long startTimeMs = SystemClock.elapsedRealtime();
+                LibraryLoader.get(LibraryProcessType.PROCESS_BROWSER)
+                        .ensureInitialized(context.getApplicationContext());
+                mLibraryLoadDurationMs = SystemClock.elapsedRealtime() - startTimeMs;
+                return null;
+            }
+        });
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(mLibraryLoad);
+    }
+
+    /**
+     * Blocks until the native library started by {@link #startNativeLibraryLoad(Context)} is
+     * loaded.  The time spent blocked is reported separately from the phases.
+     * @throws ProcessInitException If the library failed to load.
+     */
+    public void awaitNativeLibrary() throws ProcessInitException {
+        assert mLibraryLoad != null;
+        long waitStartTimeMs = SystemClock.elapsedRealtime();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    mLibraryLoad.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof ProcessInitException) throw (ProcessInitException) cause;
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    if (cause instanceof Error) throw (Error) cause;
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+            mLibraryWaitDurationMs = SystemClock.elapsedRealtime() - waitStartTimeMs;
+            mLastMarkTimeMs = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * Ends the current UI thread phase, attributing the time since the previous mark to it.
+     * @param name The name of the phase that just ended.
+     */
+    public void markPhase(String name) {
+        long nowMs = SystemClock.elapsedRealtime();
+        mPhaseNames.add(name);
+        mPhaseDurationsMs.add(nowMs - mLastMarkTimeMs);
+        mLastMarkTimeMs = nowMs;
+    }
+
+    /**
+     * Logs the duration of every phase recorded so far, the background library load and how long
+     * the UI thread was blocked waiting for it.
+     */
+    public void logTimings() {
+        StringBuilder builder = new StringBuilder("Startup timings:");
+        for (int i = 0; i < mPhaseNames.size(); i++) {
+            builder.append(' ').append(mPhaseNames.get(i)).append('=')
+                    .append(mPhaseDurationsMs.get(i)).append("ms");
+        }
+        builder.append(" | libraryLoad(background)=").append(mLibraryLoadDurationMs).append("ms")
+                .append(" libraryWait=").append(mLibraryWaitDurationMs).append("ms")
+                .append(" | total=").append(SystemClock.elapsedRealtime() - mStartTimeMs)
+                .append("ms");
+        Log.i(TAG, builder.toString());
+    }
+}
@@ -0,0 +1,204 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Printer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reports UI thread messages that run for longer than a threshold, with stack samples of the UI
+ * thread taken while they run.
+ *
+ * The main looper's message logging timestamps the start and end of every dispatch; the UI
+ * thread does nothing else.  A background thread checks once the running message would reach the
+ * threshold, and if it is still the same message, samples the UI thread's stack every
+ * {@link #SAMPLE_INTERVAL_MS} until it finishes.  The report goes to a {@link LongTaskReportRing}
+ * of {@link #MAX_REPORTS} files.  Enabling Java trace events takes over the looper's message
+ * logging, which stops the watchdog until it is started again.
+ */
+public class UiThreadWatchdog {
+
+    private static final String TAG = "UiThreadWatchdog";
+
+    public static final long DEFAULT_THRESHOLD_MS = 100;
+    public static final String REPORT_DIRECTORY = "ui_thread_long_tasks";
+    static final int MAX_REPORTS = 32;
+    static final long SAMPLE_INTERVAL_MS = 10;
+    // Reported as unfinished once this many samples have been taken, in case it never finishes.
+    static final int MAX_SAMPLES = 500;
+
+    // Looper logs ">>>>> Dispatching to <target> <callback>: <what>" before a message and
+    // "<<<<< Finished to ..." after.
+    private static final char DISPATCH_START = '>';
+    private static final String DISPATCH_PREFIX = ">>>>> Dispatching to ";
+
+    private final long mThresholdMs;
+    private final Thread mUiThread;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final LongTaskReportRing mRing;
+
+    // Written on the UI thread only.  The sequence is odd while a message runs; the other fields
+    // are written before it, so reading it first and last gives a consistent view.
+    private volatile int mDispatchSequence;
+    private volatile long mDispatchStartMs;
+    private volatile String mDispatchMessage;
+    // How long the last message over the threshold ran, and the sequence it finished with.
+    private volatile long mLongDispatchDurationMs;
+    private volatile int mLongDispatchSequence;
+
+    // Accessed on the watchdog thread only.
+    private int mCheckedSequence = -1;
+    private LongTaskReport mReport;
+    private long mReportStartMs;
+
+    private final Printer mPrinter = new Printer() {
+        @Override
+        public void println(String x) {
+            long nowMs = SystemClock.uptimeMillis();
+            if (x.charAt(0) == DISPATCH_START) {
+                mDispatchStartMs = nowMs;
+                mDispatchMessage = x;
+                mDispatchSequence++;
+            } else {
+                long durationMs = nowMs - mDispatchStartMs;
+                if (durationMs >= mThresholdMs) {
+                    mLongDispatchDurationMs = durationMs;
+                    mLongDispatchSequence = mDispatchSequence + 1;
+                }
+                mDispatchSequence++;
+            }
+        }
+    };
+
+    private final Runnable mCheckRunnable = new Runnable() {
+        @Override
+        public void run() {
+            check();
+        }
+    };
+
+    private final Runnable mSampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sample();
+        }
+    };
+
+    /**
+     * Starts watching the main looper.  Must be called on the UI thread.
+     * @param directory Where the reports are kept.
+     * @param thresholdMs How long a message has to run to be reported.
+     */
+    public static UiThreadWatchdog start(File directory, long thresholdMs) {
+        UiThreadWatchdog watchdog = new UiThreadWatchdog(directory, thresholdMs);
+        Looper.getMainLooper().setMessageLogging(watchdog.mPrinter);
+        watchdog.mHandler.post(watchdog.mCheckRunnable);
+        Log.i(TAG, "Reporting UI thread messages running for " + thresholdMs + "ms or more");
+        return watchdog;
+    }
+
+    /**
+     * @param value The switch value giving the threshold in milliseconds, or null for
+     *              {@link #DEFAULT_THRESHOLD_MS}.
+     */
+    public static long parseThresholdMs(String value) {
+        if (value == null || value.isEmpty()) return DEFAULT_THRESHOLD_MS;
+        try {
+            long thresholdMs = Long.parseLong(value);
+            if (thresholdMs > 0) return thresholdMs;
+        } catch (NumberFormatException e) {
+            // Fall through.
+        }
+        Log.w(TAG, "Invalid threshold " + value + ", using " + DEFAULT_THRESHOLD_MS + "ms");
+        return DEFAULT_THRESHOLD_MS;
+    }
+
+    private UiThreadWatchdog(File directory, long thresholdMs) {
+        mThresholdMs = thresholdMs;
+        mUiThread = Looper.getMainLooper().getThread();
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_FOREGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mRing = new LongTaskReportRing(directory, MAX_REPORTS);
+    }
+
+    /**
+     * Stops watching the main looper.  Must be called on the UI thread.
+     */
+    public void stop() {
+        Looper.getMainLooper().setMessageLogging(null);
+        mThread.quit();
+    }
+
+    /**
+     * Waits until the running message, if any, would reach the threshold, then starts sampling
+     * if it is still running.
+     */
+    private void check() {
+        int sequence = mDispatchSequence;
+        long startMs = mDispatchStartMs;
+        String message = mDispatchMessage;
+        // Idle, already checked, or moved on while being read.
+        if ((sequence & 1) == 0 || sequence == mCheckedSequence || sequence != mDispatchSequence) {
+            mHandler.postDelayed(mCheckRunnable, mThresholdMs);
+            return;
+        }
+        long nowMs = SystemClock.uptimeMillis();
+        long remainingMs = startMs + mThresholdMs - nowMs;
+        if (remainingMs > 0) {
+            mHandler.postDelayed(mCheckRunnable, remainingMs);
+            return;
+        }
+        mCheckedSequence = sequence;
+        mReportStartMs = startMs;
+        mReport = new LongTaskReport(message.startsWith(DISPATCH_PREFIX)
+                ? message.substring(DISPATCH_PREFIX.length()) : message,
+                startMs, System.currentTimeMillis() - (nowMs - startMs));
+        sample();
+    }
+
+    private void sample() {
+        StackTraceElement[] stack = mUiThread.getStackTrace();
+        long nowMs = SystemClock.uptimeMillis();
+        if (mDispatchSequence != mCheckedSequence) {
+            // The stack may already be that of a later message.  Unless another long one has
+            // finished since, the UI thread recorded how long this one ran.
+            long durationMs = mLongDispatchSequence == mCheckedSequence + 1
+                    ? mLongDispatchDurationMs : nowMs - mReportStartMs;
+            finishReport(durationMs);
+            return;
+        }
+        mReport.addSample(nowMs, stack);
+        if (mReport.getSampleCount() == MAX_SAMPLES) {
+            // Still reported if the UI thread never recovers; the check waits for the next one.
+            finishReport(-1);
+            return;
+        }
+        mHandler.postDelayed(mSampleRunnable, SAMPLE_INTERVAL_MS);
+    }
+
+    private void finishReport(long durationMs) {
+        LongTaskReport report = mReport;
+        mReport = null;
+        report.setDurationMs(durationMs);
+        try {
+            File file = mRing.write(report.toJson());
+            Log.w(TAG, "UI thread ran " + report.getMessage() + " for "
+                    + (durationMs >= 0 ? durationMs + "ms" : "too long") + ", see " + file);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write a long task report", e);
+        }
+        mHandler.postDelayed(mCheckRunnable, mThresholdMs);
+    }
+}
@@ -0,0 +1,22 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import java.util.List;
+
+/**
+ * Executes several compatible {@link WorkspotRequest}s as a single call, for example one backend
+ * round-trip instead of many.
+ *
+ * @param <T> The type of the result produced by each request.
+ */
+public interface WorkspotBatcher<T> {
+    /**
+     * Executes the requests together on a worker thread.
+     * @param requests The requests in the batch, in submission order.
+     * @return One result per request, in the same order.
+     */
+    List<T> executeBatch(List<WorkspotRequest<T>> requests) throws Exception;
+}
@@ -0,0 +1,24 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+/**
+ * Receives the outcome of a {@link WorkspotRequest}.  Exactly one of the methods is called, once.
+ *
+ * @param <T> The type of the result produced by the request.
+ */
+public interface WorkspotCallback<T> {
+    /**
+     * @param result The value returned by {@link WorkspotRequest#execute()}.
+     */
+    void onSuccess(T result);
+
+    /**
+     * @param error The exception thrown by the request, a
+     *              {@link java.util.concurrent.CancellationException} if it was cancelled or a
+     *              {@link java.util.concurrent.TimeoutException} if its deadline passed.
+     */
+    void onFailure(Throwable error);
+}
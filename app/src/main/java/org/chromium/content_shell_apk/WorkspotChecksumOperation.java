@@ -0,0 +1,33 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link WorkspotService#OPERATION_CHECKSUM}: responds with the sum of the payload's big-endian
+ * longs, ignoring a trailing partial long, as 8 bytes.  Reads every page of the payload, which
+ * makes it suited to measuring transfer throughput.
+ */
+class WorkspotChecksumOperation implements WorkspotRemoteOperation {
+
+    @Override
+    public ByteBuffer execute(ByteBuffer payload) {
+        ByteBuffer result = ByteBuffer.allocate(8);
+        result.putLong(0, checksum(payload));
+        return result;
+    }
+
+    /**
+     * @return The checksum of the payload from its position to its limit.
+     */
+    static long checksum(ByteBuffer payload) {
+        ByteBuffer longs = payload.duplicate().order(ByteOrder.BIG_ENDIAN);
+        long sum = 0;
+        while (longs.remaining() >= 8) sum += longs.getLong();
+        return sum;
+    }
+}
@@ -0,0 +1,208 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The pending result of a {@link WorkspotRequest}.
+ *
+ * Callbacks registered with {@link #addCallback} are invoked as soon as the result is set, so
+ * callers never need to poll.  The blocking {@link Future} methods are also available for worker
+ * threads.  A callback that throws is logged and does not keep the others from running.
+ *
+ * @param <T> The type of the result.
+ */
+public class WorkspotFuture<T> implements Future<T> {
+
+    // Also compiled into the JVM benchmarks, which have no android.util.Log; on Android this
+    // logs to logcat.
+    private static final Logger LOGGER = Logger.getLogger("WorkspotFuture");
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_SUCCEEDED = 1;
+    private static final int STATE_FAILED = 2;
+    private static final int STATE_CANCELLED = 3;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Object mLock = new Object();
+    private int mState = STATE_PENDING;
+    private T mResult;
+    private Throwable mError;
+    private List<Runnable> mListeners = new ArrayList<Runnable>();
+    private Thread mRunningThread;
+
+    /**
+     * Registers a callback that runs on the thread completing the future, or immediately on the
+     * calling thread if it has already completed.
+     */
+    public void addCallback(WorkspotCallback<? super T> callback) {
+        addCallback(callback, DIRECT_EXECUTOR);
+    }
+
+    /**
+     * Registers a callback that is dispatched to {@code executor} once the future completes.
+     */
+    public void addCallback(final WorkspotCallback<? super T> callback, final Executor executor) {
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(callback);
+                    }
+                });
+            }
+        };
+        synchronized (mLock) {
+            if (mState == STATE_PENDING) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * Completes the future successfully.
+     * @return Whether this call completed the future.
+     */
+    public boolean set(T result) {
+        return complete(STATE_SUCCEEDED, result, null);
+    }
+
+    /**
+     * Completes the future with an error.
+     * @return Whether this call completed the future.
+     */
+    public boolean setException(Throwable error) {
+        assert error != null;
+        return complete(error instanceof CancellationException ? STATE_CANCELLED : STATE_FAILED,
+                null, error);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!complete(STATE_CANCELLED, null, new CancellationException())) return false;
+        if (mayInterruptIfRunning) interruptRunningThread();
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        synchronized (mLock) {
+            return mState == STATE_CANCELLED;
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        synchronized (mLock) {
+            return mState != STATE_PENDING;
+        }
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        synchronized (mLock) {
+            while (mState == STATE_PENDING) mLock.wait();
+            return getResultLocked();
+        }
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (mLock) {
+            while (mState == STATE_PENDING) {
+                long remainingNanos = deadlineNanos - System.nanoTime();
+                if (remainingNanos <= 0) throw new TimeoutException();
+                TimeUnit.NANOSECONDS.timedWait(mLock, remainingNanos);
+            }
+            return getResultLocked();
+        }
+    }
+
+    /**
+     * Records the thread executing the request so that cancellation can interrupt it.
+     * @return False if the future has already completed and the request should not run.
+     */
+    boolean setRunningThread(Thread thread) {
+        synchronized (mLock) {
+            if (mState != STATE_PENDING && thread != null) return false;
+            mRunningThread = thread;
+            return true;
+        }
+    }
+
+    /**
+     * Interrupts the thread executing the request, if any.
+     */
+    void interruptRunningThread() {
+        synchronized (mLock) {
+            if (mRunningThread != null) mRunningThread.interrupt();
+        }
+    }
+
+    private boolean complete(int state, T result, Throwable error) {
+        List<Runnable> listeners;
+        synchronized (mLock) {
+            if (mState != STATE_PENDING) return false;
+            mState = state;
+            mResult = result;
+            mError = error;
+            listeners = mListeners;
+            mListeners = null;
+            mLock.notifyAll();
+        }
+        for (Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Callback threw", e);
+            }
+        }
+        return true;
+    }
+
+    private void deliver(WorkspotCallback<? super T> callback) {
+        T result;
+        Throwable error;
+        synchronized (mLock) {
+            result = mResult;
+            error = mError;
+        }
+        if (error == null) {
+            callback.onSuccess(result);
+        } else {
+            callback.onFailure(error);
+        }
+    }
+
+    private T getResultLocked() throws ExecutionException {
+        if (mState == STATE_CANCELLED) {
+            throw (CancellationException) new CancellationException().initCause(mError);
+        }
+        if (mState == STATE_FAILED) throw new ExecutionException(mError);
+        return mResult;
+    }
+}
@@ -0,0 +1,181 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.MemoryFile;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+
+import org.chromium.base.StreamUtil;
+
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The message protocol between {@link WorkspotRemoteClient} and {@link WorkspotService}.
+ *
+ * A request is a {@link Message} with {@link #MSG_REQUEST}, the request id in arg1, the
+ * {@link WorkspotRequest.Priority} ordinal in arg2 and the operation name and payload in its
+ * data; the response carries the same id.  Payloads up to the inline limit travel in the Binder
+ * transaction.  Larger ones are written once to an ashmem region through {@link MemoryFile},
+ * whose descriptor is sent instead and mapped by the receiver without another copy, or read into
+ * a buffer where the platform cannot map it; this also keeps them out of the Binder transaction
+ * buffer, which is limited to 1MB per process.  Ashmem needs no writable directory, so isolated
+ * processes can send them too.
+ */
+final class WorkspotIpc {
+
+    static final int MSG_REQUEST = 1;
+    static final int MSG_RESPONSE = 2;
+
+    static final String KEY_OPERATION = "operation";
+    static final String KEY_ERROR = "error";
+    private static final String KEY_PAYLOAD = "payload";
+    private static final String KEY_PAYLOAD_FD = "payloadFd";
+    private static final String KEY_PAYLOAD_LENGTH = "payloadLength";
+
+    /** Payloads above this size are sent through shared memory. */
+    static final int DEFAULT_INLINE_PAYLOAD_LIMIT_BYTES = 16 * 1024;
+
+    // The size of the chunks a shared payload is written in.
+    private static final int SHARED_WRITE_CHUNK_BYTES = 64 * 1024;
+
+    private WorkspotIpc() {}
+
+    /**
+     * @param length The size of the payload.
+     * @param inlineLimitBytes The largest payload to send inline; negative to share every
+     *                         non-empty payload.
+     * @return Whether a payload is sent in the Binder transaction rather than shared memory.
+     */
+    static boolean isSentInline(int length, int inlineLimitBytes) {
+        // An empty region cannot be created, and there would be nothing to share.
+        return length == 0 || length <= inlineLimitBytes;
+    }
+
+    /**
+     * Adds a payload to the data of a message.
+     * @param payload The payload, read from its position to its limit.
+     * @param inlineLimitBytes The largest payload to send inline, see {@link #isSentInline}.
+     * @return The descriptor of the shared payload, to be passed to {@link #send}, or null if it
+     *         was sent inline.
+     */
+    static ParcelFileDescriptor putPayload(Bundle data, ByteBuffer payload, int inlineLimitBytes)
+            throws IOException {
+        int length = payload.remaining();
+        if (isSentInline(length, inlineLimitBytes)) {
+            byte[] bytes = new byte[length];
+            payload.duplicate().get(bytes);
+            data.putByteArray(KEY_PAYLOAD, bytes);
+            return null;
+        }
+        MemoryFile memoryFile = new MemoryFile("workspot", length);
+        try {
+            ByteBuffer source = payload.duplicate();
+            byte[] chunk = new byte[Math.min(length, SHARED_WRITE_CHUNK_BYTES)];
+            int offset = 0;
+            while (source.hasRemaining()) {
+                int count = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, count);
+                memoryFile.writeBytes(chunk, 0, offset, count);
+                offset += count;
+            }
+            // The duplicate keeps the region alive after the memory file is closed.
+            ParcelFileDescriptor descriptor =
+                    ParcelFileDescriptor.dup(getFileDescriptor(memoryFile));
+            data.putParcelable(KEY_PAYLOAD_FD, descriptor);
+            data.putInt(KEY_PAYLOAD_LENGTH, length);
+            return descriptor;
+        } finally {
+            memoryFile.close();
+        }
+    }
+
+    /**
+     * @return The descriptor of the ashmem region of a memory file, which is not public API but
+     *         available on every release this runs on.
+     */
+    private static FileDescriptor getFileDescriptor(MemoryFile memoryFile) throws IOException {
+        try {
+            return (FileDescriptor) MemoryFile.class.getMethod("getFileDescriptor")
+                    .invoke(memoryFile);
+        } catch (NoSuchMethodException e) {
+            throw new IOException("Unable to share a memory file", e);
+        } catch (IllegalAccessException e) {
+            throw new IOException("Unable to share a memory file", e);
+        } catch (InvocationTargetException e) {
+            throw new IOException("Unable to share a memory file", e.getCause());
+        }
+    }
+
+    /**
+     * Reads the payload of a message, mapping it if it was sent through shared memory and the
+     * platform can map it.  Takes ownership of the descriptor.
+     * @return The payload, or an empty buffer if there is none.
+     */
+    static ByteBuffer getPayload(Bundle data) throws IOException {
+        byte[] bytes = data.getByteArray(KEY_PAYLOAD);
+        if (bytes != null) return ByteBuffer.wrap(bytes);
+        ParcelFileDescriptor descriptor = data.getParcelable(KEY_PAYLOAD_FD);
+        if (descriptor == null) return ByteBuffer.allocate(0);
+        int length = data.getInt(KEY_PAYLOAD_LENGTH);
+        // Closes the descriptor along with the stream; the mapping stays valid after that.
+        FileInputStream stream = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+        try {
+            FileChannel channel = stream.getChannel();
+            try {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            } catch (IOException e) {
+                // From N, FileChannel checks the mapping against the file size, which is 0 for
+                // ashmem, and refuses to map a read-only channel past it.
+                return read(channel, length);
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Reads a shared payload through its descriptor, for when it cannot be mapped.
+     */
+    private static ByteBuffer read(FileChannel channel, int length) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocateDirect(length);
+        while (payload.hasRemaining()) {
+            if (channel.read(payload, payload.position()) < 0) {
+                throw new EOFException("Shared payload ends after " + payload.position()
+                        + " of " + length + " bytes");
+            }
+        }
+        payload.flip();
+        return payload;
+    }
+
+    /**
+     * Sends a message, then closes the descriptor of its shared payload unless the receiver is in
+     * this process, in which case it receives that same descriptor and closes it itself.
+     */
+    static void send(Messenger target, Message message, ParcelFileDescriptor attached)
+            throws RemoteException {
+        try {
+            target.send(message);
+        } catch (RemoteException e) {
+            if (attached != null) StreamUtil.closeQuietly(attached);
+            throw e;
+        }
+        // Binder has duplicated the descriptor into the receiving process by now.
+        if (attached != null && !(target.getBinder() instanceof Binder)) {
+            StreamUtil.closeQuietly(attached);
+        }
+    }
+}
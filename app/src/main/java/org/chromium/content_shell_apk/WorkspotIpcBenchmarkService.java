@@ -0,0 +1,167 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import android.app.IntentService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.chromium.content_shell.ReportFileWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Measures the throughput of {@link WorkspotRemoteClient} requests for 1KB, 64KB and 4MB
+ * payloads, sent both inline in the Binder transaction and through ashmem shared memory, and
+ * writes the results to {@link #REPORT_FILE} in the files directory.
+ *
+ * Runs in a process of its own, declared in AndroidManifest.xml, so that requests cross a real
+ * process boundary; within one process Binder calls are plain method calls.
+ */
+public class WorkspotIpcBenchmarkService extends IntentService {
+
+    private static final String TAG = "WorkspotIpcBenchmark";
+
+    public static final String REPORT_FILE = "workspot_ipc_benchmark.json";
+
+    private static final int[] PAYLOAD_SIZES = {1024, 64 * 1024, 4 * 1024 * 1024};
+    private static final int[] ITERATIONS = {500, 200, 20};
+    private static final int WARM_UP_ITERATIONS = 5;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    public WorkspotIpcBenchmarkService() {
+        super(TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        // Handed over when started with WorkspotRemoteClient.startServiceWithBinder(), which is
+        // the path isolated processes take.
+        IBinder handedOverBinder = WorkspotRemoteClient.getServiceBinder(intent);
+        if (handedOverBinder != null) {
+            runWithBinder(handedOverBinder);
+            return;
+        }
+        // Holds the binder until this thread takes it, even if it arrives first.
+        final ArrayBlockingQueue<IBinder> binders = new ArrayBlockingQueue<IBinder>(1);
+        ServiceConnection connection = new ServiceConnection() {
+            @Override
+            public void onServiceConnected(ComponentName name, IBinder service) {
+                binders.offer(service);
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {}
+        };
+        bindService(WorkspotRemoteClient.createBindIntent(this), connection,
+                Context.BIND_AUTO_CREATE);
+        try {
+            IBinder binder = binders.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (binder == null) {
+                Log.e(TAG, "Timed out binding WorkspotService");
+                return;
+            }
+            runWithBinder(binder);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            unbindService(connection);
+        }
+    }
+
+    private void runWithBinder(IBinder binder) {
+        WorkspotRemoteClient client = null;
+        try {
+            client = new WorkspotRemoteClient(binder);
+            ReportFileWriter.write(TAG, "Workspot IPC benchmark",
+                    new File(getFilesDir(), REPORT_FILE), run(client));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RemoteException e) {
+            Log.e(TAG, "WorkspotService died", e);
+        } finally {
+            if (client != null) client.close();
+        }
+    }
+
+    private String run(WorkspotRemoteClient client) throws InterruptedException {
+        StringBuilder json = new StringBuilder("{\"results\":[");
+        for (int i = 0; i < PAYLOAD_SIZES.length; i++) {
+            ByteBuffer payload = createPayload(PAYLOAD_SIZES[i]);
+            for (int mode = 0; mode < 2; mode++) {
+                boolean sharedMemory = mode == 1;
+                // Forces every payload down one path.
+                client.setInlinePayloadLimitBytes(sharedMemory ? -1 : Integer.MAX_VALUE);
+                if (i > 0 || mode > 0) json.append(',');
+                json.append("{\"payloadBytes\":").append(PAYLOAD_SIZES[i])
+                        .append(",\"transport\":\"")
+                        .append(sharedMemory ? "shared_memory" : "binder").append('"');
+                try {
+                    measure(client, payload, WARM_UP_ITERATIONS);
+                    long elapsedNanos = measure(client, payload, ITERATIONS[i]);
+                    double seconds = elapsedNanos / 1e9;
+                    double megabytesPerSecond =
+                            (double) PAYLOAD_SIZES[i] * ITERATIONS[i] / (1024 * 1024) / seconds;
+                    json.append(",\"iterations\":").append(ITERATIONS[i])
+                            .append(",\"meanLatencyUs\":")
+                            .append(elapsedNanos / 1000 / ITERATIONS[i])
+                            .append(",\"throughputMBps\":")
+                            .append(String.format(Locale.US, "%.1f", megabytesPerSecond));
+                    Log.i(TAG, PAYLOAD_SIZES[i] + " bytes via "
+                            + (sharedMemory ? "shared memory" : "binder") + ": "
+                            + String.format(Locale.US, "%.1f", megabytesPerSecond) + "MB/s");
+                } catch (ExecutionException e) {
+                    // Expected for inline payloads that exceed the transaction buffer.
+                    json.append(",\"error\":\"").append(e.getCause().getClass().getSimpleName())
+                            .append('"');
+                    Log.i(TAG, PAYLOAD_SIZES[i] + " bytes via "
+                            + (sharedMemory ? "shared memory" : "binder") + " failed",
+                            e.getCause());
+                } catch (TimeoutException e) {
+                    json.append(",\"error\":\"timeout\"");
+                }
+                json.append('}');
+            }
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Sends the payload the given number of times, one request at a time.
+     * @return The total elapsed time.
+     */
+    private static long measure(WorkspotRemoteClient client, ByteBuffer payload, int iterations)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long expectedChecksum = WorkspotChecksumOperation.checksum(payload);
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < iterations; i++) {
+            ByteBuffer response = client.invoke(WorkspotService.OPERATION_CHECKSUM, payload,
+                    WorkspotRequest.Priority.INTERACTIVE).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (response.getLong(0) != expectedChecksum) {
+                throw new ExecutionException(new IOException("Payload corrupted in transit"));
+            }
+        }
+        return SystemClock.elapsedRealtimeNanos() - startNanos;
+    }
+
+    private static ByteBuffer createPayload(int size) {
+        ByteBuffer payload = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) payload.put(i, (byte) (i * 31));
+        return payload;
+    }
+}
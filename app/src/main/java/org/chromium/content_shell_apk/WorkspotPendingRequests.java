@@ -0,0 +1,102 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The requests {@link WorkspotRemoteClient} awaits responses for, by request id.  Thread safe.
+ */
+class WorkspotPendingRequests<T> {
+
+    private final Object mLock = new Object();
+    // Guarded by mLock.
+    private final Map<Integer, WorkspotFuture<T>> mFutures =
+            new HashMap<Integer, WorkspotFuture<T>>();
+    private int mNextRequestId;
+    private Throwable mClosedError;
+
+    /**
+     * Starts awaiting the response to a request.  The future is forgotten once it fails or is
+     * cancelled, and failed right away if this is closed.
+     * @return The id to send the request with, or -1 if this is closed.
+     */
+    int add(WorkspotFuture<T> future) {
+        final int requestId;
+        Throwable closedError;
+        synchronized (mLock) {
+            closedError = mClosedError;
+            if (closedError == null) {
+                requestId = mNextRequestId++;
+                mFutures.put(requestId, future);
+            } else {
+                requestId = -1;
+            }
+        }
+        if (closedError != null) {
+            future.setException(closedError);
+            return -1;
+        }
+        future.addCallback(new WorkspotCallback<T>() {
+            @Override
+            public void onSuccess(T result) {}
+
+            @Override
+            public void onFailure(Throwable error) {
+                remove(requestId);
+            }
+        });
+        return requestId;
+    }
+
+    /**
+     * Stops awaiting the response to a request, once it arrived.
+     * @return The future of the request, or null if nobody awaits it anymore.
+     */
+    WorkspotFuture<T> remove(int requestId) {
+        synchronized (mLock) {
+            return mFutures.remove(requestId);
+        }
+    }
+
+    /**
+     * Fails every awaited request.
+     * @return The number of requests failed.
+     */
+    int failAll(Throwable error) {
+        List<WorkspotFuture<T>> futures;
+        synchronized (mLock) {
+            futures = new ArrayList<WorkspotFuture<T>>(mFutures.values());
+            mFutures.clear();
+        }
+        for (WorkspotFuture<T> future : futures) future.setException(error);
+        return futures.size();
+    }
+
+    /**
+     * Fails every awaited request and every one added later.
+     * @return False if this was already closed.
+     */
+    boolean close(Throwable error) {
+        synchronized (mLock) {
+            if (mClosedError != null) return false;
+            mClosedError = error;
+        }
+        failAll(error);
+        return true;
+    }
+
+    /**
+     * @return The number of requests awaiting a response.
+     */
+    int size() {
+        synchronized (mLock) {
+            return mFutures.size();
+        }
+    }
+}
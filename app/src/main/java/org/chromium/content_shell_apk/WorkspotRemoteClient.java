@@ -0,0 +1,202 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sends {@link WorkspotRemoteOperation} requests to {@link WorkspotService} from another process,
+ * through the binder returned for {@link WorkspotService#ACTION_BIND_REMOTE}.  Isolated processes
+ * cannot bind, so services running in one are started with
+ * {@link #startServiceWithBinder} and read the binder with {@link #getServiceBinder}.
+ *
+ * Responses are received on a thread of the client, so waiting for them on the UI thread does
+ * not deadlock.  Payloads above the inline limit are sent through shared memory, see
+ * {@link WorkspotIpc}.  Cancelling a returned future only stops waiting for the response.
+ */
+public class WorkspotRemoteClient {
+
+    private static final String TAG = "WorkspotRemoteClient";
+
+    /**
+     * The extra holding the {@link Messenger} of the service, see
+     * {@link #startServiceWithBinder}.
+     */
+    public static final String EXTRA_SERVICE_MESSENGER =
+            "org.chromium.content_shell.extra.WORKSPOT_MESSENGER";
+
+    private final IBinder mServiceBinder;
+    private final Messenger mService;
+    private final HandlerThread mReplyThread;
+    private final Messenger mReplyMessenger;
+    private volatile int mInlinePayloadLimitBytes = WorkspotIpc.DEFAULT_INLINE_PAYLOAD_LIMIT_BYTES;
+    private final WorkspotPendingRequests<ByteBuffer> mPendingRequests =
+            new WorkspotPendingRequests<ByteBuffer>();
+
+    private final IBinder.DeathRecipient mDeathRecipient = new IBinder.DeathRecipient() {
+        @Override
+        public void binderDied() {
+            failPendingRequests(new RemoteException());
+        }
+    };
+
+    /**
+     * @return An intent to bind {@link WorkspotService} with for the binder this client needs.
+     */
+    public static Intent createBindIntent(Context context) {
+        return new Intent(context, WorkspotService.class)
+                .setAction(WorkspotService.ACTION_BIND_REMOTE);
+    }
+
+    /**
+     * Starts a service with the binder this client needs in {@link #EXTRA_SERVICE_MESSENGER}, for
+     * services that cannot bind {@link WorkspotService} themselves because they run in an
+     * isolated process.  Starts {@link WorkspotService} as well, so that it outlives the
+     * temporary binding made to get the binder.
+     */
+    public static void startServiceWithBinder(final Context context, final Intent serviceIntent) {
+        context.startService(new Intent(context, WorkspotService.class));
+        context.bindService(createBindIntent(context), new ServiceConnection() {
+            @Override
+            public void onServiceConnected(ComponentName name, IBinder service) {
+                context.startService(new Intent(serviceIntent)
+                        .putExtra(EXTRA_SERVICE_MESSENGER, new Messenger(service)));
+                context.unbindService(this);
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {}
+        }, Context.BIND_AUTO_CREATE);
+    }
+
+    /**
+     * @return The binder handed over by {@link #startServiceWithBinder}, or null if there is none.
+     */
+    public static IBinder getServiceBinder(Intent intent) {
+        Messenger messenger = intent.getParcelableExtra(EXTRA_SERVICE_MESSENGER);
+        return messenger != null ? messenger.getBinder() : null;
+    }
+
+    /**
+     * @param serviceBinder The binder returned for {@link #createBindIntent(Context)} or handed
+     *                      over through {@link #startServiceWithBinder}.
+     */
+    public WorkspotRemoteClient(IBinder serviceBinder) throws RemoteException {
+        mServiceBinder = serviceBinder;
+        mService = new Messenger(serviceBinder);
+        mReplyThread = new HandlerThread(TAG);
+        mReplyThread.start();
+        mReplyMessenger = new Messenger(new Handler(mReplyThread.getLooper(),
+                new Handler.Callback() {
+                    @Override
+                    public boolean handleMessage(Message message) {
+                        onResponse(message);
+                        return true;
+                    }
+                }));
+        serviceBinder.linkToDeath(mDeathRecipient, 0);
+    }
+
+    /**
+     * Sets the size above which payloads are sent through shared memory rather than in the
+     * Binder transaction.
+     */
+    public void setInlinePayloadLimitBytes(int inlinePayloadLimitBytes) {
+        mInlinePayloadLimitBytes = inlinePayloadLimitBytes;
+    }
+
+    /**
+     * Sends a request to run a remote operation.
+     * @param operation The name the operation was registered with.
+     * @param payload The payload, read from its position to its limit.
+     * @return The future completed with the response payload.
+     */
+    public WorkspotFuture<ByteBuffer> invoke(String operation, ByteBuffer payload,
+            WorkspotRequest.Priority priority) {
+        WorkspotFuture<ByteBuffer> future = new WorkspotFuture<ByteBuffer>();
+        int requestId = mPendingRequests.add(future);
+        // Failed already when the client is closed.
+        if (requestId < 0) return future;
+
+        Message message = Message.obtain(null, WorkspotIpc.MSG_REQUEST);
+        message.arg1 = requestId;
+        message.arg2 = priority.ordinal();
+        message.replyTo = mReplyMessenger;
+        Bundle data = message.getData();
+        data.putString(WorkspotIpc.KEY_OPERATION, operation);
+        try {
+            ParcelFileDescriptor attached = WorkspotIpc.putPayload(
+                    data, payload, mInlinePayloadLimitBytes);
+            WorkspotIpc.send(mService, message, attached);
+        } catch (IOException e) {
+            future.setException(e);
+        } catch (RemoteException e) {
+            // Also thrown when an inline payload does not fit in the transaction buffer.
+            future.setException(e);
+        }
+        return future;
+    }
+
+    /**
+     * Stops receiving responses.  Pending requests fail.
+     */
+    public void close() {
+        if (!mPendingRequests.close(new IllegalStateException("Client is closed"))) return;
+        mServiceBinder.unlinkToDeath(mDeathRecipient, 0);
+        mReplyThread.quit();
+    }
+
+    private void onResponse(Message message) {
+        if (message.what != WorkspotIpc.MSG_RESPONSE) return;
+        WorkspotFuture<ByteBuffer> future = mPendingRequests.remove(message.arg1);
+        Bundle data = message.getData();
+        String error = data.getString(WorkspotIpc.KEY_ERROR);
+        ByteBuffer payload;
+        try {
+            // Read even when nobody waits for it, which releases a shared payload.
+            payload = error == null ? WorkspotIpc.getPayload(data) : null;
+        } catch (IOException e) {
+            if (future != null) future.setException(e);
+            return;
+        }
+        if (future == null) return;
+        if (error != null) {
+            future.setException(new RemoteOperationException(error));
+        } else {
+            future.set(payload);
+        }
+    }
+
+    private void failPendingRequests(Throwable error) {
+        int count = mPendingRequests.failAll(error);
+        if (count > 0) Log.w(TAG, "Failed " + count + " requests", error);
+    }
+
+    /**
+     * The failure of a remote operation, carrying the description of the error it threw.
+     */
+    public static class RemoteOperationException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        RemoteOperationException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives {@link WorkspotIpc} requests from other processes on behalf of
+ * {@link WorkspotService}, runs the named {@link WorkspotRemoteOperation} on the service's
+ * executor and sends back its response.
+ */
+class WorkspotRemoteDispatcher extends Handler {
+
+    private static final String TAG = "WorkspotRemoteDispatcher";
+
+    private final WorkspotService mService;
+    private final WorkspotRemoteOperations mOperations = new WorkspotRemoteOperations();
+    private final Messenger mMessenger = new Messenger(this);
+
+    WorkspotRemoteDispatcher(WorkspotService service) {
+        super(Looper.getMainLooper());
+        mService = service;
+    }
+
+    Messenger getMessenger() {
+        return mMessenger;
+    }
+
+    void registerOperation(String name, WorkspotRemoteOperation operation) {
+        mOperations.register(name, operation);
+    }
+
+    @Override
+    public void handleMessage(Message message) {
+        if (message.what != WorkspotIpc.MSG_REQUEST || message.replyTo == null) {
+            Log.w(TAG, "Ignoring unexpected message " + message.what);
+            return;
+        }
+        // The message is recycled once this returns.
+        final Messenger replyTo = message.replyTo;
+        final int requestId = message.arg1;
+        Bundle data = message.getData();
+        ByteBuffer payload;
+        try {
+            // Read even if the request is invalid, which releases a shared payload.
+            payload = WorkspotIpc.getPayload(data);
+        } catch (IOException e) {
+            sendError(replyTo, requestId, "Unable to read the payload: " + e);
+            return;
+        }
+        WorkspotRequest<ByteBuffer> request = mOperations.createRequest(
+                data.getString(WorkspotIpc.KEY_OPERATION), message.arg2, payload);
+        if (request == null) {
+            sendError(replyTo, requestId, "Unknown operation or priority");
+            return;
+        }
+        mService.invoke(request).addCallback(new WorkspotCallback<ByteBuffer>() {
+            @Override
+            public void onSuccess(ByteBuffer result) {
+                sendResult(replyTo, requestId, result);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                sendError(replyTo, requestId, error.toString());
+            }
+        });
+    }
+
+    private void sendResult(Messenger replyTo, int requestId, ByteBuffer result) {
+        Message reply = Message.obtain(null, WorkspotIpc.MSG_RESPONSE);
+        reply.arg1 = requestId;
+        ParcelFileDescriptor attached;
+        try {
+            attached = WorkspotIpc.putPayload(reply.getData(),
+                    result != null ? result : ByteBuffer.allocate(0),
+                    WorkspotIpc.DEFAULT_INLINE_PAYLOAD_LIMIT_BYTES);
+        } catch (IOException e) {
+            sendError(replyTo, requestId, "Unable to write the response: " + e);
+            return;
+        }
+        try {
+            WorkspotIpc.send(replyTo, reply, attached);
+        } catch (RemoteException e) {
+            Log.w(TAG, "Client of request " + requestId + " is gone", e);
+        }
+    }
+
+    private void sendError(Messenger replyTo, int requestId, String error) {
+        Message reply = Message.obtain(null, WorkspotIpc.MSG_RESPONSE);
+        reply.arg1 = requestId;
+        reply.getData().putString(WorkspotIpc.KEY_ERROR, error);
+        try {
+            WorkspotIpc.send(replyTo, reply, null);
+        } catch (RemoteException e) {
+            Log.w(TAG, "Client of request " + requestId + " is gone", e);
+        }
+    }
+}
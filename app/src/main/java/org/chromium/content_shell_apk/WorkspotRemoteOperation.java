@@ -0,0 +1,22 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An operation {@link WorkspotService} performs for clients in other processes, which cannot
+ * send {@link WorkspotRequest} objects.  Registered by name with
+ * {@link WorkspotService#registerRemoteOperation}.
+ */
+public interface WorkspotRemoteOperation {
+    /**
+     * Runs on a {@link WorkspotService} worker thread.
+     * @param payload The payload sent by the client.  It may be a read-only mapping of shared
+     *                memory and must not be retained after returning.
+     * @return The payload of the response.
+     */
+    ByteBuffer execute(ByteBuffer payload) throws Exception;
+}
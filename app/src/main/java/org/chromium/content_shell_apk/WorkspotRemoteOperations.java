@@ -0,0 +1,42 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@link WorkspotRemoteOperation}s {@link WorkspotRemoteDispatcher} runs, by name, and the
+ * translation of a remote request into a {@link WorkspotRequest}.  Thread safe.
+ */
+class WorkspotRemoteOperations {
+
+    private final Map<String, WorkspotRemoteOperation> mOperations =
+            new ConcurrentHashMap<String, WorkspotRemoteOperation>();
+
+    void register(String name, WorkspotRemoteOperation operation) {
+        mOperations.put(name, operation);
+    }
+
+    /**
+     * @param name The name of the operation, as sent by the client.
+     * @param priority The ordinal of the {@link WorkspotRequest.Priority}, as sent by the client.
+     * @param payload The payload, passed to the operation.
+     * @return A request running the operation, or null if the operation or priority is unknown.
+     */
+    WorkspotRequest<ByteBuffer> createRequest(String name, int priority,
+            final ByteBuffer payload) {
+        final WorkspotRemoteOperation operation = name != null ? mOperations.get(name) : null;
+        WorkspotRequest.Priority[] priorities = WorkspotRequest.Priority.values();
+        if (operation == null || priority < 0 || priority >= priorities.length) return null;
+        return new WorkspotRequest<ByteBuffer>(priorities[priority]) {
+            @Override
+            public ByteBuffer execute() throws Exception {
+                return operation.execute(payload);
+            }
+        };
+    }
+}
@@ -0,0 +1,124 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A unit of work executed by {@link WorkspotService}.
+ *
+ * @param <T> The type of the result produced by the request.
+ */
+public abstract class WorkspotRequest<T> {
+
+    /**
+     * Scheduling priority of a request.  Queued requests are started in this order, and in
+     * submission order within the same priority.
+     */
+    public enum Priority {
+        // Work the user is actively waiting on.
+        INTERACTIVE,
+        // Work the user is likely to need soon.
+        PREFETCH,
+        // Work nobody is waiting on.
+        BACKGROUND
+    }
+
+    // Size assumed for cached responses when a request does not estimate its own.
+    public static final int DEFAULT_RESPONSE_SIZE_BYTES = 1024;
+
+    private final Priority mPriority;
+    private long mTimeoutMs;
+
+    protected WorkspotRequest(Priority priority) {
+        mPriority = priority;
+    }
+
+    /**
+     * Performs the request on a {@link WorkspotService} worker thread.  Implementations should
+     * return promptly once the thread is interrupted, which happens on cancellation or when the
+     * deadline passes.
+     * @return The result delivered to the request's callbacks.
+     */
+    public abstract T execute() throws Exception;
+
+    public Priority getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * Sets the deadline of the request relative to its submission.  A request that has not
+     * completed by then fails with a {@link java.util.concurrent.TimeoutException}.
+     * @param timeoutMs The deadline in milliseconds, or 0 for no deadline.
+     * @return This request, for chaining.
+     */
+    public WorkspotRequest<T> setTimeoutMs(long timeoutMs) {
+        assert timeoutMs >= 0;
+        mTimeoutMs = timeoutMs;
+        return this;
+    }
+
+    /**
+     * @return The deadline of the request in milliseconds, or 0 if it has none.
+     */
+    public long getTimeoutMs() {
+        return mTimeoutMs;
+    }
+
+    /**
+     * Identifies requests that are interchangeable: while a request is in flight, submitting
+     * another request with an equal key shares its execution and result instead of running again.
+     * @return The identity of the request, or null if it must always run on its own.
+     */
+    public Object getRequestKey() {
+        return null;
+    }
+
+    /**
+     * Requests returning the same batcher that arrive within the batching window are executed
+     * together through {@link WorkspotBatcher#executeBatch}.
+     * @return The batcher able to execute this request together with others, or null.
+     */
+    public WorkspotBatcher<T> getBatcher() {
+        return null;
+    }
+
+    /**
+     * Successful responses of requests with a non-null {@link #getRequestKey()} and a positive
+     * TTL are cached and served to later requests with an equal key until the TTL expires.
+     * @return How long a response stays fresh in milliseconds, or 0 to not cache it.
+     */
+    public long getCacheTtlMs() {
+        return 0;
+    }
+
+    /**
+     * @return How long after the TTL an expired response may still be served while it is
+     *         refreshed in the background, in milliseconds.
+     */
+    public long getStaleWhileRevalidateMs() {
+        return 0;
+    }
+
+    /**
+     * @return The approximate number of bytes the response occupies in the response cache.
+     */
+    public int estimateResponseSize(T response) {
+        return DEFAULT_RESPONSE_SIZE_BYTES;
+    }
+
+    /**
+     * Wraps a {@link Callable} into a request.
+     */
+    public static <T> WorkspotRequest<T> fromCallable(
+            final Callable<T> callable, Priority priority) {
+        return new WorkspotRequest<T>(priority) {
+            @Override
+            public T execute() throws Exception {
+                return callable.call();
+            }
+        };
+    }
+}
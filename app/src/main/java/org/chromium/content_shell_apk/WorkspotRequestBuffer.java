@@ -0,0 +1,180 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Holds requests until a target to execute them is attached, then replays them in order and
+ * forwards later requests straight to it.  {@link WorkspotServiceClient} attaches the bound
+ * service and detaches it on disconnection.  Thread safe.
+ */
+class WorkspotRequestBuffer {
+
+    /**
+     * Executes requests, implemented by the connected service.
+     */
+    interface Target {
+        <T> WorkspotFuture<T> invoke(WorkspotRequest<T> request);
+    }
+
+    private final Object mLock = new Object();
+    // Guarded by mLock.
+    private Target mTarget;
+    private Throwable mFailure;
+    private List<PendingRequest<?>> mPendingRequests = new ArrayList<PendingRequest<?>>();
+    private int mReplayedCount;
+
+    /**
+     * Sends a request to the target, or holds it until one is attached.  Fails it right away if
+     * the buffer has been failed.
+     * @return The future completed with the outcome of the request.
+     */
+    <T> WorkspotFuture<T> submit(WorkspotRequest<T> request) {
+        Target target;
+        Throwable failure;
+        PendingRequest<T> pending = null;
+        synchronized (mLock) {
+            target = mTarget;
+            failure = mFailure;
+            if (target == null && failure == null) {
+                pending = new PendingRequest<T>(request);
+                mPendingRequests.add(pending);
+            }
+        }
+        if (target != null) return target.invoke(request);
+        if (pending != null) return pending.mFuture;
+        WorkspotFuture<T> future = new WorkspotFuture<T>();
+        future.setException(failure);
+        return future;
+    }
+
+    /**
+     * Replays the held requests to the target, in the order they were submitted, and forwards
+     * later ones to it.
+     * @return The number of requests replayed.
+     */
+    int attach(Target target) {
+        List<PendingRequest<?>> pendingRequests;
+        synchronized (mLock) {
+            mTarget = target;
+            mFailure = null;
+            pendingRequests = mPendingRequests;
+            mPendingRequests = new ArrayList<PendingRequest<?>>();
+            mReplayedCount += pendingRequests.size();
+        }
+        for (PendingRequest<?> pending : pendingRequests) pending.submitTo(target);
+        return pendingRequests.size();
+    }
+
+    /**
+     * Holds later requests again until a target is attached.
+     */
+    void detach() {
+        synchronized (mLock) {
+            mTarget = null;
+        }
+    }
+
+    /**
+     * Detaches the target and fails the held requests, but keeps holding later ones.
+     */
+    void failPending(Throwable error) {
+        List<PendingRequest<?>> pendingRequests;
+        synchronized (mLock) {
+            mTarget = null;
+            pendingRequests = mPendingRequests;
+            mPendingRequests = new ArrayList<PendingRequest<?>>();
+        }
+        for (PendingRequest<?> pending : pendingRequests) pending.mFuture.setException(error);
+    }
+
+    /**
+     * Detaches the target and fails the held requests and every later one, until a target is
+     * attached.
+     */
+    void fail(Throwable error) {
+        synchronized (mLock) {
+            mFailure = error;
+        }
+        failPending(error);
+    }
+
+    /**
+     * @return Whether requests go straight to a target.
+     */
+    boolean isAttached() {
+        synchronized (mLock) {
+            return mTarget != null;
+        }
+    }
+
+    /**
+     * @return Whether requests fail without being held.
+     */
+    boolean isFailed() {
+        synchronized (mLock) {
+            return mFailure != null;
+        }
+    }
+
+    /**
+     * @return The number of requests currently held.
+     */
+    int getPendingCount() {
+        synchronized (mLock) {
+            return mPendingRequests.size();
+        }
+    }
+
+    /**
+     * @return The number of requests that were held and then replayed.
+     */
+    int getReplayedCount() {
+        synchronized (mLock) {
+            return mReplayedCount;
+        }
+    }
+
+    /**
+     * A request waiting for a target, with the future handed out to its caller.
+     */
+    private static class PendingRequest<T> {
+        final WorkspotRequest<T> mRequest;
+        final WorkspotFuture<T> mFuture = new WorkspotFuture<T>();
+
+        PendingRequest(WorkspotRequest<T> request) {
+            mRequest = request;
+        }
+
+        void submitTo(Target target) {
+            // The caller gave up on it while it was held.
+            if (mFuture.isDone()) return;
+            final WorkspotFuture<T> execution = target.invoke(mRequest);
+            execution.addCallback(new WorkspotCallback<T>() {
+                @Override
+                public void onSuccess(T result) {
+                    mFuture.set(result);
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                    mFuture.setException(error);
+                }
+            });
+            mFuture.addCallback(new WorkspotCallback<T>() {
+                @Override
+                public void onSuccess(T result) {}
+
+                @Override
+                public void onFailure(Throwable error) {
+                    if (error instanceof CancellationException) execution.cancel(true);
+                }
+            });
+        }
+    }
+}
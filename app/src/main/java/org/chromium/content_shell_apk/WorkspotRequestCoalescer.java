@@ -0,0 +1,360 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reduces the number of executions of {@link WorkspotRequest}s before they reach a
+ * {@link WorkspotRequestExecutor}.
+ *
+ * Requests with equal {@link WorkspotRequest#getRequestKey()}s submitted while one of them is in
+ * flight share that single execution.  Requests with the same {@link WorkspotRequest#getBatcher()}
+ * submitted within the batching window are executed together as one batch.
+ *
+ * A shared execution has no deadline of its own; each caller sharing it times out on its own
+ * deadline, and the execution is cancelled once no caller is waiting for it any more.
+ */
+public class WorkspotRequestCoalescer {
+
+    public static final long DEFAULT_BATCH_WINDOW_MS = 10;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 16;
+
+    private final WorkspotRequestExecutor mExecutor;
+    private final Object mLock = new Object();
+    private final HashMap<Object, InFlightRequest<?>> mInFlightRequests =
+            new HashMap<Object, InFlightRequest<?>>();
+    private final HashMap<WorkspotBatcher<?>, PendingBatch<?>> mPendingBatches =
+            new HashMap<WorkspotBatcher<?>, PendingBatch<?>>();
+
+    private volatile long mBatchWindowMs = DEFAULT_BATCH_WINDOW_MS;
+    private volatile int mMaxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    private final AtomicLong mSubmittedCount = new AtomicLong();
+    private final AtomicLong mCoalescedCount = new AtomicLong();
+    private final AtomicLong mBatchedCount = new AtomicLong();
+    private final AtomicLong mExecutedCount = new AtomicLong();
+
+    public WorkspotRequestCoalescer(WorkspotRequestExecutor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * @param batchWindowMs How long the first request of a batch waits for others to join it.
+     */
+    public void setBatchWindowMs(long batchWindowMs) {
+        assert batchWindowMs >= 0;
+        mBatchWindowMs = batchWindowMs;
+    }
+
+    /**
+     * @param maxBatchSize The size at which a batch is executed without waiting for its window.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        assert maxBatchSize >= 1;
+        mMaxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Submits a request, sharing or batching its execution where possible.
+     * @return The future completed with the outcome of the request.  Cancelling it does not
+     *         affect other requests sharing the same execution.
+     */
+    public <T> WorkspotFuture<T> submit(WorkspotRequest<T> request) {
+        mSubmittedCount.incrementAndGet();
+        Object key = request.getRequestKey();
+        if (key == null) return dispatch(request, request.getTimeoutMs());
+
+        InFlightRequest<T> inFlight;
+        synchronized (mLock) {
+            @SuppressWarnings("unchecked")
+            InFlightRequest<T> existing = (InFlightRequest<T>) mInFlightRequests.get(key);
+            // Do not make a request wait behind an identical one queued at a lower priority.
+            if (existing != null
+                    && existing.mPriority.compareTo(request.getPriority()) <= 0) {
+                WorkspotFuture<T> waiter = existing.addWaiter(request.getTimeoutMs());
+                if (waiter != null) {
+                    mCoalescedCount.incrementAndGet();
+                    return waiter;
+                }
+            }
+            inFlight = new InFlightRequest<T>(key, request.getPriority());
+            mInFlightRequests.put(key, inFlight);
+        }
+        WorkspotFuture<T> waiter = inFlight.addWaiter(request.getTimeoutMs());
+        inFlight.start(dispatch(request, 0));
+        return waiter;
+    }
+
+    /**
+     * @return The number of requests submitted.
+     */
+    public long getSubmittedCount() {
+        return mSubmittedCount.get();
+    }
+
+    /**
+     * @return The number of requests that shared the execution of an identical in-flight one.
+     */
+    public long getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    /**
+     * @return The number of requests executed as part of a batch of two or more.
+     */
+    public long getBatchedCount() {
+        return mBatchedCount.get();
+    }
+
+    /**
+     * @return The number of executions handed to the executor.
+     */
+    public long getExecutedCount() {
+        return mExecutedCount.get();
+    }
+
+    /**
+     * @param timeoutMs The deadline of the execution, or 0 for none.
+     */
+    private <T> WorkspotFuture<T> dispatch(WorkspotRequest<T> request, long timeoutMs) {
+        WorkspotBatcher<T> batcher = request.getBatcher();
+        if (batcher == null || mMaxBatchSize <= 1) return execute(request, timeoutMs);
+
+        WorkspotFuture<T> future = new WorkspotFuture<T>();
+        PendingBatch<T> batchToFlush = null;
+        synchronized (mLock) {
+            @SuppressWarnings("unchecked")
+            PendingBatch<T> batch = (PendingBatch<T>) mPendingBatches.get(batcher);
+            if (batch == null) {
+                final PendingBatch<T> newBatch = new PendingBatch<T>(batcher);
+                batch = newBatch;
+                mPendingBatches.put(batcher, newBatch);
+                newBatch.mFlushTask = mExecutor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush(newBatch);
+                    }
+                }, mBatchWindowMs);
+            }
+            batch.mRequests.add(request);
+            batch.mFutures.add(future);
+            batch.mTimeoutsMs.add(timeoutMs);
+            if (batch.mRequests.size() >= mMaxBatchSize) batchToFlush = batch;
+        }
+        if (batchToFlush != null) flush(batchToFlush);
+        return future;
+    }
+
+    private <T> WorkspotFuture<T> execute(WorkspotRequest<T> request, long timeoutMs) {
+        mExecutedCount.incrementAndGet();
+        return mExecutor.submit(request, timeoutMs);
+    }
+
+    private <T> void flush(PendingBatch<T> batch) {
+        synchronized (mLock) {
+            if (mPendingBatches.get(batch.mBatcher) != batch) return;
+            mPendingBatches.remove(batch.mBatcher);
+        }
+        batch.mFlushTask.cancel(false);
+
+        final List<WorkspotRequest<T>> requests = new ArrayList<WorkspotRequest<T>>();
+        final List<WorkspotFuture<T>> futures = new ArrayList<WorkspotFuture<T>>();
+        // The tightest deadline of the members, or 0 if none has one.
+        long timeoutMs = 0;
+        for (int i = 0; i < batch.mRequests.size(); i++) {
+            if (batch.mFutures.get(i).isDone()) continue;
+            requests.add(batch.mRequests.get(i));
+            futures.add(batch.mFutures.get(i));
+            long memberTimeoutMs = batch.mTimeoutsMs.get(i);
+            if (memberTimeoutMs > 0 && (timeoutMs == 0 || memberTimeoutMs < timeoutMs)) {
+                timeoutMs = memberTimeoutMs;
+            }
+        }
+        if (requests.isEmpty()) return;
+        if (requests.size() == 1) {
+            forward(execute(requests.get(0), timeoutMs), futures.get(0));
+            return;
+        }
+
+        mBatchedCount.addAndGet(requests.size());
+        execute(new BatchRequest<T>(batch.mBatcher, requests), timeoutMs).addCallback(
+                new WorkspotCallback<List<T>>() {
+                    @Override
+                    public void onSuccess(List<T> results) {
+                        if (results == null || results.size() != futures.size()) {
+                            onFailure(new IllegalStateException("Batch returned "
+                                    + (results == null ? 0 : results.size()) + " results for "
+                                    + futures.size() + " requests"));
+                            return;
+                        }
+                        for (int i = 0; i < futures.size(); i++) futures.get(i).set(results.get(i));
+                    }
+
+                    @Override
+                    public void onFailure(Throwable error) {
+                        for (WorkspotFuture<T> future : futures) future.setException(error);
+                    }
+                });
+    }
+
+    private static <T> void forward(WorkspotFuture<T> source, final WorkspotFuture<T> target) {
+        source.addCallback(new WorkspotCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                target.set(result);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                target.setException(error);
+            }
+        });
+    }
+
+    /**
+     * A keyed request in flight and the futures of every caller waiting on it.
+     */
+    private class InFlightRequest<T> {
+        final Object mKey;
+        final WorkspotRequest.Priority mPriority;
+        final List<WorkspotFuture<T>> mWaiters = new ArrayList<WorkspotFuture<T>>();
+        WorkspotFuture<T> mExecution;
+        int mActiveWaiters;
+        boolean mCompleted;
+
+        InFlightRequest(Object key, WorkspotRequest.Priority priority) {
+            mKey = key;
+            mPriority = priority;
+        }
+
+        /**
+         * @param timeoutMs The deadline of the caller, or 0 for none.
+         * @return A new future for a caller sharing this request, or null if it has completed.
+         */
+        WorkspotFuture<T> addWaiter(final long timeoutMs) {
+            final WorkspotFuture<T> waiter = new WorkspotFuture<T>();
+            synchronized (mLock) {
+                if (mCompleted) return null;
+                mWaiters.add(waiter);
+                mActiveWaiters++;
+            }
+            final ScheduledFuture<?> deadline = timeoutMs > 0 ? mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    waiter.setException(WorkspotRequestExecutor.createTimeoutException(timeoutMs));
+                }
+            }, timeoutMs) : null;
+            waiter.addCallback(new WorkspotCallback<T>() {
+                @Override
+                public void onSuccess(T result) {
+                    if (deadline != null) deadline.cancel(false);
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                    if (deadline != null) deadline.cancel(false);
+                    if (error instanceof CancellationException
+                            || error instanceof TimeoutException) {
+                        onWaiterAbandoned();
+                    }
+                }
+            });
+            return waiter;
+        }
+
+        void start(WorkspotFuture<T> execution) {
+            synchronized (mLock) {
+                mExecution = execution;
+            }
+            execution.addCallback(new WorkspotCallback<T>() {
+                @Override
+                public void onSuccess(T result) {
+                    for (WorkspotFuture<T> waiter : complete()) waiter.set(result);
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                    for (WorkspotFuture<T> waiter : complete()) waiter.setException(error);
+                }
+            });
+            // Every caller may have cancelled before the execution was attached.
+            synchronized (mLock) {
+                if (mActiveWaiters > 0) return;
+            }
+            execution.cancel(true);
+        }
+
+        private List<WorkspotFuture<T>> complete() {
+            synchronized (mLock) {
+                mCompleted = true;
+                if (mInFlightRequests.get(mKey) == this) mInFlightRequests.remove(mKey);
+                return new ArrayList<WorkspotFuture<T>>(mWaiters);
+            }
+        }
+
+        /**
+         * Called when a caller cancelled or timed out, or when the execution failed; the latter
+         * is ignored since the request has completed by then.
+         */
+        private void onWaiterAbandoned() {
+            WorkspotFuture<T> execution;
+            synchronized (mLock) {
+                mActiveWaiters--;
+                if (mActiveWaiters > 0 || mCompleted) return;
+                execution = mExecution;
+                // Later identical requests must not attach to an execution being cancelled.
+                if (mInFlightRequests.get(mKey) == this) mInFlightRequests.remove(mKey);
+            }
+            if (execution != null) execution.cancel(true);
+        }
+    }
+
+    private static class PendingBatch<T> {
+        final WorkspotBatcher<T> mBatcher;
+        final List<WorkspotRequest<T>> mRequests = new ArrayList<WorkspotRequest<T>>();
+        final List<WorkspotFuture<T>> mFutures = new ArrayList<WorkspotFuture<T>>();
+        final List<Long> mTimeoutsMs = new ArrayList<Long>();
+        ScheduledFuture<?> mFlushTask;
+
+        PendingBatch(WorkspotBatcher<T> batcher) {
+            mBatcher = batcher;
+        }
+    }
+
+    /**
+     * Executes a batch at the priority of its most urgent member.  Submitted with the tightest
+     * deadline of its members.
+     */
+    private static class BatchRequest<T> extends WorkspotRequest<List<T>> {
+        private final WorkspotBatcher<T> mBatcher;
+        private final List<WorkspotRequest<T>> mRequests;
+
+        BatchRequest(WorkspotBatcher<T> batcher, List<WorkspotRequest<T>> requests) {
+            super(highestPriority(requests));
+            mBatcher = batcher;
+            mRequests = requests;
+        }
+
+        @Override
+        public List<T> execute() throws Exception {
+            return mBatcher.executeBatch(mRequests);
+        }
+
+        private static Priority highestPriority(List<? extends WorkspotRequest<?>> requests) {
+            Priority priority = Priority.BACKGROUND;
+            for (WorkspotRequest<?> request : requests) {
+                if (request.getPriority().compareTo(priority) < 0) priority = request.getPriority();
+            }
+            return priority;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs {@link WorkspotRequest}s on a thread pool, starting queued requests in priority order.
+ *
+ * Requests with a deadline fail with a {@link TimeoutException} once it passes, whether they are
+ * still queued or already running; running requests are interrupted.  Cancelling the returned
+ * {@link WorkspotFuture} removes a queued request or interrupts a running one.
+ *
+ * The pool is elastic: a thread is added for each request until the maximum is reached, after
+ * which requests queue, and threads exit after being idle for the keep-alive time, so an idle
+ * executor holds no threads.  The queue is bounded; once it is full a new request evicts the
+ * queued request of the lowest priority if that is lower than its own, and is rejected otherwise.
+ * Evicted and rejected requests fail with a {@link RejectedExecutionException}.
+ */
+public class WorkspotRequestExecutor {
+
+    public static final long DEFAULT_KEEP_ALIVE_MS = 30000;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final int mMaxQueuedRequests;
+    // Makes the capacity check and the eviction atomic with respect to other submissions.
+    private final Object mQueueLock = new Object();
+    private final AtomicLong mCompletedCount = new AtomicLong();
+    private final AtomicLong mRejectedCount = new AtomicLong();
+    // Fires deadlines and other timers; a single thread is enough since timer tasks only
+    // complete futures or hand work to the pool.
+    private final ScheduledThreadPoolExecutor mScheduler;
+    private final AtomicLong mNextSequenceNumber = new AtomicLong();
+
+    /**
+     * Creates an executor with the default keep-alive time and an unbounded queue.
+     * @param maxThreads The maximum number of worker threads.
+     * @param threadName The prefix of the worker thread names.
+     */
+    public WorkspotRequestExecutor(int maxThreads, String threadName) {
+        this(maxThreads, DEFAULT_KEEP_ALIVE_MS, Integer.MAX_VALUE, threadName);
+    }
+
+    /**
+     * @param maxThreads The maximum number of worker threads.
+     * @param keepAliveMs How long a worker thread waits for a request before exiting.
+     * @param maxQueuedRequests The number of requests that can wait for a worker thread.
+     * @param threadName The prefix of the worker thread names.
+     */
+    public WorkspotRequestExecutor(int maxThreads, long keepAliveMs, int maxQueuedRequests,
+            String threadName) {
+        this(maxThreads, keepAliveMs, maxQueuedRequests, false, threadName);
+    }
+
+    /**
+     * @param maxThreads The maximum number of worker threads.
+     * @param keepAliveMs How long a worker thread waits for a request before exiting.
+     * @param maxQueuedRequests The number of requests that can wait for a worker thread.
+     * @param removeCancelledDeadlines Whether the deadline of a request that finishes in time is
+     *        removed from the timer queue right away, rather than when it would have fired.  Needs
+     *        ScheduledThreadPoolExecutor#setRemoveOnCancelPolicy, which Android has from Lollipop.
+     * @param threadName The prefix of the worker thread names.
+     */
+    public WorkspotRequestExecutor(int maxThreads, long keepAliveMs, int maxQueuedRequests,
+            boolean removeCancelledDeadlines, String threadName) {
+        assert maxThreads > 0 && keepAliveMs > 0 && maxQueuedRequests >= 0;
+        mMaxQueuedRequests = maxQueuedRequests;
+        // A PriorityBlockingQueue never reports itself full, so the pool would not grow past its
+        // core size; instead all threads are core threads that are allowed to time out.
+        mExecutor = new ThreadPoolExecutor(maxThreads, maxThreads, keepAliveMs,
+                TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(),
+                new NamedThreadFactory(threadName));
+        mExecutor.allowCoreThreadTimeOut(true);
+        mScheduler =
+                new ScheduledThreadPoolExecutor(1, new NamedThreadFactory(threadName + "Timer"));
+        // Most requests finish well before their deadline; without this the cancelled deadlines
+        // stay queued, holding on to their requests, until they would have fired.
+        if (removeCancelledDeadlines) mScheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Queues a request for execution.
+     * @return The future completed with the outcome of the request.
+     */
+    public <T> WorkspotFuture<T> submit(WorkspotRequest<T> request) {
+        return submit(request, request.getTimeoutMs());
+    }
+
+    /**
+     * Queues a request for execution with a deadline other than its own.
+     * @param timeoutMs The deadline in milliseconds, or 0 for none.
+     * @return The future completed with the outcome of the request.
+     */
+    <T> WorkspotFuture<T> submit(WorkspotRequest<T> request, final long timeoutMs) {
+        final RequestTask<T> task = new RequestTask<T>(request,
+                mNextSequenceNumber.getAndIncrement());
+        if (timeoutMs > 0) {
+            task.mDeadline = mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    task.onDeadlineExpired(timeoutMs);
+                }
+            }, timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        task.mFuture.addCallback(new WorkspotCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                task.onCompleted();
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                task.onCompleted();
+                if (error instanceof CancellationException) task.onCancelled();
+            }
+        });
+        try {
+            synchronized (mQueueLock) {
+                if (mExecutor.getPoolSize() >= mExecutor.getMaximumPoolSize()
+                        && mExecutor.getQueue().size() >= mMaxQueuedRequests) {
+                    makeRoomFor(task);
+                }
+                mExecutor.execute(task);
+            }
+        } catch (RejectedExecutionException e) {
+            mRejectedCount.incrementAndGet();
+            task.mFuture.setException(e);
+        }
+        return task.mFuture;
+    }
+
+    /**
+     * Evicts the queued request of the lowest priority if it ranks below the given task.
+     * @throws RejectedExecutionException If no queued request ranks below it.
+     */
+    private void makeRoomFor(RequestTask<?> task) {
+        RequestTask<?> lowest = null;
+        for (Iterator<Runnable> it = mExecutor.getQueue().iterator(); it.hasNext();) {
+            RequestTask<?> queued = (RequestTask<?>) it.next();
+            if (lowest == null || queued.compareTo(lowest) > 0) lowest = queued;
+        }
+        if (lowest == null || lowest.mRequest.getPriority().compareTo(
+                task.mRequest.getPriority()) <= 0) {
+            throw new RejectedExecutionException("Request queue is full");
+        }
+        if (mExecutor.remove(lowest)) {
+            mRejectedCount.incrementAndGet();
+            lowest.mFuture.setException(new RejectedExecutionException(
+                    "Evicted from a full queue by a higher priority request"));
+        }
+    }
+
+    /**
+     * Runs a short task on the executor's timer thread after a delay.
+     */
+    ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+        return mScheduler.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The number of requests waiting for a worker thread.
+     */
+    public int getQueuedCount() {
+        return mExecutor.getQueue().size();
+    }
+
+    /**
+     * @return The approximate number of requests running.
+     */
+    public int getActiveCount() {
+        return mExecutor.getActiveCount();
+    }
+
+    /**
+     * @return The number of requests that ran to completion, successfully or not.
+     */
+    public long getCompletedCount() {
+        return mCompletedCount.get();
+    }
+
+    /**
+     * @return The number of requests rejected or evicted because the queue was full, or because
+     *         the executor was shut down.
+     */
+    public long getRejectedCount() {
+        return mRejectedCount.get();
+    }
+
+    /**
+     * @return The number of worker threads alive, idle or not.
+     */
+    public int getThreadCount() {
+        return mExecutor.getPoolSize();
+    }
+
+    /**
+     * @return The largest number of worker threads that have been alive at once.
+     */
+    public int getLargestThreadCount() {
+        return mExecutor.getLargestPoolSize();
+    }
+
+    /**
+     * Stops accepting requests and cancels all queued ones.  Running requests are interrupted.
+     */
+    public void shutdown() {
+        List<Runnable> queued = mExecutor.shutdownNow();
+        for (Runnable runnable : queued) {
+            ((RequestTask<?>) runnable).mFuture.cancel(false);
+        }
+        mScheduler.shutdownNow();
+    }
+
+    private class RequestTask<T> implements Runnable, Comparable<RequestTask<?>> {
+        final WorkspotRequest<T> mRequest;
+        final WorkspotFuture<T> mFuture = new WorkspotFuture<T>();
+        final long mSequenceNumber;
+        volatile ScheduledFuture<?> mDeadline;
+
+        RequestTask(WorkspotRequest<T> request, long sequenceNumber) {
+            mRequest = request;
+            mSequenceNumber = sequenceNumber;
+        }
+
+        @Override
+        public void run() {
+            if (!mFuture.setRunningThread(Thread.currentThread())) return;
+            T result = null;
+            Throwable error = null;
+            try {
+                result = mRequest.execute();
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                mFuture.setRunningThread(null);
+                // Do not leak an interrupt meant for this request into the next one.
+                Thread.interrupted();
+            }
+            // Counted before the future completes, so that callers see the count include it.
+            // Callbacks run inside set(), so must not be caught as failures of the request.
+            mCompletedCount.incrementAndGet();
+            if (error == null) {
+                mFuture.set(result);
+            } else {
+                mFuture.setException(error);
+            }
+        }
+
+        void onDeadlineExpired(long timeoutMs) {
+            // Dequeue first so the queue no longer holds the request once callers observe
+            // the timeout.
+            mExecutor.remove(this);
+            if (mFuture.setException(createTimeoutException(timeoutMs))) {
+                mFuture.interruptRunningThread();
+            }
+        }
+
+        void onCancelled() {
+            // Running requests are interrupted by WorkspotFuture#cancel() if requested.
+            mExecutor.remove(this);
+        }
+
+        void onCompleted() {
+            ScheduledFuture<?> deadline = mDeadline;
+            if (deadline != null) deadline.cancel(false);
+        }
+
+        @Override
+        public int compareTo(RequestTask<?> other) {
+            int result = mRequest.getPriority().compareTo(other.mRequest.getPriority());
+            if (result != 0) return result;
+            return mSequenceNumber < other.mSequenceNumber ? -1
+                    : (mSequenceNumber == other.mSequenceNumber ? 0 : 1);
+        }
+    }
+
+    static TimeoutException createTimeoutException(long timeoutMs) {
+        return new TimeoutException("Request exceeded its " + timeoutMs + "ms deadline");
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, mName + "-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
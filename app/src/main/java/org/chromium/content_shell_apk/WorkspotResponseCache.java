@@ -0,0 +1,240 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import org.chromium.base.MemoryPressureLevel;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * In-process cache of {@link WorkspotRequest} responses in front of a
+ * {@link WorkspotRequestCoalescer}.
+ *
+ * Entries are keyed by {@link WorkspotRequest#getRequestKey()}, expire after the request's TTL
+ * and are evicted least recently used first once their estimated size exceeds the byte budget.
+ * Within the request's stale-while-revalidate window an expired response is still returned while
+ * a single refresh runs in the background.
+ */
+public class WorkspotResponseCache {
+
+    private final WorkspotRequestCoalescer mCoalescer;
+    private final LinkedHashMap<Object, Entry> mEntries =
+            new LinkedHashMap<Object, Entry>(16, 0.75f, true);
+
+    private long mMaxSizeBytes;
+    private long mSizeBytes;
+
+    private long mHitCount;
+    private long mStaleHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    /**
+     * @param coalescer The stage executing requests that miss the cache.
+     * @param maxSizeBytes The maximum total estimated size of the cached responses.
+     */
+    public WorkspotResponseCache(WorkspotRequestCoalescer coalescer, long maxSizeBytes) {
+        assert maxSizeBytes >= 0;
+        mCoalescer = coalescer;
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Serves the request from the cache if possible, otherwise submits it and caches its response.
+     * @return The future completed with the outcome of the request.
+     */
+    public <T> WorkspotFuture<T> submit(final WorkspotRequest<T> request) {
+        final Object key = request.getRequestKey();
+        if (key == null || request.getCacheTtlMs() <= 0) return mCoalescer.submit(request);
+
+        boolean stale = false;
+        Object value = null;
+        boolean found = false;
+        synchronized (this) {
+            Entry entry = mEntries.get(key);
+            long now = now();
+            if (entry != null && now < entry.mStaleUntilMs) {
+                found = true;
+                value = entry.mValue;
+                stale = now >= entry.mExpiresAtMs;
+                if (stale) {
+                    mStaleHitCount++;
+                } else {
+                    mHitCount++;
+                }
+            } else {
+                if (entry != null) removeLocked(key);
+                mMissCount++;
+            }
+        }
+
+        if (found) {
+            // Identical revalidations are shared by the coalescer, so repeated stale hits only
+            // trigger one refresh.
+            if (stale) fetch(request, key);
+            WorkspotFuture<T> future = new WorkspotFuture<T>();
+            @SuppressWarnings("unchecked")
+            T result = (T) value;
+            future.set(result);
+            return future;
+        }
+        return fetch(request, key);
+    }
+
+    /**
+     * Releases cached responses in response to memory pressure.  Moderate pressure trims the
+     * cache to half of its budget, critical pressure empties it.
+     * @param level A {@link MemoryPressureLevel} value.
+     */
+    public synchronized void onMemoryPressure(int level) {
+        if (level == MemoryPressureLevel.CRITICAL) {
+            trimToSizeLocked(0);
+        } else if (level == MemoryPressureLevel.MODERATE) {
+            trimToSizeLocked(mMaxSizeBytes / 2);
+        }
+    }
+
+    /**
+     * Changes the byte budget, evicting entries if the cache is now over it.
+     */
+    public synchronized void setMaxSizeBytes(long maxSizeBytes) {
+        assert maxSizeBytes >= 0;
+        mMaxSizeBytes = maxSizeBytes;
+        trimToSizeLocked(mMaxSizeBytes);
+    }
+
+    /**
+     * Drops all cached responses.  Does not count as evictions.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mSizeBytes = 0;
+    }
+
+    public synchronized long getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return The number of requests served a fresh cached response.
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return The number of requests served an expired response while it was refreshed.
+     */
+    public synchronized long getStaleHitCount() {
+        return mStaleHitCount;
+    }
+
+    /**
+     * @return The number of cacheable requests that had to be executed.
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return The number of entries evicted to stay within the byte budget or on memory pressure.
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return The fraction of cacheable requests served from the cache, fresh or stale.
+     */
+    public synchronized double getHitRatio() {
+        long hits = mHitCount + mStaleHitCount;
+        long total = hits + mMissCount;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return The current time in milliseconds on a monotonic clock.
+     */
+    protected long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    private <T> WorkspotFuture<T> fetch(final WorkspotRequest<T> request, final Object key) {
+        final WorkspotFuture<T> execution = mCoalescer.submit(request);
+        final WorkspotFuture<T> future = new WorkspotFuture<T>();
+        // Cache the response before completing the caller's future, so that a request issued
+        // once it has completed is a hit.
+        execution.addCallback(new WorkspotCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                put(key, result, request);
+                future.set(result);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                future.setException(error);
+            }
+        });
+        future.addCallback(new WorkspotCallback<T>() {
+            @Override
+            public void onSuccess(T result) {}
+
+            @Override
+            public void onFailure(Throwable error) {
+                if (error instanceof CancellationException) execution.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    private synchronized <T> void put(Object key, T value, WorkspotRequest<T> request) {
+        int size = request.estimateResponseSize(value);
+        removeLocked(key);
+        if (size > mMaxSizeBytes) return;
+        long now = now();
+        Entry entry = new Entry(value, size, now + request.getCacheTtlMs(),
+                now + request.getCacheTtlMs() + request.getStaleWhileRevalidateMs());
+        mEntries.put(key, entry);
+        mSizeBytes += size;
+        trimToSizeLocked(mMaxSizeBytes);
+    }
+
+    private void removeLocked(Object key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) mSizeBytes -= entry.mSize;
+    }
+
+    private void trimToSizeLocked(long maxSizeBytes) {
+        Iterator<Map.Entry<Object, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mSizeBytes > maxSizeBytes && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            iterator.remove();
+            mSizeBytes -= entry.mSize;
+            mEvictionCount++;
+        }
+    }
+
+    private static class Entry {
+        final Object mValue;
+        final int mSize;
+        final long mExpiresAtMs;
+        final long mStaleUntilMs;
+
+        Entry(Object value, int size, long expiresAtMs, long staleUntilMs) {
+            mValue = value;
+            mSize = size;
+            mExpiresAtMs = expiresAtMs;
+            mStaleUntilMs = staleUntilMs;
+        }
+    }
+}
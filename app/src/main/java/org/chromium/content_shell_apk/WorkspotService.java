@@ -3,132 +3,166 @@ package org.chromium.content_shell_apk;
 import android.app.Service;
 import android.content.Intent;
 import android.os.Binder;
+import android.os.Build;
 import android.os.IBinder;
+import android.os.SystemClock;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import org.chromium.base.MemoryPressureLevel;
+
+import java.util.concurrent.Callable;
 
 @SuppressWarnings("unused")
 public class WorkspotService extends Service {
 
+    /**
+     * Binding with this action returns a {@link android.os.Messenger} binder for
+     * {@link WorkspotRemoteClient}, usable from other processes.  Isolated processes cannot bind;
+     * start them with {@link WorkspotRemoteClient#startServiceWithBinder} to hand them the binder.
+     */
+    public static final String ACTION_BIND_REMOTE =
+            "org.chromium.content_shell.action.BIND_WORKSPOT_REMOTE";
+
+    /**
+     * A remote operation responding with a checksum of the payload, see
+     * {@link WorkspotChecksumOperation}.
+     */
+    public static final String OPERATION_CHECKSUM = "checksum";
+
     private static final int MAX_THREADS = 8;
+    // Idle worker threads exit after this long, so the service holds none between bursts.
+    private static final long THREAD_KEEP_ALIVE_MS = 15000;
+    private static final int MAX_QUEUED_REQUESTS = 128;
+    private static final long MAX_RESPONSE_CACHE_BYTES = 2 * 1024 * 1024;
 
     private static final String SCID_NOT_APPLICABLE_FOR_THIS_REQUEST = "scid n/a";
 
     private final IBinder binder = new WorkspotServiceBinder();
-    private final ExecutorService executorService;
+    private final WorkspotRequestExecutor requestExecutor;
+    // Shares identical in-flight requests and batches compatible ones before execution.
+    private final WorkspotRequestCoalescer requestCoalescer;
+    // Serves repeated cacheable requests without executing them again.
+    private final WorkspotResponseCache responseCache;
+    // Serves clients in other processes; created once the service has a context.
+    private WorkspotRemoteDispatcher remoteDispatcher;
+    // Time spent constructing the service on the main thread.
+    private final long creationTimeMs;
 
     public WorkspotService() {
         super();
-        this.executorService = Executors.newFixedThreadPool(MAX_THREADS);
+        long startTimeMs = SystemClock.elapsedRealtime();
+        this.requestExecutor = new WorkspotRequestExecutor(MAX_THREADS, THREAD_KEEP_ALIVE_MS,
+                MAX_QUEUED_REQUESTS,
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP, "WorkspotService");
+        this.requestCoalescer = new WorkspotRequestCoalescer(requestExecutor);
+        this.responseCache = new WorkspotResponseCache(requestCoalescer,
+                MAX_RESPONSE_CACHE_BYTES);
+        this.creationTimeMs = SystemClock.elapsedRealtime() - startTimeMs;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        remoteDispatcher = new WorkspotRemoteDispatcher(this);
+        remoteDispatcher.registerOperation(OPERATION_CHECKSUM, new WorkspotChecksumOperation());
     }
 
     @Override
     public IBinder onBind(Intent intent)
     {
+        if (ACTION_BIND_REMOTE.equals(intent.getAction())) {
+            return remoteDispatcher.getMessenger().getBinder();
+        }
         return binder;
     }
 
+    /**
+     * Makes an operation available to {@link WorkspotRemoteClient}s under the given name.
+     */
+    public void registerRemoteOperation(String name, WorkspotRemoteOperation operation) {
+        remoteDispatcher.registerOperation(name, operation);
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         super.onStartCommand(intent, flags, startId);
         return START_NOT_STICKY;
     }
-//
-//    /*
-//		 * Return the Future, in case somebody wants to monitor the progress
-//		 */
-//    public <RequestType extends O1WebAPIBase> Future<Object> invoke(WorkspotServiceRequest<RequestType> request)
-//    {
-//        WorkspotServiceCallable<RequestType> callable = new WorkspotServiceCallable<RequestType>(request);
-//        return executorService.submit(callable);
-//    }
-//
-//
-//    /*
-//     * Helper to submit a callable whcih return a value
-//     * Since the service has a executor , it can be used to service
-//     * all types of requests
-//     */
-//    public <ReturnType> Future<ReturnType> submit(Callable<ReturnType> callableRequest) {
-//        // TODO Auto-generated method stub
-//        return executorService.submit(callableRequest);
-//    }
-//
+
+    /**
+     * Queues a request for execution on the service's worker threads.
+     * @return The future completed with the outcome of the request.  Register a
+     *         {@link WorkspotCallback} on it to be notified without polling.
+     */
+    public <T> WorkspotFuture<T> invoke(WorkspotRequest<T> request) {
+        return responseCache.submit(request);
+    }
+
+    /**
+     * @return The time the constructor took, which is spent on the main thread.
+     */
+    public long getCreationTimeMs() {
+        return creationTimeMs;
+    }
+
+    /**
+     * @return The executor, which exposes the active, queued, completed and rejected counts.
+     */
+    public WorkspotRequestExecutor getRequestExecutor() {
+        return requestExecutor;
+    }
+
+    /**
+     * @return The coalescing stage, which exposes the coalesced, batched and executed counts.
+     */
+    public WorkspotRequestCoalescer getRequestCoalescer() {
+        return requestCoalescer;
+    }
+
+    /**
+     * @return The response cache, which exposes its hit ratio and eviction counts.
+     */
+    public WorkspotResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Helper to submit a callable which returns a value at the given priority.
+     */
+    public <T> WorkspotFuture<T> submit(Callable<T> callable, WorkspotRequest.Priority priority) {
+        return invoke(WorkspotRequest.fromCallable(callable, priority));
+    }
+
+    /**
+     * Helper to submit a callable which returns a value at background priority.
+     */
+    public <T> WorkspotFuture<T> submit(Callable<T> callable) {
+        return submit(callable, WorkspotRequest.Priority.BACKGROUND);
+    }
+
    public class WorkspotServiceBinder extends Binder {
         public WorkspotService getService() {
             return WorkspotService.this;
         }
     }
-//
-//
-//    private static class WorkspotServiceCallable<RequestType extends O1WebAPIBase>
-//            implements Callable<Object>, IMainHandlerCompletion {
-//        private final WorkspotServiceRequest<RequestType> request;
-//        private final AtomicBoolean requestIsComplete = new AtomicBoolean(false);
-//
-//        protected WorkspotServiceCallable(
-//                final WorkspotServiceRequest<RequestType> request) {
-//            this.request = request;
-//        }
-//
-//        public Object call() {
-//            try {
-//                boolean executionResult = MainHandlerExecutor.getInstance()
-//                        .invoke(request.getRequest(), this);
-//
-//                // If execution failed due to some exception, then send the
-//                // failure to the operation
-//                if (executionResult == false) {
-//                    requestComplete(null);
-//                }
-//                // TODO: Is this loop required? Is it here to give time to
-//                // requestComplete?
-//                while (requestIsComplete.get() == false) {
-//                    Thread.sleep(10);
-//                }
-//            } catch (Exception e) {
-//                WSLog.d(TAG.WORKSPOTSERVICE,
-//                        "Exception in Service executor %d", e.toString());
-//            }
-//
-//            return request.getResponse();
-//        }
-//
-//        public void requestComplete(O1WebAPIBaseResponse response) {
-//            if (!Thread.currentThread().isInterrupted()) {
-//
-//                try {
-//                    if (request.getResponseOperation() != null
-//                            && response != null) {
-//                        request.setResponse(response);
-//                        request.getResponseOperation().processResponse(
-//                                request.getRequest(), response,
-//                                !response.anyErrors());
-//                    } else {
-//                        //If we receive no response, then we treat this as failure
-//                        WSLog.e(TAG.WORKSPOTSERVICE, "Request Failed");
-//                        request.getResponseOperation().requestFailed(
-//                                request.getRequest());
-//                    }
-//                } catch (Exception e) {
-//                    WSLog.e(TAG.WORKSPOTSERVICE,
-//                            "Exception caught in requestComplete", e);
-//                }
-//            } else {
-//                WSLog.d(TAG.WORKSPOTSERVICE,
-//                        "Thread Interrupted, not calling processResponse");
-//            }
-//            requestIsComplete.set(true);
-//
-//        }
-//    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        responseCache.onMemoryPressure(MemoryPressureLevels.fromTrimLevel(level));
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        responseCache.onMemoryPressure(MemoryPressureLevel.CRITICAL);
+    }
 
     @Override
     public void onDestroy() {
-        //shutdown the executor service.
-        if(executorService != null)
-            executorService.shutdown();
+        if (remoteDispatcher != null) remoteDispatcher.removeCallbacksAndMessages(null);
+        //shutdown the executor service, cancelling queued requests.
+        if(requestExecutor != null)
+            requestExecutor.shutdown();
     }
 
 //    @Override
@@ -0,0 +1,150 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Starts and binds {@link WorkspotService} and routes requests to it.
+ *
+ * Requests issued before the service is connected are buffered and replayed in order once it is,
+ * so callers never need to wait for the binding.  In lazy mode nothing is started until the first
+ * request, which keeps the service's creation and worker threads out of application startup.
+ */
+public class WorkspotServiceClient {
+
+    private static final String TAG = "WorkspotServiceClient";
+
+    private final Context mContext;
+    private final WorkspotRequestBuffer mBuffer = new WorkspotRequestBuffer();
+    private final Object mLock = new Object();
+    // Guarded by mLock.
+    private boolean mBound;
+    private long mBindStartTimeMs = -1;
+    private long mBindDurationMs = -1;
+
+    private final ServiceConnection mConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName className, IBinder service) {
+            if (service instanceof WorkspotService.WorkspotServiceBinder) {
+                onConnected(((WorkspotService.WorkspotServiceBinder) service).getService());
+            } else {
+                // A binder of another type means the service runs in another process, where
+                // request objects cannot be sent; those need WorkspotRemoteClient.  Unbind, which
+                // leaves the service running for such clients, and fail requests from now on
+                // rather than buffering them for a connection that will never come.
+                Log.w(TAG, "WorkspotService is not running in this process");
+                unbind();
+                mBuffer.fail(new IllegalStateException(
+                        "WorkspotService runs in another process; use WorkspotRemoteClient"));
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName className) {
+            // The system rebinds once the service restarts; requests are buffered until then.
+            Log.w(TAG, "WorkspotService disconnected");
+            mBuffer.detach();
+        }
+    };
+
+    public WorkspotServiceClient(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Starts and binds the service if that has not been done yet.  Does nothing once the service
+     * turned out to run in another process.
+     */
+    public void connect() {
+        if (mBuffer.isFailed()) return;
+        synchronized (mLock) {
+            if (mBound) return;
+            mBound = true;
+            mBindStartTimeMs = SystemClock.elapsedRealtime();
+        }
+        Intent intent = new Intent(mContext, WorkspotService.class);
+        mContext.startService(intent);
+        mContext.bindService(intent, mConnection, Context.BIND_AUTO_CREATE);
+    }
+
+    /**
+     * Unbinds the service.  Requests still buffered are cancelled.
+     */
+    public void disconnect() {
+        unbind();
+        mBuffer.failPending(new CancellationException("WorkspotService unbound"));
+    }
+
+    /**
+     * Sends a request to the service, connecting to it first if needed.
+     * @return The future completed with the outcome of the request.
+     */
+    public <T> WorkspotFuture<T> invoke(WorkspotRequest<T> request) {
+        WorkspotFuture<T> future = mBuffer.submit(request);
+        if (!mBuffer.isAttached()) connect();
+        return future;
+    }
+
+    /**
+     * @return Whether the service is connected, rather than requests being buffered.
+     */
+    public boolean isConnected() {
+        return mBuffer.isAttached();
+    }
+
+    /**
+     * @return The time from the bind request until the service connected, which includes its
+     *         creation, or -1 if it has not connected yet.
+     */
+    public long getBindDurationMs() {
+        synchronized (mLock) {
+            return mBindDurationMs;
+        }
+    }
+
+    /**
+     * @return The number of requests that were buffered before the service connected.
+     */
+    public int getReplayedCount() {
+        return mBuffer.getReplayedCount();
+    }
+
+    private void unbind() {
+        synchronized (mLock) {
+            if (!mBound) return;
+            mBound = false;
+        }
+        mContext.unbindService(mConnection);
+    }
+
+    private void onConnected(final WorkspotService service) {
+        long bindDurationMs;
+        synchronized (mLock) {
+            if (!mBound) return;
+            if (mBindDurationMs < 0) {
+                mBindDurationMs = SystemClock.elapsedRealtime() - mBindStartTimeMs;
+            }
+            bindDurationMs = mBindDurationMs;
+        }
+        int replayedCount = mBuffer.attach(new WorkspotRequestBuffer.Target() {
+            @Override
+            public <T> WorkspotFuture<T> invoke(WorkspotRequest<T> request) {
+                return service.invoke(request);
+            }
+        });
+        Log.i(TAG, "WorkspotService connected " + bindDurationMs + "ms after binding, "
+                + "created in " + service.getCreationTimeMs() + "ms; replayed "
+                + replayedCount + " requests");
+    }
+}
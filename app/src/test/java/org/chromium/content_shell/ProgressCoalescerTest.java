@@ -0,0 +1,109 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link ProgressCoalescer}.
+ */
+public class ProgressCoalescerTest {
+
+    private FakeDelegate mDelegate;
+    private ProgressCoalescer mCoalescer;
+
+    @Before
+    public void setUp() {
+        mDelegate = new FakeDelegate();
+        mCoalescer = new ProgressCoalescer(mDelegate);
+    }
+
+    @Test
+    public void testUpdatesWithinOneFrameAreDrawnOnce() {
+        mCoalescer.onProgressChanged(0.1);
+        mCoalescer.onProgressChanged(0.2);
+        mCoalescer.onProgressChanged(0.3);
+        assertEquals(1, mDelegate.mScheduledFrames);
+        assertTrue(mDelegate.mLevels.isEmpty());
+
+        mDelegate.runFrame(mCoalescer);
+        assertEquals("[3000]", mDelegate.mLevels.toString());
+    }
+
+    @Test
+    public void testUnchangedLevelIsNotRedrawn() {
+        mCoalescer.onProgressChanged(0.5);
+        mDelegate.runFrame(mCoalescer);
+        mCoalescer.onProgressChanged(0.5);
+        assertEquals(1, mDelegate.mScheduledFrames);
+
+        // A level that returns to the drawn one before the frame is not redrawn either.
+        mCoalescer.onProgressChanged(0.6);
+        mCoalescer.onProgressChanged(0.5);
+        mDelegate.runFrame(mCoalescer);
+        assertEquals("[5000]", mDelegate.mLevels.toString());
+    }
+
+    @Test
+    public void testCountsPerLoad() {
+        for (int i = 1; i <= 10; i++) {
+            mCoalescer.onProgressChanged(i / 20.0);
+            if (i % 5 == 0) mDelegate.runFrame(mCoalescer);
+        }
+        mCoalescer.onProgressChanged(1.0);
+        assertEquals(11, mCoalescer.getUpdateCount());
+        mDelegate.runFrame(mCoalescer);
+
+        assertEquals(11, mCoalescer.getLastLoadUpdateCount());
+        assertEquals(3, mCoalescer.getLastLoadRedrawCount());
+        assertEquals(0, mCoalescer.getUpdateCount());
+        assertEquals(0, mCoalescer.getRedrawCount());
+    }
+
+    @Test
+    public void testResetCancelsPendingFrame() {
+        mCoalescer.onProgressChanged(0.4);
+        mCoalescer.reset(0);
+        assertFalse(mDelegate.mFramePending);
+        assertEquals("[0]", mDelegate.mLevels.toString());
+    }
+
+    private static class FakeDelegate implements ProgressCoalescer.Delegate {
+        final List<Integer> mLevels = new ArrayList<Integer>();
+        int mScheduledFrames;
+        boolean mFramePending;
+
+        @Override
+        public void scheduleFrame() {
+            assertFalse(mFramePending);
+            mScheduledFrames++;
+            mFramePending = true;
+        }
+
+        @Override
+        public void cancelFrame() {
+            mFramePending = false;
+        }
+
+        @Override
+        public void drawLevel(int level) {
+            mLevels.add(level);
+        }
+
+        void runFrame(ProgressCoalescer coalescer) {
+            if (!mFramePending) return;
+            mFramePending = false;
+            coalescer.onFrame();
+        }
+    }
+}
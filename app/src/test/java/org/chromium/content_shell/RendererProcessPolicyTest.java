@@ -0,0 +1,54 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.chromium.base.MemoryPressureLevel;
+import org.junit.Test;
+
+/**
+ * Tests for {@link RendererProcessPolicy}.
+ */
+public class RendererProcessPolicyTest {
+
+    private static final long MB = 1024L * 1024L;
+
+    @Test
+    public void testLowRamDevicesGetOneRenderer() {
+        assertEquals(1, RendererProcessPolicy.computeProcessLimit(4096 * MB, true));
+        assertEquals(1, RendererProcessPolicy.computeProcessLimit(768 * MB, false));
+    }
+
+    @Test
+    public void testTwoGigabyteDevicesAreLimited() {
+        assertEquals(3, RendererProcessPolicy.computeProcessLimit(1900 * MB, false));
+        assertEquals(3, RendererProcessPolicy.computeProcessLimit(2048 * MB, false));
+    }
+
+    @Test
+    public void testLimitGrowsWithRamAndStaysWithinServiceSlots() {
+        int previous = 0;
+        for (long memMb = 512; memMb <= 64 * 1024; memMb *= 2) {
+            int limit = RendererProcessPolicy.computeProcessLimit(memMb * MB, false);
+            assertTrue(limit >= previous);
+            assertTrue(limit <= RendererProcessPolicy.MAX_SANDBOXED_SERVICES);
+            previous = limit;
+        }
+    }
+
+    @Test
+    public void testMemoryPressureLowersTheLimitInEffect() {
+        assertEquals(5, RendererProcessPolicy.computeLimitInEffect(5, MemoryPressureLevel.NONE));
+        assertEquals(2,
+                RendererProcessPolicy.computeLimitInEffect(5, MemoryPressureLevel.MODERATE));
+        assertEquals(1,
+                RendererProcessPolicy.computeLimitInEffect(5, MemoryPressureLevel.CRITICAL));
+        // Never raised above the limit given to native code.
+        assertEquals(1,
+                RendererProcessPolicy.computeLimitInEffect(1, MemoryPressureLevel.MODERATE));
+    }
+}
@@ -0,0 +1,97 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link ShellSessionState} and {@link TabState}.
+ */
+public class ShellSessionStateTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        List<TabState> tabs = new ArrayList<TabState>();
+        tabs.add(new TabState(new String[] {"http://a.test/", "http://b.test/\u00e9"},
+                new String[] {"A", "B \u2603"}, 1, 480));
+        tabs.add(new TabState(new String[] {"http://c.test/"}, new String[] {null}, 0, 0));
+        ShellSessionState session = read(write(new ShellSessionState(tabs, 1)));
+
+        assertEquals(1, session.getActiveIndex());
+        assertEquals(2, session.getTabs().size());
+        TabState first = session.getTabs().get(0);
+        assertEquals(2, first.getEntryCount());
+        assertEquals("http://b.test/\u00e9", first.getCurrentUrl());
+        assertEquals("B \u2603", first.getTitle(1));
+        assertEquals("http://a.test/", first.getUrl(0));
+        assertEquals(480, first.getScrollY());
+        // A missing title is stored as an empty one.
+        assertEquals("", session.getTabs().get(1).getTitle(0));
+    }
+
+    @Test
+    public void testEmptySession() throws IOException {
+        ShellSessionState session =
+                read(write(new ShellSessionState(new ArrayList<TabState>(), -1)));
+        assertEquals(-1, session.getActiveIndex());
+        assertEquals(0, session.getTabs().size());
+    }
+
+    @Test
+    public void testEmptyTabHasNoCurrentUrl() {
+        assertNull(new TabState(new String[0], new String[0], -1, 0).getCurrentUrl());
+    }
+
+    @Test
+    public void testRejectsForeignFile() {
+        assertRejected("not a session file".getBytes());
+    }
+
+    @Test
+    public void testRejectsTruncatedFile() throws IOException {
+        List<TabState> tabs = Arrays.asList(new TabState(
+                new String[] {"http://a.test/"}, new String[] {"A"}, 0, 0));
+        byte[] bytes = write(new ShellSessionState(tabs, 0));
+        assertRejected(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    @Test
+    public void testRejectsOutOfRangeActiveIndex() throws IOException {
+        byte[] bytes = write(new ShellSessionState(new ArrayList<TabState>(), -1));
+        // The active index is the fourth int of the header.
+        bytes[15] = 3;
+        assertRejected(bytes);
+    }
+
+    private static byte[] write(ShellSessionState session) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        session.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static ShellSessionState read(byte[] bytes) throws IOException {
+        return ShellSessionState.readFrom(new ByteArrayInputStream(bytes));
+    }
+
+    private static void assertRejected(byte[] bytes) {
+        try {
+            read(bytes);
+            fail("Expected the session to be rejected");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+}
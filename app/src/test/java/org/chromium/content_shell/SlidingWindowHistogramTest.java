@@ -0,0 +1,75 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link SlidingWindowHistogram}.
+ */
+public class SlidingWindowHistogramTest {
+
+    @Test
+    public void testEmptyHistogram() {
+        SlidingWindowHistogram histogram = new SlidingWindowHistogram(1000, 10);
+        assertEquals(0, histogram.getCount(0));
+        assertEquals(-1, histogram.getPercentile(50, 0));
+    }
+
+    @Test
+    public void testPercentilesAreWithinBucketError() {
+        SlidingWindowHistogram histogram = new SlidingWindowHistogram(1000, 10);
+        for (int value = 1; value <= 1000; value++) histogram.record(value, 500);
+        assertEquals(1000, histogram.getCount(500));
+        assertWithin(500, histogram.getPercentile(50, 500));
+        assertWithin(950, histogram.getPercentile(95, 500));
+        assertWithin(990, histogram.getPercentile(99, 500));
+    }
+
+    @Test
+    public void testValuesExpireOutOfWindow() {
+        SlidingWindowHistogram histogram = new SlidingWindowHistogram(1000, 10);
+        histogram.record(10000, 0);
+        histogram.record(5, 950);
+        assertEquals(2, histogram.getCount(950));
+        assertEquals(1, histogram.getCount(1050));
+        assertWithin(5, histogram.getPercentile(99, 1050));
+
+        // Reusing the slice of the expired value clears it.
+        histogram.record(5, 1050);
+        assertEquals(2, histogram.getCount(1050));
+        assertEquals(0, histogram.getCount(3000));
+    }
+
+    @Test
+    public void testConcurrentRecordingLosesNothingWithinOneSlice() throws Exception {
+        final SlidingWindowHistogram histogram = new SlidingWindowHistogram(1000, 10);
+        histogram.record(0, 0);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) histogram.record(i % 100, 0);
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(40001, histogram.getCount(0));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected * 1.25 + 1);
+    }
+}
@@ -0,0 +1,125 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link SnapshotLruCache}, the bookkeeping of {@link NavigationSnapshotCache}.
+ */
+public class SnapshotLruCacheTest {
+
+    private final List<String> mFreed = new ArrayList<String>();
+    private SnapshotLruCache<Integer, String> mCache;
+
+    @Before
+    public void setUp() {
+        mCache = createCache(10);
+    }
+
+    // Values are sized by their length.
+    private SnapshotLruCache<Integer, String> createCache(long maxSizeBytes) {
+        return new SnapshotLruCache<Integer, String>(maxSizeBytes) {
+            @Override
+            protected long sizeOf(String value) {
+                return value.length();
+            }
+
+            @Override
+            protected void free(String value) {
+                mFreed.add(value);
+            }
+        };
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedOverBudget() {
+        mCache.put(1, "aaaa");
+        mCache.put(2, "bbbb");
+        // Using the first makes the second the least recently used.
+        mCache.release(mCache.acquire(1));
+        mCache.put(3, "cccc");
+
+        assertEquals(Arrays.asList("bbbb"), mFreed);
+        assertNull(mCache.acquire(2));
+        assertEquals(8, mCache.getSizeBytes());
+        assertEquals(2, mCache.getEntryCount());
+        assertEquals(1, mCache.getEvictionCount());
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    @Test
+    public void testReplacedAndOversizedValuesAreFreed() {
+        mCache.put(1, "aaaa");
+        mCache.put(1, "bb");
+        assertEquals(Arrays.asList("aaaa"), mFreed);
+        assertEquals(2, mCache.getSizeBytes());
+
+        assertFalse(mCache.put(2, "this is too long"));
+        assertEquals(Arrays.asList("aaaa", "this is too long"), mFreed);
+        assertEquals(1, mCache.getEntryCount());
+        // Neither counts as an eviction.
+        assertEquals(0, mCache.getEvictionCount());
+    }
+
+    @Test
+    public void testAcquiredValueIsFreedOnlyOnceReleased() {
+        mCache.put(1, "aaaa");
+        SnapshotLruCache.Entry<String> entry = mCache.acquire(1);
+        assertEquals("aaaa", entry.getValue());
+
+        mCache.trimToSize(0);
+        assertEquals(0, mCache.getSizeBytes());
+        assertNull(mCache.acquire(1));
+        assertTrue(mFreed.isEmpty());
+
+        mCache.release(entry);
+        assertEquals(Arrays.asList("aaaa"), mFreed);
+    }
+
+    @Test
+    public void testTrimKeepsMostRecentlyUsed() {
+        mCache.put(1, "aaa");
+        mCache.put(2, "bbb");
+        mCache.put(3, "ccc");
+        // As on moderate memory pressure.
+        mCache.trimToSize(5);
+        assertEquals(Arrays.asList("aaa", "bbb"), mFreed);
+        assertEquals(Arrays.asList(3), mCache.getKeys());
+        assertEquals(2, mCache.getEvictionCount());
+    }
+
+    @Test
+    public void testLoweringBudgetEvicts() {
+        mCache.put(1, "aaaa");
+        mCache.put(2, "bbbb");
+        mCache.setMaxSizeBytes(4);
+        assertEquals(Arrays.asList("aaaa"), mFreed);
+        assertFalse(mCache.put(3, "ccccc"));
+    }
+
+    @Test
+    public void testRemoveIsNotAnEviction() {
+        mCache.put(1, "aaaa");
+        mCache.put(2, "bbbb");
+        mCache.remove(1);
+        mCache.remove(5);
+        assertEquals(Arrays.asList("aaaa"), mFreed);
+        assertEquals(Arrays.asList(2), mCache.getKeys());
+        assertEquals(0, mCache.getEvictionCount());
+        assertEquals(2, mCache.getPutCount());
+    }
+}
@@ -0,0 +1,141 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link UrlHistoryIndex}.
+ */
+public class UrlHistoryIndexTest {
+
+    private static final long NOW_MS = 1460000000000L;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private static String[] query(UrlHistoryIndex index, String text, int maxResults) {
+        String[] results = new String[maxResults];
+        int count = index.query(text, NOW_MS, results);
+        return Arrays.copyOf(results, count);
+    }
+
+    @Test
+    public void testMatchesIgnoreSchemeWwwAndCase() {
+        UrlHistoryIndex index = new UrlHistoryIndex();
+        index.addVisits("https://www.Example.com/", 1, NOW_MS);
+        index.addVisits("http://exam.org/", 1, NOW_MS - 1);
+        index.addVisits("https://other.com/", 1, NOW_MS);
+
+        assertArrayEquals(new String[] {"https://www.Example.com/", "http://exam.org/"},
+                query(index, "Exam", 5));
+        assertArrayEquals(new String[] {"https://www.Example.com/"},
+                query(index, "HTTP://WWW.example", 5));
+        assertArrayEquals(new String[] {"https://other.com/"}, query(index, "o", 5));
+        assertEquals(0, query(index, "x", 5).length);
+    }
+
+    @Test
+    public void testNothingTypedMatchesNothing() {
+        UrlHistoryIndex index = new UrlHistoryIndex();
+        index.addVisits("https://www.example.com/", 1, NOW_MS);
+        assertEquals(0, query(index, "", 5).length);
+        assertEquals(0, query(index, "https://www.", 5).length);
+    }
+
+    @Test
+    public void testRanksByVisitsWeightedByRecency() {
+        UrlHistoryIndex index = new UrlHistoryIndex();
+        index.addVisits("https://a.com/old", 5, NOW_MS - 200 * DAY_MS);
+        index.addVisits("https://a.com/recent", 1, NOW_MS - DAY_MS);
+        index.addVisits("https://a.com/frequent", 3, NOW_MS - 20 * DAY_MS);
+
+        // 3 * 50 beats 1 * 100, which beats 5 * 10.
+        assertArrayEquals(new String[] {
+                "https://a.com/frequent", "https://a.com/recent", "https://a.com/old"},
+                query(index, "a.com", 5));
+    }
+
+    @Test
+    public void testTiesGoToTheMostRecentVisit() {
+        UrlHistoryIndex index = new UrlHistoryIndex();
+        index.addVisits("https://a.com/1", 1, NOW_MS - 2000);
+        index.addVisits("https://a.com/2", 1, NOW_MS - 1000);
+        assertArrayEquals(new String[] {"https://a.com/2", "https://a.com/1"},
+                query(index, "a", 5));
+    }
+
+    @Test
+    public void testRevisitsAccumulate() {
+        UrlHistoryIndex index = new UrlHistoryIndex();
+        index.addVisits("https://a.com/1", 1, NOW_MS - 1000);
+        index.addVisits("https://a.com/2", 2, NOW_MS - 1000);
+        index.addVisits("https://a.com/1", 2, NOW_MS - 5000);
+
+        assertEquals(2, index.size());
+        assertEquals(3, index.getVisitCount(0));
+        assertEquals(NOW_MS - 1000, index.getLastVisitTimeMs(0));
+        assertArrayEquals(new String[] {"https://a.com/1", "https://a.com/2"},
+                query(index, "a", 5));
+    }
+
+    @Test
+    public void testKeepsOnlyTheBestResults() {
+        UrlHistoryIndex index = new UrlHistoryIndex();
+        for (int i = 1; i <= 20; i++) index.addVisits("https://a.com/" + i, i, NOW_MS);
+        assertArrayEquals(new String[] {"https://a.com/20", "https://a.com/19", "https://a.com/18"},
+                query(index, "a.com/", 3));
+        assertEquals(0, query(index, "a.com/", 0).length);
+    }
+
+    @Test
+    public void testUrlsAddedAfterAQueryAreFound() {
+        UrlHistoryIndex index = new UrlHistoryIndex();
+        index.addVisits("https://b.com/", 1, NOW_MS);
+        index.addVisits("https://d.com/", 1, NOW_MS);
+        assertArrayEquals(new String[] {"https://b.com/"}, query(index, "b", 5));
+        index.addVisits("https://c.com/", 1, NOW_MS);
+        index.addVisits("https://a.com/", 1, NOW_MS);
+        index.addVisits("https://bb.com/", 2, NOW_MS);
+        assertArrayEquals(new String[] {"https://a.com/"}, query(index, "a", 5));
+        assertArrayEquals(new String[] {"https://bb.com/", "https://b.com/"},
+                query(index, "b", 5));
+        assertArrayEquals(new String[] {"https://c.com/"}, query(index, "c", 5));
+        assertArrayEquals(new String[] {"https://d.com/"}, query(index, "d", 5));
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(7);
+        UrlHistoryIndex index = new UrlHistoryIndex();
+        List<String> urls = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder host = new StringBuilder();
+            for (int j = 0; j < 1 + random.nextInt(6); j++) {
+                host.append((char) ('a' + random.nextInt(4)));
+            }
+            String url = (random.nextBoolean() ? "https://www." : "http://") + host + "/" + i;
+            urls.add(url);
+            // Distinct visit counts make the expected order unambiguous.
+            index.addVisits(url, i + 1, NOW_MS);
+        }
+        for (String prefix : new String[] {"a", "ab", "dcb", "bbb", "c/1", "aaaaaa"}) {
+            List<String> expected = new ArrayList<String>();
+            for (String url : urls) {
+                if (UrlHistoryIndex.matchKey(url).startsWith(prefix)) expected.add(url);
+            }
+            Collections.reverse(expected);
+            expected = expected.subList(0, Math.min(10, expected.size()));
+            assertEquals(prefix, expected, Arrays.asList(query(index, prefix, 10)));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link UrlHistoryLog}, the file format of {@link UrlHistoryStore}.
+ */
+public class UrlHistoryLogTest {
+
+    private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+    private final DataOutputStream mOut = new DataOutputStream(mBytes);
+    private final UrlHistoryIndex mIndex = new UrlHistoryIndex();
+
+    private UrlHistoryLog.ReadResult read(byte[] log) throws IOException {
+        return UrlHistoryLog.read(new ByteArrayInputStream(log), mIndex);
+    }
+
+    @Test
+    public void testReadsCompleteLog() throws IOException {
+        UrlHistoryLog.writeHeader(mOut);
+        UrlHistoryLog.writeRecord(mOut, "http://a.com/", 1, 10);
+        UrlHistoryLog.writeRecord(mOut, "http://b.com/", 2, 20);
+        UrlHistoryLog.writeRecord(mOut, "http://a.com/", 1, 30);
+
+        UrlHistoryLog.ReadResult result = read(mBytes.toByteArray());
+        assertEquals(UrlHistoryLog.COMPLETE, result.mStatus);
+        assertEquals(3, result.mRecordCount);
+        assertEquals(mBytes.size(), result.mValidLength);
+        assertEquals(2, mIndex.size());
+        assertEquals(2, mIndex.getVisitCount(0));
+        assertEquals(30, mIndex.getLastVisitTimeMs(0));
+    }
+
+    @Test
+    public void testKeepsRecordsBeforeCutShortOne() throws IOException {
+        UrlHistoryLog.writeHeader(mOut);
+        UrlHistoryLog.writeRecord(mOut, "http://a.com/", 1, 10);
+        int validLength = mBytes.size();
+        UrlHistoryLog.writeRecord(mOut, "http://b.com/", 1, 20);
+        byte[] log = mBytes.toByteArray();
+
+        // Cut within the URL, then within the visit time.
+        for (int length : new int[] {validLength + 5, log.length - 1}) {
+            UrlHistoryIndex index = new UrlHistoryIndex();
+            UrlHistoryLog.ReadResult result = UrlHistoryLog.read(
+                    new ByteArrayInputStream(Arrays.copyOf(log, length)), index);
+            assertEquals(UrlHistoryLog.TRUNCATED, result.mStatus);
+            assertEquals(1, result.mRecordCount);
+            assertEquals(validLength, result.mValidLength);
+            assertEquals(1, index.size());
+            assertEquals("http://a.com/", index.getUrl(0));
+        }
+    }
+
+    @Test
+    public void testCutShortHeaderIsTruncatedToNothing() throws IOException {
+        UrlHistoryLog.writeHeader(mOut);
+        UrlHistoryLog.ReadResult result = read(Arrays.copyOf(mBytes.toByteArray(), 6));
+        assertEquals(UrlHistoryLog.TRUNCATED, result.mStatus);
+        assertEquals(0, result.mValidLength);
+
+        result = read(new byte[0]);
+        assertEquals(UrlHistoryLog.TRUNCATED, result.mStatus);
+        assertEquals(0, result.mValidLength);
+    }
+
+    @Test
+    public void testKeepsRecordsBeforeMalformedOne() throws IOException {
+        UrlHistoryLog.writeHeader(mOut);
+        UrlHistoryLog.writeRecord(mOut, "http://a.com/", 1, 10);
+        int validLength = mBytes.size();
+        // A two byte UTF-8 sequence with an invalid second byte.
+        mOut.writeShort(2);
+        mOut.writeByte(0xc0);
+        mOut.writeByte(0x00);
+        mOut.writeInt(1);
+        mOut.writeLong(20);
+        UrlHistoryLog.writeRecord(mOut, "http://b.com/", 1, 30);
+
+        UrlHistoryLog.ReadResult result = read(mBytes.toByteArray());
+        assertEquals(UrlHistoryLog.CORRUPT, result.mStatus);
+        assertEquals(1, result.mRecordCount);
+        assertEquals(validLength, result.mValidLength);
+        assertEquals(1, mIndex.size());
+        assertEquals("http://a.com/", mIndex.getUrl(0));
+    }
+
+    @Test
+    public void testUnknownHeaderIsCorrupt() throws IOException {
+        mOut.writeInt(0x12345678);
+        mOut.writeInt(1);
+        UrlHistoryLog.writeRecord(mOut, "http://a.com/", 1, 10);
+
+        UrlHistoryLog.ReadResult result = read(mBytes.toByteArray());
+        assertEquals(UrlHistoryLog.CORRUPT, result.mStatus);
+        assertEquals(0, result.mRecordCount);
+        assertEquals(0, mIndex.size());
+    }
+
+    @Test
+    public void testCompactedIndexReadsBack() throws IOException {
+        mIndex.addVisits("http://a.com/", 3, 10);
+        mIndex.addVisits("http://b.com/", 1, 20);
+        UrlHistoryLog.writeIndex(mOut, mIndex);
+
+        UrlHistoryIndex index = new UrlHistoryIndex();
+        UrlHistoryLog.ReadResult result = UrlHistoryLog.read(
+                new ByteArrayInputStream(mBytes.toByteArray()), index);
+        assertEquals(UrlHistoryLog.COMPLETE, result.mStatus);
+        assertEquals(2, result.mRecordCount);
+        assertEquals(3, index.getVisitCount(0));
+        assertEquals(20, index.getLastVisitTimeMs(1));
+    }
+
+    @Test
+    public void testKeepMostRecentDropsOldestUrls() {
+        mIndex.addVisits("http://a.com/", 5, 30);
+        mIndex.addVisits("http://b.com/", 9, 10);
+        mIndex.addVisits("http://c.com/", 1, 20);
+        assertSame(mIndex, UrlHistoryLog.keepMostRecent(mIndex, 3));
+
+        UrlHistoryIndex capped = UrlHistoryLog.keepMostRecent(mIndex, 2);
+        assertEquals(2, capped.size());
+        assertEquals("http://a.com/", capped.getUrl(0));
+        assertEquals(5, capped.getVisitCount(0));
+        assertEquals("http://c.com/", capped.getUrl(1));
+        assertEquals(3, mIndex.size());
+    }
+}
@@ -0,0 +1,78 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests for {@link LayoutTestSharder}.
+ */
+public class LayoutTestSharderTest {
+
+    @Test
+    public void testDirectoryOfIgnoresArguments() {
+        assertEquals("fast/dom", LayoutTestSharder.directoryOf("fast/dom/a.html"));
+        assertEquals("fast/dom", LayoutTestSharder.directoryOf("fast/dom/a.html'--pixel-test"));
+        assertEquals("", LayoutTestSharder.directoryOf("a.html"));
+    }
+
+    @Test
+    public void testKeepsDirectoriesTogetherAndBalances() {
+        List<String> tests = Arrays.asList(
+                "a/1.html", "b/1.html", "a/2.html", "c/1.html", "a/3.html", "b/2.html");
+        List<List<String>> shards = LayoutTestSharder.shard(tests, 2);
+        // a/ goes to the first shard, then b/ and c/ to the second, in list order.
+        assertEquals(Arrays.asList("a/1.html", "a/2.html", "a/3.html"), shards.get(0));
+        assertEquals(Arrays.asList("b/1.html", "c/1.html", "b/2.html"), shards.get(1));
+    }
+
+    @Test
+    public void testEveryTestRunsOnce() {
+        List<String> tests = new ArrayList<String>();
+        for (int i = 0; i < 500; i++) tests.add("dir" + (i * 7 % 23) + "/test" + i + ".html");
+        List<List<String>> shards = LayoutTestSharder.shard(tests, 4);
+        assertEquals(4, shards.size());
+        Set<String> seen = new HashSet<String>();
+        for (List<String> shard : shards) {
+            assertTrue(shard.size() > 0);
+            for (String test : shard) assertTrue(test, seen.add(test));
+        }
+        assertEquals(new HashSet<String>(tests), seen);
+    }
+
+    @Test
+    public void testMoreShardsThanDirectories() {
+        List<List<String>> shards = LayoutTestSharder.shard(Arrays.asList("a/1.html"), 3);
+        assertEquals(Arrays.asList("a/1.html"), shards.get(0));
+        assertEquals(Collections.<String>emptyList(), shards.get(1));
+        assertEquals(Collections.<String>emptyList(), shards.get(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoShards() {
+        LayoutTestSharder.shard(Arrays.asList("a/1.html"), 0);
+    }
+
+    @Test
+    public void testMergeRestoresListOrderAndFillsGaps() {
+        List<String> tests = Arrays.asList("a/1.html", "b/1.html", "a/2.html");
+        List<String> first = Arrays.asList(LayoutTestSharder.formatResult("a/1.html", "DONE", 5),
+                LayoutTestSharder.formatResult("a/2.html", "CRASH", 7));
+        List<String> second = Collections.emptyList();
+        assertEquals(Arrays.asList("a/1.html\tDONE\t5", "b/1.html\tNOT_RUN\t-1",
+                "a/2.html\tCRASH\t7"),
+                LayoutTestSharder.mergeResults(tests, Arrays.asList(first, second)));
+    }
+}
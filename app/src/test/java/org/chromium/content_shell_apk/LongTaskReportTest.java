@@ -0,0 +1,100 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link LongTaskReport} and {@link LongTaskReportRing}.
+ */
+public class LongTaskReportTest {
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("long_tasks", "");
+        mDirectory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        String[] names = mDirectory.list();
+        if (names != null) {
+            for (String name : names) new File(mDirectory, name).delete();
+        }
+        mDirectory.delete();
+    }
+
+    private static StackTraceElement[] stack(String... methods) {
+        StackTraceElement[] stack = new StackTraceElement[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            stack[i] = new StackTraceElement("Foo", methods[i], "Foo.java", i + 1);
+        }
+        return stack;
+    }
+
+    @Test
+    public void testCollapsesConsecutiveIdenticalStacks() {
+        LongTaskReport report = new LongTaskReport("Handler (Foo) {1} null: 0", 1000, 5000);
+        report.addSample(1100, stack("a", "b"));
+        report.addSample(1110, stack("a", "b"));
+        report.addSample(1120, stack("c"));
+        report.addSample(1130, stack("a", "b"));
+        report.setDurationMs(140);
+
+        assertEquals(4, report.getSampleCount());
+        assertEquals("{\"message\":\"Handler (Foo) {1} null: 0\",\"startTimeMs\":5000,"
+                + "\"startUptimeMs\":1000,\"durationMs\":140,\"finished\":true,\"samples\":["
+                + "{\"offsetMs\":100,\"count\":2,\"stack\":[\"Foo.a(Foo.java:1)\","
+                + "\"Foo.b(Foo.java:2)\"]},"
+                + "{\"offsetMs\":120,\"count\":1,\"stack\":[\"Foo.c(Foo.java:1)\"]},"
+                + "{\"offsetMs\":130,\"count\":1,\"stack\":[\"Foo.a(Foo.java:1)\","
+                + "\"Foo.b(Foo.java:2)\"]}]}", report.toJson());
+    }
+
+    @Test
+    public void testTruncatesDeepStacksAndEscapes() {
+        String[] methods = new String[LongTaskReport.MAX_STACK_DEPTH + 10];
+        Arrays.fill(methods, "m");
+        LongTaskReport report = new LongTaskReport("say \"hi\"\n", 0, 0);
+        report.addSample(0, stack(methods));
+        String json = report.toJson();
+        assertTrue(json, json.startsWith("{\"message\":\"say \\\"hi\\\"\\u000a\""));
+        assertTrue(json, json.contains("\"durationMs\":-1,\"finished\":false"));
+        assertTrue(json, json.contains("Foo.java:" + LongTaskReport.MAX_STACK_DEPTH + ")\"]"));
+        assertTrue(json, !json.contains("Foo.java:" + (LongTaskReport.MAX_STACK_DEPTH + 1) + ")"));
+    }
+
+    @Test
+    public void testRingKeepsTheNewestReports() throws IOException {
+        // The ring creates the directory.
+        LongTaskReportRing ring = new LongTaskReportRing(mDirectory, 3);
+        for (int i = 0; i < 5; i++) ring.write("report " + i);
+        assertEquals(Arrays.asList("long_task_2.json", "long_task_3.json", "long_task_4.json"),
+                sortedNames(mDirectory));
+
+        // Numbering continues after a restart.
+        new LongTaskReportRing(mDirectory, 3).write("report 5");
+        assertEquals(Arrays.asList("long_task_3.json", "long_task_4.json", "long_task_5.json"),
+                sortedNames(mDirectory));
+    }
+
+    private static List<String> sortedNames(File directory) {
+        String[] names = directory.list();
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+}
@@ -0,0 +1,64 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link PageLoadBenchmarkResults}.
+ */
+public class PageLoadBenchmarkResultsTest {
+
+    @Test
+    public void testParseUrlListSkipsBlankLinesAndComments() throws IOException {
+        String list = "# Top sites\nhttps://example.com/\n\n  www.example.org  \n#https://x.com/\n";
+        assertEquals(Arrays.asList("https://example.com/", "http://www.example.org"),
+                PageLoadBenchmarkResults.parseUrlList(new StringReader(list)));
+    }
+
+    @Test
+    public void testMedianIgnoresMilestonesNotReached() {
+        assertEquals(-1, PageLoadBenchmarkResults.median(new long[0]));
+        assertEquals(-1, PageLoadBenchmarkResults.median(new long[] {-1, -1}));
+        assertEquals(20, PageLoadBenchmarkResults.median(new long[] {30, -1, 10, 20}));
+        assertEquals(15, PageLoadBenchmarkResults.median(new long[] {20, 10}));
+    }
+
+    @Test
+    public void testCsvHasOneRowPerLoad() {
+        PageLoadBenchmarkResults results = new PageLoadBenchmarkResults(
+                Arrays.asList("https://a.com/", "https://b.com/?x=1,2"), 1);
+        results.add(new PageLoadBenchmarkResults.Sample("https://a.com/", false, 0, 5, 8, 13, 21));
+        results.add(new PageLoadBenchmarkResults.Sample(
+                "https://b.com/?x=1,2", true, 0, -1, -1, -1, -1));
+        assertEquals(PageLoadBenchmarkResults.CSV_HEADER + "\n"
+                + "https://a.com/,cold,0,5,8,13,21\n"
+                + "\"https://b.com/?x=1,2\",warm,0,-1,-1,-1,-1\n", results.toCsv());
+    }
+
+    @Test
+    public void testJsonSummarizesEachUrlAndMode() {
+        String url = "https://a.com/";
+        PageLoadBenchmarkResults results = new PageLoadBenchmarkResults(Arrays.asList(url), 3);
+        results.add(new PageLoadBenchmarkResults.Sample(url, false, 0, 10, 20, 30, 1));
+        results.add(new PageLoadBenchmarkResults.Sample(url, true, 0, 1, 2, 3, 1));
+        results.add(new PageLoadBenchmarkResults.Sample(url, false, 1, 30, 40, 50, 1));
+        results.add(new PageLoadBenchmarkResults.Sample(url, false, 2, -1, -1, -1, -1));
+        String json = results.toJson();
+        assertTrue(json, json.startsWith("{\"iterations\":3,\"loads\":[{\"url\":\"" + url));
+        assertTrue(json, json.endsWith("\"medians\":["
+                + "{\"url\":\"https://a.com/\",\"mode\":\"cold\",\"loads\":3,\"failures\":1,"
+                + "\"commitMs\":20,\"firstPaintMs\":30,\"loadCompleteMs\":40},"
+                + "{\"url\":\"https://a.com/\",\"mode\":\"warm\",\"loads\":1,\"failures\":0,"
+                + "\"commitMs\":1,\"firstPaintMs\":2,\"loadCompleteMs\":3}]}"));
+    }
+}
@@ -0,0 +1,71 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link PrefetchedCommandLine}.
+ */
+public class PrefetchedCommandLineTest {
+
+    @Test
+    public void testParsesSwitchesAndValues() {
+        PrefetchedCommandLine commandLine = PrefetchedCommandLine.parse(
+                "content_shell --enable-url-prerender --renderer-process-limit=3 url".toCharArray());
+        assertTrue(commandLine.hasSwitch("enable-url-prerender"));
+        assertEquals("", commandLine.getSwitchValue("enable-url-prerender"));
+        assertEquals("3", commandLine.getSwitchValue("renderer-process-limit"));
+        assertFalse(commandLine.hasSwitch("url"));
+        assertNull(commandLine.getSwitchValue("dump-startup-trace"));
+    }
+
+    @Test
+    public void testQuotedValueKeepsSpaces() {
+        PrefetchedCommandLine commandLine = PrefetchedCommandLine.parse(
+                "content_shell --user-agent=\"Shell Agent\"".toCharArray());
+        assertEquals("Shell Agent", commandLine.getSwitchValue("user-agent"));
+    }
+
+    @Test
+    public void testStopsAtSwitchTerminator() {
+        PrefetchedCommandLine commandLine =
+                PrefetchedCommandLine.parse("content_shell --a -- --b".toCharArray());
+        assertTrue(commandLine.hasSwitch("a"));
+        assertFalse(commandLine.hasSwitch("b"));
+    }
+
+    @Test
+    public void testMissingFileKeepsProgramName() {
+        PrefetchedCommandLine commandLine = PrefetchedCommandLine.parse(null);
+        assertEquals(1, commandLine.getArgs().length);
+        assertEquals("", commandLine.getArgs()[0]);
+    }
+
+    @Test
+    public void testWithArgumentsAppendsEveryArgument() {
+        PrefetchedCommandLine commandLine = PrefetchedCommandLine.parse("shell --a".toCharArray());
+        assertSame(commandLine, commandLine.withArguments(new String[0]));
+
+        // Intent arguments have no program name.
+        PrefetchedCommandLine single =
+                commandLine.withArguments(new String[] {"--run-layout-test"});
+        assertTrue(single.hasSwitch("run-layout-test"));
+
+        PrefetchedCommandLine merged = commandLine.withArguments(new String[] {"--b=1", "--c"});
+        assertTrue(merged.hasSwitch("a"));
+        assertEquals("1", merged.getSwitchValue("b"));
+        assertTrue(merged.hasSwitch("c"));
+        assertEquals(4, merged.getArgs().length);
+        // The original snapshot is unchanged.
+        assertFalse(commandLine.hasSwitch("b"));
+    }
+}
@@ -0,0 +1,31 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link WorkspotIpc}.
+ */
+public class WorkspotIpcTest {
+
+    @Test
+    public void testPayloadsAboveTheLimitAreShared() {
+        int limit = WorkspotIpc.DEFAULT_INLINE_PAYLOAD_LIMIT_BYTES;
+        assertTrue(WorkspotIpc.isSentInline(limit, limit));
+        assertFalse(WorkspotIpc.isSentInline(limit + 1, limit));
+        assertTrue(WorkspotIpc.isSentInline(4 * 1024 * 1024, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testNegativeLimitSharesAllButEmptyPayloads() {
+        assertFalse(WorkspotIpc.isSentInline(1, -1));
+        // No ashmem region can be created for them.
+        assertTrue(WorkspotIpc.isSentInline(0, -1));
+    }
+}
@@ -0,0 +1,95 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Tests for {@link WorkspotPendingRequests}, which tracks the requests of
+ * {@link WorkspotRemoteClient}.
+ */
+public class WorkspotPendingRequestsTest {
+
+    private WorkspotPendingRequests<ByteBuffer> mPendingRequests;
+
+    @Before
+    public void setUp() {
+        mPendingRequests = new WorkspotPendingRequests<ByteBuffer>();
+    }
+
+    @Test
+    public void testResponsesAreMatchedById() {
+        WorkspotFuture<ByteBuffer> first = new WorkspotFuture<ByteBuffer>();
+        WorkspotFuture<ByteBuffer> second = new WorkspotFuture<ByteBuffer>();
+        int firstId = mPendingRequests.add(first);
+        int secondId = mPendingRequests.add(second);
+        assertTrue(firstId != secondId);
+        assertEquals(2, mPendingRequests.size());
+
+        assertSame(second, mPendingRequests.remove(secondId));
+        assertNull(mPendingRequests.remove(secondId));
+        assertSame(first, mPendingRequests.remove(firstId));
+        assertEquals(0, mPendingRequests.size());
+    }
+
+    @Test
+    public void testCancelledRequestIsForgotten() {
+        WorkspotFuture<ByteBuffer> future = new WorkspotFuture<ByteBuffer>();
+        int requestId = mPendingRequests.add(future);
+        assertTrue(future.cancel(true));
+        assertEquals(0, mPendingRequests.size());
+        // A late response finds nobody waiting.
+        assertNull(mPendingRequests.remove(requestId));
+    }
+
+    @Test
+    public void testServiceDeathFailsPendingRequests() throws InterruptedException {
+        WorkspotFuture<ByteBuffer> future = new WorkspotFuture<ByteBuffer>();
+        mPendingRequests.add(future);
+        IllegalStateException error = new IllegalStateException("died");
+        assertEquals(1, mPendingRequests.failAll(error));
+        assertFailedWith(error, future);
+
+        // Still accepts requests afterwards.
+        assertTrue(mPendingRequests.add(new WorkspotFuture<ByteBuffer>()) >= 0);
+    }
+
+    @Test
+    public void testCloseFailsPendingAndLaterRequests() throws InterruptedException {
+        WorkspotFuture<ByteBuffer> pending = new WorkspotFuture<ByteBuffer>();
+        mPendingRequests.add(pending);
+        IllegalStateException error = new IllegalStateException("closed");
+        assertTrue(mPendingRequests.close(error));
+        assertFalse(mPendingRequests.close(error));
+        assertFailedWith(error, pending);
+
+        WorkspotFuture<ByteBuffer> later = new WorkspotFuture<ByteBuffer>();
+        assertEquals(-1, mPendingRequests.add(later));
+        assertFailedWith(error, later);
+        assertEquals(0, mPendingRequests.size());
+    }
+
+    private static void assertFailedWith(Throwable error, WorkspotFuture<?> future)
+            throws InterruptedException {
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+}
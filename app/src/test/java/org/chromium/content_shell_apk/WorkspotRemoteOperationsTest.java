@@ -0,0 +1,63 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tests for {@link WorkspotRemoteOperations}, which {@link WorkspotRemoteDispatcher} translates
+ * remote requests with, and {@link WorkspotChecksumOperation}.
+ */
+public class WorkspotRemoteOperationsTest {
+
+    private WorkspotRemoteOperations mOperations;
+
+    @Before
+    public void setUp() {
+        mOperations = new WorkspotRemoteOperations();
+        mOperations.register(WorkspotService.OPERATION_CHECKSUM, new WorkspotChecksumOperation());
+    }
+
+    @Test
+    public void testRequestRunsTheNamedOperationAtThePriority() throws Exception {
+        ByteBuffer payload = ByteBuffer.allocate(20);
+        payload.putLong(0, 3).putLong(8, 4).putInt(16, 99);
+        WorkspotRequest<ByteBuffer> request = mOperations.createRequest(
+                WorkspotService.OPERATION_CHECKSUM,
+                WorkspotRequest.Priority.INTERACTIVE.ordinal(), payload);
+        assertSame(WorkspotRequest.Priority.INTERACTIVE, request.getPriority());
+
+        ByteBuffer response = request.execute();
+        // The trailing partial long is ignored.
+        assertEquals(7, response.getLong(0));
+        assertEquals(8, response.remaining());
+    }
+
+    @Test
+    public void testUnknownOperationOrPriorityIsRejected() {
+        ByteBuffer payload = ByteBuffer.allocate(0);
+        assertNull(mOperations.createRequest("unknown", 0, payload));
+        assertNull(mOperations.createRequest(null, 0, payload));
+        assertNull(mOperations.createRequest(WorkspotService.OPERATION_CHECKSUM, -1, payload));
+        assertNull(mOperations.createRequest(WorkspotService.OPERATION_CHECKSUM,
+                WorkspotRequest.Priority.values().length, payload));
+    }
+
+    @Test
+    public void testChecksumReadsFromPositionWithoutConsuming() {
+        ByteBuffer payload = ByteBuffer.allocate(24);
+        payload.putLong(0, 100).putLong(8, 1).putLong(16, 2);
+        payload.position(8);
+        assertEquals(3, WorkspotChecksumOperation.checksum(payload));
+        assertEquals(8, payload.position());
+    }
+}
@@ -0,0 +1,159 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link WorkspotRequestBuffer}.
+ */
+public class WorkspotRequestBufferTest {
+
+    private WorkspotRequestBuffer mBuffer;
+    private RecordingTarget mTarget;
+
+    @Before
+    public void setUp() {
+        mBuffer = new WorkspotRequestBuffer();
+        mTarget = new RecordingTarget();
+    }
+
+    @Test
+    public void testRequestsAreReplayedInOrderOnAttach() throws Exception {
+        WorkspotRequest<String> first = request("first");
+        WorkspotRequest<String> second = request("second");
+        WorkspotFuture<String> firstFuture = mBuffer.submit(first);
+        WorkspotFuture<String> secondFuture = mBuffer.submit(second);
+        assertEquals(2, mBuffer.getPendingCount());
+        assertFalse(firstFuture.isDone());
+
+        assertEquals(2, mBuffer.attach(mTarget));
+        assertEquals(0, mBuffer.getPendingCount());
+        assertEquals(2, mBuffer.getReplayedCount());
+        assertSame(first, mTarget.mRequests.get(0));
+        assertSame(second, mTarget.mRequests.get(1));
+
+        mTarget.completeAll();
+        assertEquals("first", firstFuture.get(5, TimeUnit.SECONDS));
+        assertEquals("second", secondFuture.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRequestsGoStraightToAttachedTarget() throws Exception {
+        mBuffer.attach(mTarget);
+        WorkspotFuture<String> future = mBuffer.submit(request("a"));
+        assertEquals(1, mTarget.mRequests.size());
+        assertSame(mTarget.mFutures.get(0), future);
+        assertEquals(0, mBuffer.getReplayedCount());
+
+        // Held again after the service disconnects, until it reconnects.
+        mBuffer.detach();
+        mBuffer.submit(request("b"));
+        assertEquals(1, mTarget.mRequests.size());
+        assertEquals(1, mBuffer.attach(mTarget));
+        assertEquals(2, mTarget.mRequests.size());
+    }
+
+    @Test
+    public void testRequestCancelledWhileHeldIsNotReplayed() {
+        WorkspotFuture<String> cancelled = mBuffer.submit(request("a"));
+        WorkspotRequest<String> kept = request("b");
+        mBuffer.submit(kept);
+        assertTrue(cancelled.cancel(true));
+
+        mBuffer.attach(mTarget);
+        assertEquals(1, mTarget.mRequests.size());
+        assertSame(kept, mTarget.mRequests.get(0));
+    }
+
+    @Test
+    public void testCancellingReplayedRequestCancelsItsExecution() {
+        WorkspotFuture<String> future = mBuffer.submit(request("a"));
+        mBuffer.attach(mTarget);
+        assertTrue(future.cancel(true));
+        assertTrue(mTarget.mFutures.get(0).isCancelled());
+    }
+
+    @Test
+    public void testUnbindCancelsHeldRequests() throws Exception {
+        WorkspotFuture<String> future = mBuffer.submit(request("a"));
+        mBuffer.failPending(new CancellationException("unbound"));
+        assertTrue(future.isCancelled());
+
+        // Later requests are held for the next connection.
+        WorkspotFuture<String> later = mBuffer.submit(request("b"));
+        assertFalse(later.isDone());
+        mBuffer.attach(mTarget);
+        assertEquals(1, mTarget.mRequests.size());
+    }
+
+    @Test
+    public void testFailureFailsHeldAndLaterRequests() throws Exception {
+        WorkspotFuture<String> held = mBuffer.submit(request("a"));
+        IllegalStateException error = new IllegalStateException("remote");
+        mBuffer.fail(error);
+        assertFailedWith(error, held);
+
+        WorkspotFuture<String> later = mBuffer.submit(request("b"));
+        assertFailedWith(error, later);
+        assertEquals(0, mBuffer.getPendingCount());
+    }
+
+    private static void assertFailedWith(Throwable error, WorkspotFuture<?> future)
+            throws InterruptedException {
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+
+    private static WorkspotRequest<String> request(final String value) {
+        return new WorkspotRequest<String>(WorkspotRequest.Priority.BACKGROUND) {
+            @Override
+            public String execute() {
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Records the requests it is sent and completes them on demand.
+     */
+    private static class RecordingTarget implements WorkspotRequestBuffer.Target {
+        final List<WorkspotRequest<?>> mRequests = new ArrayList<WorkspotRequest<?>>();
+        final List<WorkspotFuture<?>> mFutures = new ArrayList<WorkspotFuture<?>>();
+
+        @Override
+        public <T> WorkspotFuture<T> invoke(WorkspotRequest<T> request) {
+            WorkspotFuture<T> future = new WorkspotFuture<T>();
+            mRequests.add(request);
+            mFutures.add(future);
+            return future;
+        }
+
+        @SuppressWarnings("unchecked")
+        void completeAll() throws Exception {
+            for (int i = 0; i < mRequests.size(); i++) {
+                ((WorkspotFuture<Object>) mFutures.get(i)).set(mRequests.get(i).execute());
+            }
+        }
+    }
+}
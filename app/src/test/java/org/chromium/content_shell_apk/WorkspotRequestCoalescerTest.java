@@ -0,0 +1,219 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link WorkspotRequestCoalescer}.
+ */
+public class WorkspotRequestCoalescerTest {
+
+    private WorkspotRequestExecutor mExecutor;
+    private WorkspotRequestCoalescer mCoalescer;
+
+    @Before
+    public void setUp() {
+        mExecutor = new WorkspotRequestExecutor(2, "Test");
+        mCoalescer = new WorkspotRequestCoalescer(mExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdown();
+    }
+
+    @Test
+    public void testIdenticalInFlightRequestsShareOneExecution() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+        List<WorkspotFuture<String>> futures = new ArrayList<WorkspotFuture<String>>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(mCoalescer.submit(new KeyedRequest("a", gate, executions)));
+        }
+        gate.countDown();
+        for (WorkspotFuture<String> future : futures) {
+            assertEquals("a", future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, executions.get());
+        assertEquals(5, mCoalescer.getSubmittedCount());
+        assertEquals(4, mCoalescer.getCoalescedCount());
+        assertEquals(1, mCoalescer.getExecutedCount());
+    }
+
+    @Test
+    public void testCancellingOneCallerKeepsSharedExecution() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+        WorkspotFuture<String> first = mCoalescer.submit(new KeyedRequest("a", gate, executions));
+        WorkspotFuture<String> second = mCoalescer.submit(new KeyedRequest("a", gate, executions));
+        assertTrue(first.cancel(true));
+        gate.countDown();
+        assertEquals("a", second.get(5, TimeUnit.SECONDS));
+        assertTrue(first.isCancelled());
+    }
+
+    @Test
+    public void testSharingCallersKeepTheirOwnDeadlines() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+        WorkspotFuture<String> tight = mCoalescer.submit(
+                new KeyedRequest("a", gate, executions).setTimeoutMs(50));
+        WorkspotFuture<String> loose = mCoalescer.submit(new KeyedRequest("a", gate, executions));
+        WorkspotFuture<String> tighter = mCoalescer.submit(
+                new KeyedRequest("a", gate, executions).setTimeoutMs(20));
+        assertTimesOut(tighter);
+        assertTimesOut(tight);
+        // The caller without a deadline still gets the shared result.
+        assertFalse(loose.isDone());
+        gate.countDown();
+        assertEquals("a", loose.get(5, TimeUnit.SECONDS));
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    public void testExecutionIsCancelledOnceEveryCallerTimedOut() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+        WorkspotFuture<String> first = mCoalescer.submit(
+                new KeyedRequest("a", gate, executions).setTimeoutMs(20));
+        WorkspotFuture<String> second = mCoalescer.submit(
+                new KeyedRequest("a", gate, executions).setTimeoutMs(40));
+        assertTimesOut(first);
+        assertTimesOut(second);
+        // The execution is interrupted while the gate is still closed.
+        long deadlineMs = System.currentTimeMillis() + 5000;
+        while (mExecutor.getActiveCount() > 0 && System.currentTimeMillis() < deadlineMs) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, mExecutor.getActiveCount());
+
+        // A later request no longer shares the abandoned execution.
+        gate.countDown();
+        assertEquals("a", mCoalescer.submit(new KeyedRequest("a", gate, executions))
+                .get(5, TimeUnit.SECONDS));
+        assertEquals(2, executions.get());
+        assertEquals(1, mCoalescer.getCoalescedCount());
+    }
+
+    private static void assertTimesOut(WorkspotFuture<String> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected the deadline to pass");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testCompletedRequestIsNotReused() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch open = new CountDownLatch(0);
+        mCoalescer.submit(new KeyedRequest("a", open, executions)).get(5, TimeUnit.SECONDS);
+        mCoalescer.submit(new KeyedRequest("a", open, executions)).get(5, TimeUnit.SECONDS);
+        assertEquals(2, executions.get());
+    }
+
+    @Test
+    public void testRequestsWithinWindowAreBatched() throws Exception {
+        mCoalescer.setBatchWindowMs(50);
+        SumBatcher batcher = new SumBatcher();
+        List<WorkspotFuture<Integer>> futures = new ArrayList<WorkspotFuture<Integer>>();
+        for (int i = 0; i < 4; i++) futures.add(mCoalescer.submit(new SquareRequest(batcher, i)));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.valueOf(i * i), futures.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, batcher.mCalls.get());
+        assertEquals(4, mCoalescer.getBatchedCount());
+        assertEquals(1, mCoalescer.getExecutedCount());
+    }
+
+    @Test
+    public void testFullBatchIsExecutedWithoutWaitingForWindow() throws Exception {
+        mCoalescer.setBatchWindowMs(60000);
+        mCoalescer.setMaxBatchSize(3);
+        SumBatcher batcher = new SumBatcher();
+        List<WorkspotFuture<Integer>> futures = new ArrayList<WorkspotFuture<Integer>>();
+        for (int i = 0; i < 3; i++) futures.add(mCoalescer.submit(new SquareRequest(batcher, i)));
+        for (WorkspotFuture<Integer> future : futures) future.get(5, TimeUnit.SECONDS);
+        assertEquals(1, batcher.mCalls.get());
+    }
+
+    private static class KeyedRequest extends WorkspotRequest<String> {
+        private final String mKey;
+        private final CountDownLatch mGate;
+        private final AtomicInteger mExecutions;
+
+        KeyedRequest(String key, CountDownLatch gate, AtomicInteger executions) {
+            super(Priority.INTERACTIVE);
+            mKey = key;
+            mGate = gate;
+            mExecutions = executions;
+        }
+
+        @Override
+        public Object getRequestKey() {
+            return mKey;
+        }
+
+        @Override
+        public String execute() throws Exception {
+            mExecutions.incrementAndGet();
+            mGate.await();
+            return mKey;
+        }
+    }
+
+    private static class SquareRequest extends WorkspotRequest<Integer> {
+        final int mValue;
+        private final SumBatcher mBatcher;
+
+        SquareRequest(SumBatcher batcher, int value) {
+            super(Priority.PREFETCH);
+            mBatcher = batcher;
+            mValue = value;
+        }
+
+        @Override
+        public WorkspotBatcher<Integer> getBatcher() {
+            return mBatcher;
+        }
+
+        @Override
+        public Integer execute() {
+            return mValue * mValue;
+        }
+    }
+
+    private static class SumBatcher implements WorkspotBatcher<Integer> {
+        final AtomicInteger mCalls = new AtomicInteger();
+
+        @Override
+        public List<Integer> executeBatch(List<WorkspotRequest<Integer>> requests) {
+            mCalls.incrementAndGet();
+            List<Integer> results = new ArrayList<Integer>();
+            for (WorkspotRequest<Integer> request : requests) {
+                int value = ((SquareRequest) request).mValue;
+                results.add(value * value);
+            }
+            return results;
+        }
+    }
+}
@@ -0,0 +1,433 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for {@link WorkspotRequestExecutor}.  These run on a plain JVM.
+ */
+public class WorkspotRequestExecutorTest {
+
+    private WorkspotRequestExecutor mExecutor;
+
+    @After
+    public void tearDown() {
+        if (mExecutor != null) mExecutor.shutdown();
+    }
+
+    @Test
+    public void testCallbackReceivesResult() throws Exception {
+        mExecutor = new WorkspotRequestExecutor(2, "Test");
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<String> result = new AtomicReference<String>();
+        mExecutor.submit(new ValueRequest<String>("ok", WorkspotRequest.Priority.INTERACTIVE))
+                .addCallback(new WorkspotCallback<String>() {
+                    @Override
+                    public void onSuccess(String value) {
+                        result.set(value);
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(Throwable error) {
+                        fail("Unexpected failure " + error);
+                    }
+                });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("ok", result.get());
+    }
+
+    @Test
+    public void testThrowingCallbackDoesNotFailRequest() throws Exception {
+        mExecutor = new WorkspotRequestExecutor(1, "Test");
+        CountDownLatch gate = new CountDownLatch(1);
+        WorkspotFuture<Void> future = mExecutor.submit(new GateRequest(gate));
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        future.addCallback(new WorkspotCallback<Void>() {
+            @Override
+            public void onSuccess(Void value) {
+                throw new IllegalStateException("Thrown by the test");
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                failures.incrementAndGet();
+            }
+        });
+        future.addCallback(new WorkspotCallback<Void>() {
+            @Override
+            public void onSuccess(Void value) {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                failures.incrementAndGet();
+            }
+        });
+        gate.countDown();
+
+        // The callbacks after the throwing one still run, and the request still succeeded.
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNull(future.get());
+        assertEquals(0, failures.get());
+        assertEquals(1, mExecutor.getCompletedCount());
+    }
+
+    @Test
+    public void testQueuedRequestsStartInPriorityOrder() throws Exception {
+        mExecutor = new WorkspotRequestExecutor(1, "Test");
+        CountDownLatch gate = new CountDownLatch(1);
+        mExecutor.submit(new GateRequest(gate));
+
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        List<WorkspotFuture<String>> futures = new ArrayList<WorkspotFuture<String>>();
+        futures.add(mExecutor.submit(new OrderRequest(order, "background1",
+                WorkspotRequest.Priority.BACKGROUND)));
+        futures.add(mExecutor.submit(new OrderRequest(order, "prefetch",
+                WorkspotRequest.Priority.PREFETCH)));
+        futures.add(mExecutor.submit(new OrderRequest(order, "background2",
+                WorkspotRequest.Priority.BACKGROUND)));
+        futures.add(mExecutor.submit(new OrderRequest(order, "interactive",
+                WorkspotRequest.Priority.INTERACTIVE)));
+        gate.countDown();
+        for (WorkspotFuture<String> future : futures) future.get(5, TimeUnit.SECONDS);
+
+        assertEquals("[interactive, prefetch, background1, background2]", order.toString());
+    }
+
+    @Test
+    public void testRunningRequestFailsAtDeadline() throws Exception {
+        mExecutor = new WorkspotRequestExecutor(1, "Test");
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        WorkspotRequest<Void> request = new WorkspotRequest<Void>(
+                WorkspotRequest.Priority.INTERACTIVE) {
+            @Override
+            public Void execute() throws Exception {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                    throw e;
+                }
+                return null;
+            }
+        };
+        request.setTimeoutMs(50);
+        WorkspotFuture<Void> future = mExecutor.submit(request);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected the deadline to expire");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        // The worker must be freed for the next request.
+        assertEquals("next", mExecutor.submit(new ValueRequest<String>("next",
+                WorkspotRequest.Priority.INTERACTIVE)).get(5, TimeUnit.SECONDS));
+        assertTrue(interrupted.get());
+    }
+
+    @Test
+    public void testQueuedRequestPastDeadlineNeverRuns() throws Exception {
+        mExecutor = new WorkspotRequestExecutor(1, "Test");
+        CountDownLatch gate = new CountDownLatch(1);
+        mExecutor.submit(new GateRequest(gate));
+
+        final AtomicBoolean ran = new AtomicBoolean();
+        WorkspotRequest<Void> request = new WorkspotRequest<Void>(
+                WorkspotRequest.Priority.BACKGROUND) {
+            @Override
+            public Void execute() {
+                ran.set(true);
+                return null;
+            }
+        };
+        request.setTimeoutMs(20);
+        WorkspotFuture<Void> future = mExecutor.submit(request);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected the deadline to expire");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertEquals(0, mExecutor.getQueuedCount());
+        gate.countDown();
+        mExecutor.submit(new ValueRequest<Void>(null, WorkspotRequest.Priority.BACKGROUND))
+                .get(5, TimeUnit.SECONDS);
+        assertFalse(ran.get());
+    }
+
+    @Test
+    public void testCancelQueuedRequest() throws Exception {
+        mExecutor = new WorkspotRequestExecutor(1, "Test");
+        CountDownLatch gate = new CountDownLatch(1);
+        mExecutor.submit(new GateRequest(gate));
+
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        WorkspotFuture<String> future = mExecutor.submit(
+                new ValueRequest<String>("never", WorkspotRequest.Priority.PREFETCH));
+        future.addCallback(new WorkspotCallback<String>() {
+            @Override
+            public void onSuccess(String result) {
+                fail("Cancelled request must not succeed");
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                error.set(e);
+            }
+        });
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertTrue(error.get() instanceof CancellationException);
+        assertEquals(0, mExecutor.getQueuedCount());
+        gate.countDown();
+    }
+
+    @Test
+    public void testCancelRunningRequestInterruptsIt() throws Exception {
+        mExecutor = new WorkspotRequestExecutor(1, "Test");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        WorkspotFuture<Void> future = mExecutor.submit(new WorkspotRequest<Void>(
+                WorkspotRequest.Priority.INTERACTIVE) {
+            @Override
+            public Void execute() throws Exception {
+                started.countDown();
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return null;
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(future.cancel(true));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testIdleThreadsExitAfterKeepAlive() throws Exception {
+        mExecutor = new WorkspotRequestExecutor(3, 50, 16, "Test");
+        assertEquals(0, mExecutor.getThreadCount());
+        CountDownLatch gate = new CountDownLatch(1);
+        List<WorkspotFuture<Void>> futures = new ArrayList<WorkspotFuture<Void>>();
+        for (int i = 0; i < 3; i++) futures.add(mExecutor.submit(new GateRequest(gate)));
+        assertEquals(3, mExecutor.getThreadCount());
+        gate.countDown();
+        for (WorkspotFuture<Void> future : futures) future.get(5, TimeUnit.SECONDS);
+        assertEquals(3, mExecutor.getCompletedCount());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mExecutor.getThreadCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, mExecutor.getThreadCount());
+        assertEquals(3, mExecutor.getLargestThreadCount());
+    }
+
+    @Test
+    public void testFullQueueRejectsRequestOfEqualPriority() throws Exception {
+        mExecutor = new WorkspotRequestExecutor(1, 1000, 1, "Test");
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        mExecutor.submit(new GateRequest(gate, started));
+        WorkspotFuture<String> queued = mExecutor.submit(
+                new ValueRequest<String>("queued", WorkspotRequest.Priority.BACKGROUND));
+        WorkspotFuture<String> rejected = mExecutor.submit(
+                new ValueRequest<String>("rejected", WorkspotRequest.Priority.BACKGROUND));
+        assertTrue(rejected.isDone());
+        try {
+            rejected.get();
+            fail("Expected the request to be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(1, mExecutor.getRejectedCount());
+        assertEquals(1, mExecutor.getQueuedCount());
+        // The worker takes the request asynchronously.
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(1, mExecutor.getActiveCount());
+        gate.countDown();
+        assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFullQueueEvictsLowerPriorityRequest() throws Exception {
+        mExecutor = new WorkspotRequestExecutor(1, 1000, 2, "Test");
+        CountDownLatch gate = new CountDownLatch(1);
+        mExecutor.submit(new GateRequest(gate));
+        WorkspotFuture<String> prefetch = mExecutor.submit(
+                new ValueRequest<String>("prefetch", WorkspotRequest.Priority.PREFETCH));
+        WorkspotFuture<String> background = mExecutor.submit(
+                new ValueRequest<String>("background", WorkspotRequest.Priority.BACKGROUND));
+        WorkspotFuture<String> interactive = mExecutor.submit(
+                new ValueRequest<String>("interactive", WorkspotRequest.Priority.INTERACTIVE));
+
+        try {
+            background.get(5, TimeUnit.SECONDS);
+            fail("Expected the background request to be evicted");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(1, mExecutor.getRejectedCount());
+        gate.countDown();
+        assertEquals("interactive", interactive.get(5, TimeUnit.SECONDS));
+        assertEquals("prefetch", prefetch.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Saturates the executor with background work and checks that interactive requests submitted
+     * on top of it are not stuck behind the backlog.
+     */
+    @Test
+    public void testInteractiveQueueingLatencyUnderLoad() throws Exception {
+        final int threads = 4;
+        final int backgroundRequests = 2000;
+        final int interactiveRequests = 50;
+        mExecutor = new WorkspotRequestExecutor(threads, "Test");
+
+        LatencyRecorder background = new LatencyRecorder(backgroundRequests);
+        LatencyRecorder interactive = new LatencyRecorder(interactiveRequests);
+        List<WorkspotFuture<Void>> futures = new ArrayList<WorkspotFuture<Void>>();
+        for (int i = 0; i < backgroundRequests; i++) {
+            futures.add(mExecutor.submit(new TimedRequest(background,
+                    WorkspotRequest.Priority.BACKGROUND)));
+        }
+        for (int i = 0; i < interactiveRequests; i++) {
+            futures.add(mExecutor.submit(new TimedRequest(interactive,
+                    WorkspotRequest.Priority.INTERACTIVE)));
+            Thread.sleep(1);
+        }
+        for (WorkspotFuture<Void> future : futures) future.get(30, TimeUnit.SECONDS);
+
+        long interactiveP50 = interactive.percentileNanos(50);
+        long interactiveP99 = interactive.percentileNanos(99);
+        long backgroundP50 = background.percentileNanos(50);
+        long backgroundP99 = background.percentileNanos(99);
+        assertTrue("Interactive p50 " + interactiveP50 + "ns should be below background p50 "
+                + backgroundP50 + "ns", interactiveP50 < backgroundP50);
+        assertTrue("Interactive p99 " + interactiveP99 + "ns should be below background p99 "
+                + backgroundP99 + "ns", interactiveP99 < backgroundP99);
+    }
+
+    private static class ValueRequest<T> extends WorkspotRequest<T> {
+        private final T mValue;
+
+        ValueRequest(T value, Priority priority) {
+            super(priority);
+            mValue = value;
+        }
+
+        @Override
+        public T execute() {
+            return mValue;
+        }
+    }
+
+    private static class GateRequest extends WorkspotRequest<Void> {
+        private final CountDownLatch mGate;
+        private final CountDownLatch mStarted;
+
+        GateRequest(CountDownLatch gate) {
+            this(gate, new CountDownLatch(1));
+        }
+
+        /**
+         * @param started Counted down once the request is running on a worker.
+         */
+        GateRequest(CountDownLatch gate, CountDownLatch started) {
+            super(Priority.INTERACTIVE);
+            mGate = gate;
+            mStarted = started;
+        }
+
+        @Override
+        public Void execute() throws Exception {
+            mStarted.countDown();
+            mGate.await();
+            return null;
+        }
+    }
+
+    private static class OrderRequest extends WorkspotRequest<String> {
+        private final List<String> mOrder;
+        private final String mName;
+
+        OrderRequest(List<String> order, String name, Priority priority) {
+            super(priority);
+            mOrder = order;
+            mName = name;
+        }
+
+        @Override
+        public String execute() {
+            mOrder.add(mName);
+            return mName;
+        }
+    }
+
+    private static class TimedRequest extends WorkspotRequest<Void> {
+        private final LatencyRecorder mRecorder;
+        private final long mSubmitTimeNanos = System.nanoTime();
+
+        TimedRequest(LatencyRecorder recorder, Priority priority) {
+            super(priority);
+            mRecorder = recorder;
+        }
+
+        @Override
+        public Void execute() {
+            mRecorder.record(System.nanoTime() - mSubmitTimeNanos);
+            // Simulate a short piece of work.
+            long end = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(200);
+            while (System.nanoTime() < end) {}
+            return null;
+        }
+    }
+
+    private static class LatencyRecorder {
+        private final long[] mSamples;
+        private int mCount;
+
+        LatencyRecorder(int capacity) {
+            mSamples = new long[capacity];
+        }
+
+        synchronized void record(long nanos) {
+            mSamples[mCount++] = nanos;
+        }
+
+        synchronized long percentileNanos(int percentile) {
+            long[] sorted = new long[mCount];
+            System.arraycopy(mSamples, 0, sorted, 0, mCount);
+            java.util.Arrays.sort(sorted);
+            return sorted[Math.min(mCount - 1, mCount * percentile / 100)];
+        }
+    }
+}
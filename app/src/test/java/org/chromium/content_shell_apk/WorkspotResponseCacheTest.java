@@ -0,0 +1,198 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.chromium.base.MemoryPressureLevel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for {@link WorkspotResponseCache}.
+ */
+public class WorkspotResponseCacheTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private WorkspotRequestExecutor mExecutor;
+    private FakeClockCache mCache;
+
+    @Before
+    public void setUp() {
+        mExecutor = new WorkspotRequestExecutor(2, "Test");
+        mCache = new FakeClockCache(new WorkspotRequestCoalescer(mExecutor), 1000);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdown();
+    }
+
+    @Test
+    public void testFreshResponseIsServedFromCache() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        assertEquals("a", get(new CachedRequest("a", 100, 0, executions)));
+        assertEquals("a", get(new CachedRequest("a", 100, 0, executions)));
+        assertEquals(1, executions.get());
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+        assertEquals(0.5, mCache.getHitRatio(), 0.001);
+    }
+
+    @Test
+    public void testExpiredResponseIsRefetched() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        get(new CachedRequest("a", 100, 0, executions));
+        mCache.mNowMs += 100;
+        get(new CachedRequest("a", 100, 0, executions));
+        assertEquals(2, executions.get());
+        assertEquals(0, mCache.getHitCount());
+    }
+
+    @Test
+    public void testStaleResponseIsServedWhileRevalidating() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        get(new CachedRequest("a", 100, 1000, executions));
+        mCache.mNowMs += 500;
+
+        final CountDownLatch revalidated = new CountDownLatch(1);
+        CachedRequest request = new CachedRequest("a", 100, 1000, executions) {
+            @Override
+            public String execute() throws Exception {
+                String result = super.execute();
+                revalidated.countDown();
+                return result;
+            }
+        };
+        assertEquals("a", get(request));
+        assertEquals(1, mCache.getStaleHitCount());
+        assertTrue(revalidated.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        waitForHitAfterRevalidation(executions);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvictedOverBudget() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        get(new CachedRequest("a", 100, 0, executions).withSize(400));
+        get(new CachedRequest("b", 100, 0, executions).withSize(400));
+        // Touch "a" so that "b" is the least recently used entry.
+        get(new CachedRequest("a", 100, 0, executions).withSize(400));
+        get(new CachedRequest("c", 100, 0, executions).withSize(400));
+
+        assertEquals(2, mCache.getEntryCount());
+        assertEquals(800, mCache.getSizeBytes());
+        assertEquals(1, mCache.getEvictionCount());
+        int before = executions.get();
+        get(new CachedRequest("a", 100, 0, executions).withSize(400));
+        assertEquals(before, executions.get());
+        get(new CachedRequest("b", 100, 0, executions).withSize(400));
+        assertEquals(before + 1, executions.get());
+    }
+
+    @Test
+    public void testResponseLargerThanBudgetIsNotCached() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        get(new CachedRequest("a", 100, 0, executions).withSize(2000));
+        assertEquals(0, mCache.getEntryCount());
+    }
+
+    @Test
+    public void testMemoryPressureTrimsCache() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        for (String key : new String[] {"a", "b", "c", "d"}) {
+            get(new CachedRequest(key, 100, 0, executions).withSize(200));
+        }
+        assertEquals(800, mCache.getSizeBytes());
+        mCache.onMemoryPressure(MemoryPressureLevel.MODERATE);
+        assertEquals(400, mCache.getSizeBytes());
+        mCache.onMemoryPressure(MemoryPressureLevel.CRITICAL);
+        assertEquals(0, mCache.getEntryCount());
+    }
+
+    private String get(WorkspotRequest<String> request) throws Exception {
+        return mCache.submit(request).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * The refreshed response is stored just after the request returns, so poll until a request
+     * is served fresh from the cache.
+     */
+    private void waitForHitAfterRevalidation(AtomicInteger executions) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (mCache.getHitCount() == 0 && System.nanoTime() < deadline) {
+            get(new CachedRequest("a", 100, 1000, executions));
+            Thread.sleep(10);
+        }
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    private static class FakeClockCache extends WorkspotResponseCache {
+        volatile long mNowMs;
+
+        FakeClockCache(WorkspotRequestCoalescer coalescer, long maxSizeBytes) {
+            super(coalescer, maxSizeBytes);
+        }
+
+        @Override
+        protected long now() {
+            return mNowMs;
+        }
+    }
+
+    private static class CachedRequest extends WorkspotRequest<String> {
+        private final String mKey;
+        private final long mTtlMs;
+        private final long mStaleWhileRevalidateMs;
+        private final AtomicInteger mExecutions;
+        private int mSize = DEFAULT_RESPONSE_SIZE_BYTES / 10;
+
+        CachedRequest(String key, long ttlMs, long staleWhileRevalidateMs,
+                AtomicInteger executions) {
+            super(Priority.INTERACTIVE);
+            mKey = key;
+            mTtlMs = ttlMs;
+            mStaleWhileRevalidateMs = staleWhileRevalidateMs;
+            mExecutions = executions;
+        }
+
+        CachedRequest withSize(int size) {
+            mSize = size;
+            return this;
+        }
+
+        @Override
+        public Object getRequestKey() {
+            return mKey;
+        }
+
+        @Override
+        public long getCacheTtlMs() {
+            return mTtlMs;
+        }
+
+        @Override
+        public long getStaleWhileRevalidateMs() {
+            return mStaleWhileRevalidateMs;
+        }
+
+        @Override
+        public int estimateResponseSize(String response) {
+            return mSize;
+        }
+
+        @Override
+        public String execute() throws Exception {
+            mExecutions.incrementAndGet();
+            return mKey;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell.benchmarks;
+
+import org.chromium.content_shell.ProgressCoalescer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost per progress update of a load that reports many updates per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProgressCoalescerBenchmark {
+
+    private static final int UPDATES_PER_LOAD = 100;
+    private static final int UPDATES_PER_FRAME = 10;
+
+    private ProgressCoalescer mCoalescer;
+    private int mDrawnLevels;
+
+    @Setup
+    public void setUp() {
+        mCoalescer = new ProgressCoalescer(new ProgressCoalescer.Delegate() {
+            @Override
+            public void scheduleFrame() {}
+
+            @Override
+            public void cancelFrame() {}
+
+            @Override
+            public void drawLevel(int level) {
+                mDrawnLevels += level;
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(UPDATES_PER_LOAD)
+    public int load() {
+        mCoalescer.reset(0);
+        for (int i = 1; i <= UPDATES_PER_LOAD; i++) {
+            mCoalescer.onProgressChanged((double) i / UPDATES_PER_LOAD);
+            if (i % UPDATES_PER_FRAME == 0) mCoalescer.onFrame();
+        }
+        return mDrawnLevels;
+    }
+}
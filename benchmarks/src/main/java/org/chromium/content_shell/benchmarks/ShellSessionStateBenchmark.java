@@ -0,0 +1,72 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell.benchmarks;
+
+import org.chromium.content_shell.ShellSessionState;
+import org.chromium.content_shell.TabState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing and reading the session of ten tabs with twenty history entries each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShellSessionStateBenchmark {
+
+    private static final int TABS = 10;
+    private static final int ENTRIES_PER_TAB = 20;
+
+    private ShellSessionState mSession;
+    private byte[] mEncoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<TabState> tabs = new ArrayList<TabState>();
+        for (int tab = 0; tab < TABS; tab++) {
+            String[] urls = new String[ENTRIES_PER_TAB];
+            String[] titles = new String[ENTRIES_PER_TAB];
+            for (int i = 0; i < ENTRIES_PER_TAB; i++) {
+                urls[i] = "https://example.com/tab" + tab + "/page" + i + "?query=value";
+                titles[i] = "Example page " + i + " of tab " + tab;
+            }
+            tabs.add(new TabState(urls, titles, ENTRIES_PER_TAB - 1, 1200));
+        }
+        mSession = new ShellSessionState(tabs, 0);
+        mEncoded = write();
+    }
+
+    /** Tabs cache their encoding, so this is the cost of a save where no tab changed. */
+    @Benchmark
+    public byte[] write() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mSession.writeTo(out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public ShellSessionState read() throws IOException {
+        return ShellSessionState.readFrom(new ByteArrayInputStream(mEncoded));
+    }
+}
@@ -0,0 +1,62 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell.benchmarks;
+
+import org.chromium.content_shell.SlidingWindowHistogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures recording into and reading percentiles from the navigation metrics histograms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SlidingWindowHistogramBenchmark {
+
+    private static final long WINDOW_MS = 5 * 60 * 1000;
+    private static final int SLICES = 30;
+
+    private SlidingWindowHistogram mHistogram;
+    private final AtomicLong mValue = new AtomicLong();
+
+    @Setup
+    public void setUp() {
+        mHistogram = new SlidingWindowHistogram(WINDOW_MS, SLICES);
+        for (int i = 0; i < 10000; i++) mHistogram.record(i % 5000, 0);
+    }
+
+    @Benchmark
+    public void record() {
+        mHistogram.record(mValue.incrementAndGet() % 5000, 1000);
+    }
+
+    /** Recording never blocks, so contention only costs cache line transfers. */
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        mHistogram.record(mValue.incrementAndGet() % 5000, 1000);
+    }
+
+    @Benchmark
+    public long percentile() {
+        return mHistogram.getPercentile(95, 1000);
+    }
+}
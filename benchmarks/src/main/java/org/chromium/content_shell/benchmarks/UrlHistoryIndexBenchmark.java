@@ -0,0 +1,62 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell.benchmarks;
+
+import org.chromium.content_shell.UrlHistoryIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures URL bar suggestion queries against a history of 100k URLs, which run on every
+ * keystroke and have to stay well under a millisecond.  Short prefixes scan the most matches.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlHistoryIndexBenchmark {
+
+    private static final int URLS = 100000;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    @Param({"e", "ex", "example3", "https://www.example12"})
+    public String mPrefix;
+
+    private UrlHistoryIndex mIndex;
+    private final String[] mResults = new String[5];
+    private long mNowMs;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        mNowMs = System.currentTimeMillis();
+        mIndex = new UrlHistoryIndex();
+        for (int i = 0; i < URLS; i++) {
+            // Hosts spread over the alphabet, with a run of similar ones for long prefixes.
+            String host = i % 10 == 0 ? "example" + i : Integer.toString(i * 7919, 36);
+            mIndex.addVisits("https://www." + host + ".com/page" + random.nextInt(100),
+                    1 + random.nextInt(20), mNowMs - random.nextInt(365) * DAY_MS);
+        }
+    }
+
+    @Benchmark
+    public int query() {
+        return mIndex.query(mPrefix, mNowMs, mResults);
+    }
+}
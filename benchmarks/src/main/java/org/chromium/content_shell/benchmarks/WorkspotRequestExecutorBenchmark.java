@@ -0,0 +1,86 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell.benchmarks;
+
+import org.chromium.content_shell_apk.WorkspotFuture;
+import org.chromium.content_shell_apk.WorkspotRequest;
+import org.chromium.content_shell_apk.WorkspotRequestExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures dispatching requests to the WorkspotService executor: the round trip of a single
+ * request, and draining a burst of mixed-priority requests through the priority queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkspotRequestExecutorBenchmark {
+
+    private static final int BURST_SIZE = 1000;
+    private static final WorkspotRequest.Priority[] PRIORITIES = WorkspotRequest.Priority.values();
+
+    private WorkspotRequestExecutor mExecutor;
+
+    @Setup
+    public void setUp() {
+        // Matches the limits of WorkspotService.
+        mExecutor = new WorkspotRequestExecutor(8, 15000, Integer.MAX_VALUE, true,
+                "Benchmark");
+    }
+
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdown();
+    }
+
+    @Benchmark
+    public Integer roundTrip() throws InterruptedException, ExecutionException {
+        return mExecutor.submit(new ValueRequest(1, WorkspotRequest.Priority.INTERACTIVE)).get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST_SIZE)
+    public int burst() throws InterruptedException, ExecutionException {
+        @SuppressWarnings("unchecked")
+        WorkspotFuture<Integer>[] futures = new WorkspotFuture[BURST_SIZE];
+        for (int i = 0; i < BURST_SIZE; i++) {
+            futures[i] = mExecutor.submit(new ValueRequest(i, PRIORITIES[i % PRIORITIES.length]));
+        }
+        int sum = 0;
+        for (WorkspotFuture<Integer> future : futures) sum += future.get();
+        return sum;
+    }
+
+    private static class ValueRequest extends WorkspotRequest<Integer> {
+        private final int mValue;
+
+        ValueRequest(int value, Priority priority) {
+            super(priority);
+            mValue = value;
+        }
+
+        @Override
+        public Integer execute() {
+            return mValue;
+        }
+    }
+}
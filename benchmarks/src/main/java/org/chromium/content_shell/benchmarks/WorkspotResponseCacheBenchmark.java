@@ -0,0 +1,93 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell.benchmarks;
+
+import org.chromium.content_shell_apk.WorkspotRequest;
+import org.chromium.content_shell_apk.WorkspotRequestCoalescer;
+import org.chromium.content_shell_apk.WorkspotRequestExecutor;
+import org.chromium.content_shell_apk.WorkspotResponseCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures serving WorkspotService requests from the response cache, alone and from several
+ * threads, which is the path every repeated request takes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorkspotResponseCacheBenchmark {
+
+    private static final int KEYS = 256;
+
+    private WorkspotRequestExecutor mExecutor;
+    private WorkspotResponseCache mCache;
+    private final AtomicInteger mNextKey = new AtomicInteger();
+
+    @Setup
+    public void setUp() throws InterruptedException, ExecutionException {
+        mExecutor = new WorkspotRequestExecutor(8, "Benchmark");
+        mCache = new WorkspotResponseCache(new WorkspotRequestCoalescer(mExecutor),
+                2 * 1024 * 1024);
+        for (int i = 0; i < KEYS; i++) mCache.submit(new CachedRequest(i)).get();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdown();
+    }
+
+    @Benchmark
+    public String hit() throws InterruptedException, ExecutionException {
+        return mCache.submit(new CachedRequest(mNextKey.incrementAndGet() % KEYS)).get();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String hitContended() throws InterruptedException, ExecutionException {
+        return mCache.submit(new CachedRequest(mNextKey.incrementAndGet() % KEYS)).get();
+    }
+
+    private static class CachedRequest extends WorkspotRequest<String> {
+        private final int mKey;
+
+        CachedRequest(int key) {
+            super(Priority.INTERACTIVE);
+            mKey = key;
+        }
+
+        @Override
+        public String execute() {
+            return "response" + mKey;
+        }
+
+        @Override
+        public Object getRequestKey() {
+            return mKey;
+        }
+
+        @Override
+        public long getCacheTtlMs() {
+            return TimeUnit.HOURS.toMillis(1);
+        }
+    }
+}
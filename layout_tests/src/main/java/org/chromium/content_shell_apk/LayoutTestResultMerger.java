@@ -0,0 +1,75 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import org.chromium.base.StreamUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges the results of the shards of a layout test run on the host, once it has pulled the
+ * results.tsv of each shard from its device:
+ *
+ *   ./gradlew :layout_tests:mergeResults \
+ *       -PmergeArgs="test_list.txt layout_test_results.tsv shard_0.tsv shard_1.tsv ..."
+ *
+ * Shards run on separate devices, so no device sees the results of all of them.  Exits with 1 if
+ * a shard has no results, whose tests are then reported as not run.
+ */
+public class LayoutTestResultMerger {
+
+    private LayoutTestResultMerger() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: LayoutTestResultMerger <test list> <merged results> "
+                    + "<shard results>...");
+            System.exit(2);
+        }
+        List<File> shardResults = new ArrayList<File>();
+        for (int i = 2; i < args.length; i++) shardResults.add(new File(args[i]));
+        int missing = merge(new File(args[0]), new File(args[1]), shardResults);
+        System.exit(missing == 0 ? 0 : 1);
+    }
+
+    /**
+     * Writes one result line per test of the list, in list order.
+     * @param shardResults The results file of each shard; a missing one contributes nothing.
+     * @return The number of missing results files.
+     */
+    static int merge(File testList, File output, List<File> shardResults) throws IOException {
+        List<List<String>> results = new ArrayList<List<String>>();
+        int missing = 0;
+        for (File file : shardResults) {
+            if (file.exists()) {
+                results.add(LayoutTestSharder.readLines(file));
+            } else {
+                System.err.println("No shard results in " + file);
+                missing++;
+            }
+        }
+        writeLines(output, LayoutTestSharder.mergeResults(
+                LayoutTestSharder.readLines(testList), results));
+        return missing;
+    }
+
+    private static void writeLines(File file, List<String> lines) throws IOException {
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            for (String line : lines) writer.write(line + "\n");
+            writer.close();
+            writer = null;
+        } finally {
+            StreamUtil.closeQuietly(writer);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+// Copyright 2016 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package org.chromium.content_shell_apk;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link LayoutTestResultMerger}.
+ */
+public class LayoutTestResultMergerTest {
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("layout_test_results", "");
+        mDir.delete();
+        mDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDir.listFiles()) file.delete();
+        mDir.delete();
+    }
+
+    private File write(String name, String... lines) throws IOException {
+        File file = new File(mDir, name);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            for (String line : lines) writer.write(line + "\n");
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void testMergesPulledShardResults() throws IOException {
+        File testList = write("tests.txt", "a/1.html", "b/1.html", "a/2.html");
+        File first = write("shard_0.tsv", "a/1.html\tDONE\t5", "a/2.html\tTIMEOUT\t60000");
+        File second = write("shard_1.tsv", "b/1.html\tNOT_STARTED\t-1");
+        File output = new File(mDir, "merged.tsv");
+
+        assertEquals(0, LayoutTestResultMerger.merge(testList, output,
+                Arrays.asList(first, second)));
+        assertEquals(Arrays.asList("a/1.html\tDONE\t5", "b/1.html\tNOT_STARTED\t-1",
+                "a/2.html\tTIMEOUT\t60000"), LayoutTestSharder.readLines(output));
+    }
+
+    @Test
+    public void testMissingShardIsCountedAndNotRun() throws IOException {
+        File testList = write("tests.txt", "a/1.html", "b/1.html");
+        File first = write("shard_0.tsv", "a/1.html\tDONE\t5");
+        File output = new File(mDir, "merged.tsv");
+
+        assertEquals(1, LayoutTestResultMerger.merge(testList, output,
+                Arrays.asList(first, new File(mDir, "shard_1.tsv"))));
+        assertEquals(Arrays.asList("a/1.html\tDONE\t5", "b/1.html\tNOT_RUN\t-1"),
+                LayoutTestSharder.readLines(output));
+    }
+}